@@ -4,6 +4,10 @@ import com.bobo.llm4j.chat.client.ChatOptions;
 import com.bobo.llm4j.chat.entity.ChatResponse;
 import com.bobo.llm4j.chat.entity.Prompt;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
 /**
  * ChatModel interface - Spring AI compatible chat model interface
  * <p>
@@ -40,6 +44,30 @@ public interface ChatModel extends StreamingChatModel {
      */
     ChatResponse call(Prompt prompt) throws Exception;
 
+    /**
+     * Asynchronously call the AI model with a prompt.
+     * <p>
+     * HTTP-backed implementations send the request without holding a thread while the model
+     * generates, so many calls can be in flight at once. The default implementation runs
+     * {@link #call(Prompt)} on the common fork-join pool.
+     * </p>
+     *
+     * @param prompt the prompt containing messages and optional runtime options
+     * @return a future completed with the chat response, or exceptionally if the call fails
+     */
+    default CompletableFuture<ChatResponse> callAsync(final Prompt prompt) {
+        return CompletableFuture.supplyAsync(new Supplier<ChatResponse>() {
+            @Override
+            public ChatResponse get() {
+                try {
+                    return call(prompt);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }
+        });
+    }
+
     /**
      * Simplified call method that accepts a plain text message.
      * <p>
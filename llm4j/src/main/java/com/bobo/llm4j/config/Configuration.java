@@ -1,5 +1,7 @@
 package com.bobo.llm4j.config;
 
+import com.bobo.llm4j.network.DispatcherProvider;
+import com.bobo.llm4j.utils.ServiceLoaderUtil;
 import lombok.Builder;
 import lombok.Data;
 import okhttp3.OkHttpClient;
@@ -20,6 +22,7 @@ public class Configuration {
 
     @Builder.Default
     private OkHttpClient okHttpClient = new OkHttpClient.Builder()
+            .dispatcher(ServiceLoaderUtil.load(DispatcherProvider.class).getDispatcher())
             .connectTimeout(30, TimeUnit.SECONDS)
             .readTimeout(60, TimeUnit.SECONDS)
             .writeTimeout(60, TimeUnit.SECONDS)
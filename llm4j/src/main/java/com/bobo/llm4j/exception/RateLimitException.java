@@ -0,0 +1,17 @@
+package com.bobo.llm4j.exception;
+
+import java.io.IOException;
+
+/**
+ * A request was shed locally because its provider's rate limit would not allow it in time.
+ * <p>
+ * It is an {@link IOException} so OkHttp reports it like any other failed call. It is not a
+ * transient failure: retrying it only adds load the limiter has already refused, so callers that
+ * retry I/O errors should let it through.
+ */
+public class RateLimitException extends IOException {
+
+    public RateLimitException(String msg) {
+        super(msg);
+    }
+}
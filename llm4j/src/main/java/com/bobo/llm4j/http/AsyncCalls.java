@@ -0,0 +1,114 @@
+package com.bobo.llm4j.http;
+
+import com.bobo.llm4j.interceptor.RateLimitInterceptor;
+import okhttp3.*;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Bridges OkHttp's {@link Call#enqueue} to {@link CompletableFuture}.
+ * <p>
+ * No thread waits while a request is in flight: the response is read on an OkHttp dispatcher
+ * thread when it arrives, and closed afterwards. Cancelling the future cancels the call.
+ * Quota of a {@link RateLimitInterceptor} on the client is waited for before the call is
+ * enqueued, so that wait does not hold a dispatcher thread either.
+ */
+public final class AsyncCalls {
+
+    private AsyncCalls() {
+    }
+
+    /**
+     * Turns a response into a result; runs on an OkHttp dispatcher thread.
+     */
+    public interface ResponseReader<T> {
+        T read(Response response) throws Exception;
+    }
+
+    /**
+     * Sends the request on the client once any {@link RateLimitInterceptor} installed on it has
+     * reserved its quota.
+     */
+    public static <T> CompletableFuture<T> enqueue(final OkHttpClient client, Request request,
+                                                   final ResponseReader<T> reader) {
+        RateLimitInterceptor limiter = null;
+        for (Interceptor interceptor : client.interceptors()) {
+            if (interceptor instanceof RateLimitInterceptor) {
+                limiter = (RateLimitInterceptor) interceptor;
+                break;
+            }
+        }
+        if (limiter == null) {
+            return enqueue(client.newCall(request), reader);
+        }
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        final CompletableFuture<Request> reserved = limiter.reserve(request);
+        reserved.whenComplete(new BiConsumer<Request, Throwable>() {
+            @Override
+            public void accept(Request ready, Throwable error) {
+                if (error != null) {
+                    future.completeExceptionally(error);
+                    return;
+                }
+                final CompletableFuture<T> sent = enqueue(client.newCall(ready), reader);
+                sent.whenComplete(new BiConsumer<T, Throwable>() {
+                    @Override
+                    public void accept(T result, Throwable failure) {
+                        if (failure != null) {
+                            future.completeExceptionally(failure);
+                        } else {
+                            future.complete(result);
+                        }
+                    }
+                });
+                future.whenComplete(new BiConsumer<T, Throwable>() {
+                    @Override
+                    public void accept(T result, Throwable failure) {
+                        if (future.isCancelled()) {
+                            sent.cancel(true);
+                        }
+                    }
+                });
+            }
+        });
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable error) {
+                if (future.isCancelled()) {
+                    reserved.cancel(true);
+                }
+            }
+        });
+        return future;
+    }
+
+    public static <T> CompletableFuture<T> enqueue(final Call call, final ResponseReader<T> reader) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call failed, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call completed, Response response) {
+                try (Response body = response) {
+                    future.complete(reader.read(body));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable error) {
+                if (future.isCancelled()) {
+                    call.cancel();
+                }
+            }
+        });
+        return future;
+    }
+}
@@ -0,0 +1,437 @@
+package com.bobo.llm4j.interceptor;
+
+import com.bobo.llm4j.exception.RateLimitException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import lombok.Builder;
+import lombok.Getter;
+import okhttp3.*;
+import okio.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Client-side requests-per-minute and tokens-per-minute limiter for chat and embedding calls.
+ * <p>
+ * Every request is charged against a pair of token buckets kept per provider host and model.
+ * Its cost is estimated locally with cl100k_base from the {@code messages} or {@code input} of
+ * the JSON body, plus {@code max_completion_tokens}/{@code max_tokens} when set. A request that
+ * does not fit waits for the buckets to refill, up to {@code maxWaitMillis}; beyond that it is
+ * shed with a {@link RateLimitException} before anything is sent.
+ * <p>
+ * The {@code usage.total_tokens} the provider reports at the end of a response, streamed or not,
+ * replaces the estimate once the body has been read. A 429 with {@code Retry-After} holds back
+ * the bucket for that long.
+ * <p>
+ * A synchronous call waits for quota on the calling thread. Asynchronous calls should not wait
+ * inside the interceptor, where they would hold an OkHttp dispatcher thread, so the models
+ * first {@link #reserve} the quota of a request, waiting on a timer, and only enqueue it once
+ * it has been charged; see {@link com.bobo.llm4j.http.AsyncCalls#enqueue(OkHttpClient, Request,
+ * com.bobo.llm4j.http.AsyncCalls.ResponseReader)}. Install it on the {@link OkHttpClient}
+ * shared by the models, after an {@link ErrorInterceptor} so it still sees the raw 429:
+ * <pre>{@code
+ * new OkHttpClient.Builder()
+ *         .addInterceptor(new ErrorInterceptor())
+ *         .addInterceptor(RateLimitInterceptor.builder().requestsPerMinute(500).tokensPerMinute(200000).build())
+ *         .build();
+ * }</pre>
+ */
+public class RateLimitInterceptor implements Interceptor {
+
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 30000L;
+
+    /**
+     * Bytes kept from the end of a response to find its usage in.
+     */
+    private static final int TAIL_BYTES = 2048;
+    private static final int TOKENS_PER_MESSAGE = 4;
+    private static final int TOKENS_PER_REPLY = 3;
+    private static final Pattern TOTAL_TOKENS = Pattern.compile("\"total_tokens\"\\s*:\\s*(\\d+)");
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "rate-limit-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final Limit defaultLimit;
+    private final Map<String, Limit> modelLimits;
+    private final long maxWaitNanos;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    /**
+     * @param requestsPerMinute default request quota per host and model; unlimited if not positive
+     * @param tokensPerMinute   default token quota per host and model; unlimited if not positive
+     * @param maxWaitMillis     longest a request may queue for quota before it is shed
+     * @param modelLimits       quotas of specific models, overriding the defaults
+     */
+    @Builder
+    public RateLimitInterceptor(int requestsPerMinute, int tokensPerMinute, long maxWaitMillis,
+                                Map<String, Limit> modelLimits) {
+        this.defaultLimit = new Limit(requestsPerMinute, tokensPerMinute);
+        this.modelLimits = modelLimits == null ? Collections.<String, Limit>emptyMap()
+                : new HashMap<String, Limit>(modelLimits);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis > 0 ? maxWaitMillis : DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    /**
+     * Charges the quota of a request about to be enqueued, waiting for it on a timer instead of
+     * a thread. Send the returned request: it is tagged as paid for, so this interceptor lets it
+     * through without charging it again. Fails with a {@link RateLimitException} when the wait
+     * would exceed {@code maxWaitMillis}; cancelling the future gives up the wait.
+     */
+    public CompletableFuture<Request> reserve(final Request request) {
+        final Reservation reservation = reservation(request);
+        final CompletableFuture<Request> ready = new CompletableFuture<Request>();
+        final long deadline = System.nanoTime() + maxWaitNanos;
+        new Runnable() {
+            @Override
+            public void run() {
+                if (ready.isDone()) {
+                    return;
+                }
+                long wait;
+                try {
+                    wait = reservation.bucket.tryAcquire(reservation.estimate, deadline);
+                } catch (RateLimitException e) {
+                    ready.completeExceptionally(e);
+                    return;
+                }
+                if (wait > 0) {
+                    TIMER.schedule(this, wait, TimeUnit.NANOSECONDS);
+                } else if (!ready.complete(request.newBuilder().tag(Reservation.class, reservation).build())) {
+                    reservation.bucket.refund(reservation.estimate);
+                }
+            }
+        }.run();
+        return ready;
+    }
+
+    @NotNull
+    @Override
+    public Response intercept(@NotNull Chain chain) throws IOException {
+        Request request = chain.request();
+        Reservation reservation = request.tag(Reservation.class);
+        if (reservation == null || reservation.owner != this) {
+            reservation = reservation(request);
+            reservation.bucket.acquire(reservation.estimate, maxWaitNanos);
+        }
+        Bucket bucket = reservation.bucket;
+        int estimate = reservation.estimate;
+
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException | RuntimeException e) {
+            bucket.refund(estimate);
+            throw e;
+        }
+        if (!response.isSuccessful()) {
+            bucket.refund(estimate);
+            if (response.code() == 429) {
+                bucket.pause(retryAfterMillis(response));
+            }
+            return response;
+        }
+        if (response.body() == null) {
+            return response;
+        }
+        return response.newBuilder().body(new UsageBody(response.body(), bucket, estimate)).build();
+    }
+
+    private Reservation reservation(Request request) {
+        JsonNode body = readJson(request.body());
+        String model = body == null ? "" : body.path("model").asText("");
+        return new Reservation(this, bucket(request.url().host(), model), body == null ? 1 : estimate(body));
+    }
+
+    private Bucket bucket(String host, String model) {
+        String key = host + "/" + model;
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            Limit limit = modelLimits.get(model);
+            Bucket created = new Bucket(limit == null ? defaultLimit : limit);
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket;
+    }
+
+    private JsonNode readJson(RequestBody body) {
+        if (body == null || body.isOneShot() || body.contentType() == null
+                || !"json".equals(body.contentType().subtype())) {
+            return null;
+        }
+        try {
+            Buffer buffer = new Buffer();
+            body.writeTo(buffer);
+            return objectMapper.readTree(buffer.inputStream());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Prompt tokens the way OpenAI counts chat messages, plus the completion budget.
+     */
+    int estimate(JsonNode body) {
+        int tokens = 0;
+        JsonNode messages = body.get("messages");
+        if (messages != null && messages.isArray()) {
+            for (JsonNode message : messages) {
+                tokens += TOKENS_PER_MESSAGE + countText(message);
+            }
+            tokens += TOKENS_PER_REPLY;
+        }
+        JsonNode input = body.get("input");
+        if (input != null) {
+            tokens += countText(input);
+        }
+        JsonNode completion = body.has("max_completion_tokens") ? body.get("max_completion_tokens")
+                : body.get("max_tokens");
+        if (completion != null && completion.canConvertToInt()) {
+            tokens += completion.asInt();
+        }
+        return Math.max(tokens, 1);
+    }
+
+    private int countText(JsonNode node) {
+        if (node.isTextual()) {
+            return encoding.countTokens(node.asText());
+        }
+        int tokens = 0;
+        for (Iterator<JsonNode> children = node.elements(); children.hasNext(); ) {
+            tokens += countText(children.next());
+        }
+        return tokens;
+    }
+
+    private static long retryAfterMillis(Response response) {
+        String retryAfter = response.header("Retry-After");
+        if (retryAfter != null) {
+            try {
+                return (long) (Double.parseDouble(retryAfter.trim()) * 1000d);
+            } catch (NumberFormatException e) {
+                // HTTP dates are rare from model providers; fall back to the refill rate.
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Quota of one provider model; a value that is not positive means unlimited.
+     */
+    @Getter
+    public static final class Limit {
+        private final int requestsPerMinute;
+        private final int tokensPerMinute;
+
+        public Limit(int requestsPerMinute, int tokensPerMinute) {
+            this.requestsPerMinute = requestsPerMinute;
+            this.tokensPerMinute = tokensPerMinute;
+        }
+    }
+
+    /**
+     * Quota charged for a request ahead of sending it, carried as a tag of the request.
+     */
+    private static final class Reservation {
+        private final RateLimitInterceptor owner;
+        private final Bucket bucket;
+        private final int estimate;
+
+        private Reservation(RateLimitInterceptor owner, Bucket bucket, int estimate) {
+            this.owner = owner;
+            this.bucket = bucket;
+            this.estimate = estimate;
+        }
+    }
+
+    /**
+     * Request and token buckets of one host and model, each holding up to a minute of quota.
+     */
+    static final class Bucket {
+        private static final double NANOS_PER_MINUTE = 60e9;
+
+        private final Limit limit;
+        private double requests;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+        private long pausedUntil = refilledAt;
+
+        Bucket(Limit limit) {
+            this.limit = limit;
+            this.requests = limit.requestsPerMinute;
+            this.tokens = limit.tokensPerMinute;
+        }
+
+        void acquire(int estimate, long maxWaitNanos) throws IOException {
+            long deadline = System.nanoTime() + maxWaitNanos;
+            while (true) {
+                long wait = tryAcquire(estimate, deadline);
+                if (wait <= 0) {
+                    return;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RateLimitException("Interrupted while waiting for rate limit");
+                }
+            }
+        }
+
+        /**
+         * Charges the request and returns 0 if the quota allows it now, else how long to wait.
+         */
+        synchronized long tryAcquire(int estimate, long deadline) throws RateLimitException {
+            long now = System.nanoTime();
+            refill(now);
+            long wait = Math.max(pausedUntil - now, Math.max(
+                    waitNanos(requests, 1, limit.requestsPerMinute),
+                    // A request larger than a minute of quota goes once the bucket is full.
+                    waitNanos(tokens, Math.min(estimate, limit.tokensPerMinute), limit.tokensPerMinute)));
+            if (wait <= 0) {
+                requests -= 1;
+                tokens -= estimate;
+                return 0L;
+            }
+            if (now + wait > deadline) {
+                throw new RateLimitException("Rate limit would delay the request by "
+                        + TimeUnit.NANOSECONDS.toMillis(wait) + " ms");
+            }
+            return wait;
+        }
+
+        synchronized void refund(int tokenCount) {
+            requests += 1;
+            tokens += tokenCount;
+            cap();
+        }
+
+        /**
+         * Replace the estimate charged for a request by what the provider reported.
+         */
+        synchronized void settle(int estimate, int actual) {
+            tokens += estimate - actual;
+            cap();
+        }
+
+        synchronized void pause(long millis) {
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            pausedUntil = Math.max(pausedUntil, until);
+        }
+
+        private void refill(long now) {
+            double minutes = (now - refilledAt) / NANOS_PER_MINUTE;
+            refilledAt = now;
+            requests += minutes * limit.requestsPerMinute;
+            tokens += minutes * limit.tokensPerMinute;
+            cap();
+        }
+
+        private void cap() {
+            requests = Math.min(requests, limit.requestsPerMinute);
+            tokens = Math.min(tokens, limit.tokensPerMinute);
+        }
+
+        private static long waitNanos(double available, double needed, int perMinute) {
+            if (perMinute <= 0 || available >= needed) {
+                return 0L;
+            }
+            return (long) Math.ceil((needed - available) * NANOS_PER_MINUTE / perMinute);
+        }
+    }
+
+    /**
+     * Passes the body through and keeps its last bytes, where providers put the usage.
+     */
+    private final class UsageBody extends ResponseBody {
+        private final ResponseBody delegate;
+        private final Bucket bucket;
+        private final int estimate;
+        private final Buffer tail = new Buffer();
+        private BufferedSource source;
+        private boolean settled;
+
+        UsageBody(ResponseBody delegate, Bucket bucket, int estimate) {
+            this.delegate = delegate;
+            this.bucket = bucket;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @NotNull
+        @Override
+        public BufferedSource source() {
+            if (source == null) {
+                source = Okio.buffer(new ForwardingSource(delegate.source()) {
+                    @Override
+                    public long read(@NotNull Buffer sink, long byteCount) throws IOException {
+                        long read = super.read(sink, byteCount);
+                        if (read == -1) {
+                            settle();
+                            return read;
+                        }
+                        long keep = Math.min(read, TAIL_BYTES);
+                        sink.copyTo(tail, sink.size() - keep, keep);
+                        if (tail.size() > TAIL_BYTES) {
+                            tail.skip(tail.size() - TAIL_BYTES);
+                        }
+                        return read;
+                    }
+                });
+            }
+            return source;
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+            settle();
+        }
+
+        private void settle() {
+            if (settled) {
+                return;
+            }
+            settled = true;
+            Matcher matcher = TOTAL_TOKENS.matcher(tail.readUtf8());
+            Integer actual = null;
+            while (matcher.find()) {
+                actual = Integer.valueOf(matcher.group(1));
+            }
+            if (actual != null) {
+                bucket.settle(estimate, actual);
+            }
+        }
+    }
+}
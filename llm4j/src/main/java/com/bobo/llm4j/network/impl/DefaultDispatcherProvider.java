@@ -9,8 +9,19 @@ import okhttp3.Dispatcher;
  * @Date 2024/10/16 23:11
  */
 public class DefaultDispatcherProvider implements DispatcherProvider {
+
+    /**
+     * Asynchronous calls to one provider all go to the same host, so OkHttp's default of five
+     * concurrent requests per host would throttle them.
+     */
+    public static final int MAX_REQUESTS = 256;
+    public static final int MAX_REQUESTS_PER_HOST = 64;
+
     @Override
     public Dispatcher getDispatcher() {
-        return new Dispatcher();
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+        return dispatcher;
     }
 }
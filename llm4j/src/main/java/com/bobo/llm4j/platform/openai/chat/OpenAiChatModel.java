@@ -9,12 +9,15 @@ import com.bobo.llm4j.config.OpenAiConfig;
 import com.bobo.llm4j.constant.Constants;
 import com.bobo.llm4j.http.StreamingResponseHandler;
 import com.bobo.llm4j.config.Configuration;
+import com.bobo.llm4j.http.AsyncCalls;
 import com.bobo.llm4j.http.Flux;
 import com.bobo.llm4j.utils.ValidateUtil;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
 import okhttp3.sse.EventSource;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * OpenAiChatModel - OpenAI Chat模型实现 (Spring AI compatible)
  * <p>
@@ -54,6 +57,28 @@ public class OpenAiChatModel implements ChatModel {
         return internalCall(null, null, prompt);
     }
 
+    /**
+     * Sends the request with OkHttp {@code enqueue}; no thread waits for the response.
+     */
+    @Override
+    public CompletableFuture<ChatResponse> callAsync(Prompt prompt) {
+        final ObjectMapper mapper = new ObjectMapper();
+        Request request;
+        try {
+            request = buildCallRequest(null, null, prompt, mapper);
+        } catch (Exception e) {
+            CompletableFuture<ChatResponse> failed = new CompletableFuture<ChatResponse>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return AsyncCalls.enqueue(okHttpClient, request, new AsyncCalls.ResponseReader<ChatResponse>() {
+            @Override
+            public ChatResponse read(Response response) throws Exception {
+                return readCallResponse(response, mapper);
+            }
+        });
+    }
+
     /**
      * Internal call method with optional baseUrl and apiKey override
      * 
@@ -64,21 +89,29 @@ public class OpenAiChatModel implements ChatModel {
      * @throws Exception if error occurs
      */
     private ChatResponse internalCall(String baseUrl, String apiKey, Prompt prompt) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        Request request = buildCallRequest(baseUrl, apiKey, prompt, mapper);
+        try (Response execute = okHttpClient.newCall(request).execute()) {
+            return readCallResponse(execute, mapper);
+        }
+    }
+
+    private Request buildCallRequest(String baseUrl, String apiKey, Prompt prompt, ObjectMapper mapper) throws Exception {
         if(baseUrl == null || baseUrl.isEmpty()) baseUrl = openAiConfig.getApiHost();
         if(apiKey == null || apiKey.isEmpty()) apiKey = openAiConfig.getApiKey();
         prompt.setStream(false);
         prompt.setStreamOptions(null);
 
-        ObjectMapper mapper = new ObjectMapper();
         String requestString = mapper.writeValueAsString(prompt);
 
-        Request request = new Request.Builder()
+        return new Request.Builder()
                 .header("Authorization", "Bearer " + apiKey)
                 .url(ValidateUtil.concatUrl(baseUrl, openAiConfig.getChatCompletionUrl()))
                 .post(RequestBody.create(requestString, MediaType.parse(Constants.JSON_CONTENT_TYPE)))
                 .build();
+    }
 
-        Response execute = okHttpClient.newCall(request).execute();
+    private ChatResponse readCallResponse(Response execute, ObjectMapper mapper) throws Exception {
         if (execute.isSuccessful() && execute.body() != null){
             return mapper.readValue(execute.body().string(), ChatResponse.class);
         }else{
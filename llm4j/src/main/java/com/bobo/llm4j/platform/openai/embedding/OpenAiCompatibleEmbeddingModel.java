@@ -1,35 +1,102 @@
 package com.bobo.llm4j.platform.openai.embedding;
 
 import com.bobo.llm4j.constant.Constants;
+import com.bobo.llm4j.exception.RateLimitException;
+import com.bobo.llm4j.http.AsyncCalls;
 import com.bobo.llm4j.rag.embedding.EmbeddingModel;
+import com.bobo.llm4j.rag.embedding.EmbeddingVectors;
 import com.bobo.llm4j.utils.ValidateUtil;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import lombok.Builder;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * OpenAI-compatible embedding client used by both OpenAI and Qwen.
+ * <p>
+ * {@link #embedAll} splits its input into sub-batches of at most {@code maxBatchSize} texts and
+ * {@code maxTokensPerRequest} tokens, counted locally with cl100k_base. Sub-batches are sent
+ * concurrently, with at most {@code maxConcurrentRequests} requests in flight per model, and the
+ * vectors are reassembled in input order. A sub-batch that fails with an I/O error, 429 or 5xx
+ * is retried on its own up to {@code maxRetries} times with exponential backoff; one shed by a
+ * {@link RateLimitException} is not.
+ * <p>
+ * Requests are sent with OkHttp {@code enqueue}: {@link #embedAllVectorsAsync} holds no thread
+ * while waiting, and the blocking methods only wait for its result. Sub-batches over the
+ * in-flight limit are queued, not blocked on.
  */
 public class OpenAiCompatibleEmbeddingModel implements EmbeddingModel {
 
+    public static final int DEFAULT_MAX_BATCH_SIZE = 2048;
+    public static final int DEFAULT_MAX_TOKENS_PER_REQUEST = 300000;
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+    public static final int DEFAULT_MAX_RETRIES = 2;
+    public static final long DEFAULT_RETRY_BACKOFF_MILLIS = 500L;
+
+    private static final ScheduledExecutorService RETRIES = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "embedding-retry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
     private final OkHttpClient okHttpClient;
     private final String apiHost;
     private final String apiKey;
     private final String embeddingUrl;
     private final String model;
+    private final int maxBatchSize;
+    private final int maxTokensPerRequest;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final Permits inFlight;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
 
     public OpenAiCompatibleEmbeddingModel(OkHttpClient okHttpClient, String apiHost, String apiKey,
                                           String embeddingUrl, String model) {
+        this(okHttpClient, apiHost, apiKey, embeddingUrl, model, 0);
+    }
+
+    /**
+     * @param maxBatchSize texts per request, for providers with a lower limit than OpenAI
+     */
+    public OpenAiCompatibleEmbeddingModel(OkHttpClient okHttpClient, String apiHost, String apiKey,
+                                          String embeddingUrl, String model, int maxBatchSize) {
+        this(okHttpClient, apiHost, apiKey, embeddingUrl, model, maxBatchSize, 0, 0, null, 0L);
+    }
+
+    /**
+     * @param maxBatchSize          texts per request
+     * @param maxTokensPerRequest   tokens per request; a single longer text is still sent alone
+     * @param maxConcurrentRequests requests of this model in flight at once
+     * @param maxRetries            retries of a failed sub-batch; {@code 0} disables retries,
+     *                              {@code null} means {@value #DEFAULT_MAX_RETRIES}
+     * @param retryBackoffMillis    delay before the first retry, doubled after each one
+     */
+    @Builder
+    public OpenAiCompatibleEmbeddingModel(OkHttpClient okHttpClient, String apiHost, String apiKey,
+                                          String embeddingUrl, String model, int maxBatchSize,
+                                          int maxTokensPerRequest, int maxConcurrentRequests, Integer maxRetries,
+                                          long retryBackoffMillis) {
         if (okHttpClient == null) {
             throw new IllegalArgumentException("okHttpClient cannot be null");
         }
@@ -38,48 +105,266 @@ public class OpenAiCompatibleEmbeddingModel implements EmbeddingModel {
         this.apiKey = apiKey;
         this.embeddingUrl = embeddingUrl;
         this.model = model;
+        this.maxBatchSize = maxBatchSize > 0 ? maxBatchSize : DEFAULT_MAX_BATCH_SIZE;
+        this.maxTokensPerRequest = maxTokensPerRequest > 0 ? maxTokensPerRequest : DEFAULT_MAX_TOKENS_PER_REQUEST;
+        if (maxRetries != null && maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative");
+        }
+        this.maxRetries = maxRetries == null ? DEFAULT_MAX_RETRIES : maxRetries;
+        this.retryBackoffMillis = retryBackoffMillis > 0 ? retryBackoffMillis : DEFAULT_RETRY_BACKOFF_MILLIS;
+        this.inFlight = new Permits(maxConcurrentRequests > 0 ? maxConcurrentRequests
+                : DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    @Override
+    public String getModelName() {
+        return model;
     }
 
     @Override
     public List<List<Double>> embedAll(List<String> texts) throws Exception {
+        return EmbeddingVectors.toLists(embedAllVectors(texts));
+    }
+
+    @Override
+    public List<float[]> embedAllVectors(List<String> texts) throws Exception {
+        try {
+            return embedAllVectorsAsync(texts).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<float[]>> embedAllVectorsAsync(List<String> texts) {
         if (texts == null || texts.isEmpty()) {
-            return new ArrayList<List<Double>>();
+            return CompletableFuture.<List<float[]>>completedFuture(new ArrayList<float[]>());
         }
+        final int size = texts.size();
+        final List<CompletableFuture<List<float[]>>> requests = new ArrayList<CompletableFuture<List<float[]>>>();
+        for (List<String> batch : split(texts)) {
+            requests.add(embedBatch(batch));
+        }
+        return CompletableFuture.allOf(requests.toArray(new CompletableFuture[0]))
+                .thenApply(new Function<Void, List<float[]>>() {
+                    @Override
+                    public List<float[]> apply(Void done) {
+                        List<float[]> result = new ArrayList<float[]>(size);
+                        for (CompletableFuture<List<float[]>> request : requests) {
+                            result.addAll(request.join());
+                        }
+                        return result;
+                    }
+                });
+    }
+
+    /**
+     * Consecutive runs of texts that fit the per-request limits.
+     */
+    private List<List<String>> split(List<String> texts) {
+        List<List<String>> batches = new ArrayList<List<String>>();
+        List<String> batch = new ArrayList<String>();
+        int tokens = 0;
+        for (String text : texts) {
+            int count = text == null ? 0 : encoding.countTokens(text);
+            if (!batch.isEmpty() && (batch.size() == maxBatchSize || tokens + count > maxTokensPerRequest)) {
+                batches.add(batch);
+                batch = new ArrayList<String>();
+                tokens = 0;
+            }
+            batch.add(text);
+            tokens += count;
+        }
+        batches.add(batch);
+        return batches;
+    }
+
+    /**
+     * Sends a sub-batch once a permit is free. The permit is held across retries.
+     */
+    private CompletableFuture<List<float[]>> embedBatch(final List<String> batch) {
+        final CompletableFuture<List<float[]>> result = new CompletableFuture<List<float[]>>();
+        inFlight.run(new Runnable() {
+            @Override
+            public void run() {
+                attempt(batch, 0, result);
+            }
+        });
+        return result;
+    }
+
+    private void attempt(final List<String> batch, final int attempt, final CompletableFuture<List<float[]>> result) {
+        request(batch).whenComplete(new BiConsumer<List<float[]>, Throwable>() {
+            @Override
+            public void accept(List<float[]> vectors, Throwable error) {
+                if (error != null && attempt < maxRetries && isRetryable(error)) {
+                    RETRIES.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            attempt(batch, attempt + 1, result);
+                        }
+                    }, retryBackoffMillis << attempt, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                inFlight.release();
+                if (error != null) {
+                    result.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error);
+                } else {
+                    result.complete(vectors);
+                }
+            }
+        });
+    }
+
+    private static boolean isRetryable(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return (cause instanceof IOException && !(cause instanceof RateLimitException))
+                || (cause instanceof StatusException && ((StatusException) cause).isRetryable());
+    }
+
+    private CompletableFuture<List<float[]>> request(final List<String> texts) {
         Map<String, Object> payload = new LinkedHashMap<String, Object>();
         payload.put("model", model);
         payload.put("input", texts);
 
-        String body = objectMapper.writeValueAsString(payload);
+        String body;
+        try {
+            body = objectMapper.writeValueAsString(payload);
+        } catch (IOException e) {
+            CompletableFuture<List<float[]>> failed = new CompletableFuture<List<float[]>>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
         Request request = new Request.Builder()
                 .header("Authorization", "Bearer " + apiKey)
                 .url(ValidateUtil.concatUrl(apiHost, embeddingUrl))
                 .post(RequestBody.create(body, MediaType.parse(Constants.JSON_CONTENT_TYPE)))
                 .build();
 
-        Response response = okHttpClient.newCall(request).execute();
-        if (!response.isSuccessful() || response.body() == null) {
-            throw new RuntimeException("Embedding request failed, status=" + response.code());
+        return AsyncCalls.enqueue(okHttpClient, request, new AsyncCalls.ResponseReader<List<float[]>>() {
+            @Override
+            public List<float[]> read(Response response) throws Exception {
+                if (!response.isSuccessful() || response.body() == null) {
+                    throw new StatusException(response.code());
+                }
+                return parse(response.body().byteStream(), texts.size());
+            }
+        });
+    }
+
+    /**
+     * Read the {@code data} array of an embeddings response straight off the stream. Vectors
+     * are placed by their {@code index}; once the first one is read, the rest are allocated at
+     * its dimension, so after the first one no vector is boxed or resized.
+     */
+    private List<float[]> parse(InputStream body, int expected) throws IOException {
+        float[][] vectors = new float[expected][];
+        int count = 0;
+        int dimension = 0;
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Malformed embedding response");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                if (parser.nextToken() != JsonToken.START_ARRAY || !"data".equals(field)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    int index = count;
+                    float[] vector = null;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String name = parser.getCurrentName();
+                        JsonToken value = parser.nextToken();
+                        if ("index".equals(name) && value == JsonToken.VALUE_NUMBER_INT) {
+                            index = parser.getIntValue();
+                        } else if ("embedding".equals(name) && value == JsonToken.START_ARRAY) {
+                            vector = readVector(parser, dimension);
+                            dimension = vector.length;
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    if (vector == null) {
+                        continue;
+                    }
+                    if (index < 0 || index >= expected || vectors[index] != null) {
+                        throw new IllegalStateException("Unexpected embedding index " + index);
+                    }
+                    vectors[index] = vector;
+                    count++;
+                }
+            }
+        }
+        if (count != expected) {
+            throw new IllegalStateException("Expected " + expected + " embeddings but got " + count);
+        }
+        return Arrays.asList(vectors);
+    }
+
+    private static float[] readVector(JsonParser parser, int dimension) throws IOException {
+        float[] vector = new float[dimension > 0 ? dimension : 256];
+        int size = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null) {
+                throw new IOException("Truncated embedding response");
+            }
+            if (size == vector.length) {
+                vector = Arrays.copyOf(vector, size * 2);
+            }
+            vector[size++] = parser.getFloatValue();
+        }
+        return size == vector.length ? vector : Arrays.copyOf(vector, size);
+    }
+
+    private static final class StatusException extends RuntimeException {
+        private final int code;
+
+        private StatusException(int code) {
+            super("Embedding request failed, status=" + code);
+            this.code = code;
         }
 
-        String responseBody = response.body().string();
-        JsonNode root = objectMapper.readTree(responseBody);
-        JsonNode dataNode = root.get("data");
-        List<List<Double>> result = new ArrayList<List<Double>>();
-        if (dataNode == null || !dataNode.isArray()) {
-            return result;
+        private boolean isRetryable() {
+            return code == 429 || code >= 500;
         }
-        for (JsonNode item : dataNode) {
-            JsonNode embedding = item.get("embedding");
-            if (embedding == null || !embedding.isArray()) {
-                continue;
+    }
+
+    /**
+     * A counting semaphore that queues work instead of blocking the caller.
+     */
+    private static final class Permits {
+        private final Queue<Runnable> waiting = new ArrayDeque<Runnable>();
+        private int available;
+
+        private Permits(int available) {
+            this.available = available;
+        }
+
+        void run(Runnable task) {
+            synchronized (this) {
+                if (available == 0) {
+                    waiting.add(task);
+                    return;
+                }
+                available--;
             }
-            List<Double> vector = new ArrayList<Double>(embedding.size());
-            for (JsonNode value : embedding) {
-                vector.add(value.asDouble());
+            task.run();
+        }
+
+        void release() {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    available++;
+                    return;
+                }
             }
-            result.add(vector);
+            next.run();
         }
-        return result;
     }
 }
-
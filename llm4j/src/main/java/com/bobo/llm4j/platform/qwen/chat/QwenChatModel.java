@@ -9,12 +9,15 @@ import com.bobo.llm4j.config.QwenConfig;
 import com.bobo.llm4j.constant.Constants;
 import com.bobo.llm4j.http.StreamingResponseHandler;
 import com.bobo.llm4j.config.Configuration;
+import com.bobo.llm4j.http.AsyncCalls;
 import com.bobo.llm4j.http.Flux;
 import com.bobo.llm4j.utils.ValidateUtil;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
 import okhttp3.sse.EventSource;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * QwenChatModel - 千问(Qwen) Chat模型实现 (OpenAI兼容模式)
  * <p>
@@ -67,6 +70,28 @@ public class QwenChatModel implements ChatModel {
         return internalCall(null, null, prompt);
     }
 
+    /**
+     * 异步调用：通过 OkHttp enqueue 发送请求，等待响应期间不占用线程
+     */
+    @Override
+    public CompletableFuture<ChatResponse> callAsync(Prompt prompt) {
+        final ObjectMapper mapper = new ObjectMapper();
+        Request request;
+        try {
+            request = buildCallRequest(null, null, prompt, mapper);
+        } catch (Exception e) {
+            CompletableFuture<ChatResponse> failed = new CompletableFuture<ChatResponse>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return AsyncCalls.enqueue(okHttpClient, request, new AsyncCalls.ResponseReader<ChatResponse>() {
+            @Override
+            public ChatResponse read(Response response) throws Exception {
+                return readCallResponse(response, mapper);
+            }
+        });
+    }
+
     /**
      * 内部调用方法，支持可选的 baseUrl 和 apiKey 覆盖
      * 
@@ -77,6 +102,14 @@ public class QwenChatModel implements ChatModel {
      * @throws Exception 如果发生错误
      */
     private ChatResponse internalCall(String baseUrl, String apiKey, Prompt prompt) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        Request request = buildCallRequest(baseUrl, apiKey, prompt, mapper);
+        try (Response execute = okHttpClient.newCall(request).execute()) {
+            return readCallResponse(execute, mapper);
+        }
+    }
+
+    private Request buildCallRequest(String baseUrl, String apiKey, Prompt prompt, ObjectMapper mapper) throws Exception {
         if(baseUrl == null || baseUrl.isEmpty()) baseUrl = qwenConfig.getApiHost();
         if(apiKey == null || apiKey.isEmpty()) apiKey = qwenConfig.getApiKey();
         
@@ -84,19 +117,19 @@ public class QwenChatModel implements ChatModel {
         prompt.setStream(false);
         prompt.setStreamOptions(null);
 
-        ObjectMapper mapper = new ObjectMapper();
         String requestString = mapper.writeValueAsString(prompt);
         
         log.debug("Qwen API Request: {}", requestString);
 
         // 千问使用 Authorization: Bearer {apiKey} 格式（OpenAI兼容）
-        Request request = new Request.Builder()
+        return new Request.Builder()
                 .header("Authorization", "Bearer " + apiKey)
                 .url(ValidateUtil.concatUrl(baseUrl, qwenConfig.getChatCompletionUrl()))
                 .post(RequestBody.create(requestString, MediaType.parse(Constants.JSON_CONTENT_TYPE)))
                 .build();
+    }
 
-        Response execute = okHttpClient.newCall(request).execute();
+    private ChatResponse readCallResponse(Response execute, ObjectMapper mapper) throws Exception {
         if (execute.isSuccessful() && execute.body() != null){
             String responseBody = execute.body().string();
             log.debug("Qwen API Response: {}", responseBody);
@@ -9,12 +9,17 @@ import com.bobo.llm4j.platform.openai.embedding.OpenAiCompatibleEmbeddingModel;
  */
 public class QwenEmbeddingModel extends OpenAiCompatibleEmbeddingModel {
 
+    /**
+     * DashScope accepts at most this many texts per embedding request.
+     */
+    public static final int MAX_BATCH_SIZE = 10;
+
     public QwenEmbeddingModel(Configuration configuration, String model) {
         super(configuration.getOkHttpClient(),
                 getQwenConfig(configuration).getApiHost(),
                 getQwenConfig(configuration).getApiKey(),
                 getQwenConfig(configuration).getEmbeddingUrl(),
-                model);
+                model, MAX_BATCH_SIZE);
     }
 
     private static QwenConfig getQwenConfig(Configuration configuration) {
@@ -27,6 +27,12 @@ public class RagDocument {
      */
     private Double score;
 
+    /**
+     * Stored vector of a retrieved document; only filled when the search request asks for
+     * {@link com.bobo.llm4j.rag.vectorstore.SearchRequest#isIncludeEmbeddings() embeddings}.
+     */
+    private float[] embedding;
+
     public static RagDocument of(String text) {
         return RagDocument.builder().text(text).build();
     }
@@ -0,0 +1,262 @@
+package com.bobo.llm4j.rag.embedding;
+
+import lombok.Builder;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Coalesces concurrent {@link #embed} calls of many threads into batched {@link #embedAll} calls.
+ * <p>
+ * A call joins the current batch, which is sent once it holds {@code maxBatchSize} texts or
+ * {@code windowMicros} after its first text arrived, whichever comes first. Identical texts in a
+ * batch are sent once. Batches are sent with {@link EmbeddingModel#embedAllVectorsAsync}, so the
+ * next one is collected while the previous is still in flight, and no thread waits on a batch
+ * for delegates that embed asynchronously. A batch the delegate refuses fails its calls only.
+ * {@code embedAll} calls go straight to the delegate.
+ * <p>
+ * Batch sizes and the time calls spend queued are counted; see {@link #getAverageBatchSize()}
+ * and {@link #getAverageQueueDelayMicros()}.
+ */
+public class BatchingEmbeddingModel implements EmbeddingModel, Closeable {
+
+    public static final long DEFAULT_WINDOW_MICROS = 2000L;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    private final EmbeddingModel delegate;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>();
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedTexts = new AtomicLong();
+    private final AtomicLong largestBatch = new AtomicLong();
+    private final AtomicLong queueDelayNanos = new AtomicLong();
+    private final AtomicLong maxQueueDelayNanos = new AtomicLong();
+
+    public BatchingEmbeddingModel(EmbeddingModel delegate) {
+        this(delegate, 0L, 0);
+    }
+
+    /**
+     * @param windowMicros how long the first text of a batch waits for company
+     * @param maxBatchSize texts after which a batch is sent without waiting
+     */
+    @Builder
+    public BatchingEmbeddingModel(EmbeddingModel delegate, long windowMicros, int maxBatchSize) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate must not be null");
+        }
+        this.delegate = delegate;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros > 0 ? windowMicros : DEFAULT_WINDOW_MICROS);
+        this.maxBatchSize = maxBatchSize > 0 ? maxBatchSize : DEFAULT_MAX_BATCH_SIZE;
+        this.dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "embedding-batcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    @Override
+    public String getModelName() {
+        return delegate.getModelName();
+    }
+
+    @Override
+    public List<List<Double>> embedAll(List<String> texts) throws Exception {
+        return delegate.embedAll(texts);
+    }
+
+    @Override
+    public List<float[]> embedAllVectors(List<String> texts) throws Exception {
+        return delegate.embedAllVectors(texts);
+    }
+
+    @Override
+    public List<Double> embed(String text) throws Exception {
+        return EmbeddingVectors.toList(embedVector(text));
+    }
+
+    @Override
+    public float[] embedVector(String text) throws Exception {
+        try {
+            return embedVectorAsync(text).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Queue a text for the next batch.
+     */
+    public CompletableFuture<List<Double>> embedAsync(String text) {
+        return embedVectorAsync(text).thenApply(new Function<float[], List<Double>>() {
+            @Override
+            public List<Double> apply(float[] vector) {
+                return EmbeddingVectors.toList(vector);
+            }
+        });
+    }
+
+    /**
+     * Queue a text for the next batch.
+     */
+    public CompletableFuture<float[]> embedVectorAsync(String text) {
+        Pending pending = new Pending(text);
+        if (closed) {
+            pending.future.completeExceptionally(new IllegalStateException("BatchingEmbeddingModel is closed"));
+            return pending.future;
+        }
+        queue.add(pending);
+        if (closed && queue.remove(pending)) {
+            pending.future.completeExceptionally(new IllegalStateException("BatchingEmbeddingModel is closed"));
+        }
+        return pending.future;
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public double getAverageBatchSize() {
+        long count = batches.get();
+        return count == 0 ? 0d : (double) batchedTexts.get() / count;
+    }
+
+    public long getLargestBatchSize() {
+        return largestBatch.get();
+    }
+
+    /**
+     * Mean time from {@code embed} to the batch being sent.
+     */
+    public double getAverageQueueDelayMicros() {
+        long count = batchedTexts.get();
+        return count == 0 ? 0d : queueDelayNanos.get() / 1000d / count;
+    }
+
+    public long getMaxQueueDelayMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxQueueDelayNanos.get());
+    }
+
+    /**
+     * Stop collecting batches; calls still queued fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+    }
+
+    private void dispatch() {
+        List<Pending> batch = new ArrayList<Pending>(maxBatchSize);
+        try {
+            while (!closed) {
+                batch.add(queue.take());
+                long deadline = batch.get(0).enqueuedNanos + windowNanos;
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+                send(batch);
+                batch = new ArrayList<Pending>(maxBatchSize);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        queue.drainTo(batch);
+        for (Pending pending : batch) {
+            pending.future.completeExceptionally(new IllegalStateException("BatchingEmbeddingModel is closed"));
+        }
+    }
+
+    private void send(final List<Pending> batch) {
+        long now = System.nanoTime();
+        for (Pending pending : batch) {
+            long delay = now - pending.enqueuedNanos;
+            queueDelayNanos.addAndGet(delay);
+            raise(maxQueueDelayNanos, delay);
+        }
+        batches.incrementAndGet();
+        batchedTexts.addAndGet(batch.size());
+        raise(largestBatch, batch.size());
+
+        final Map<String, Integer> positions = new LinkedHashMap<String, Integer>();
+        for (Pending pending : batch) {
+            if (!positions.containsKey(pending.text)) {
+                positions.put(pending.text, positions.size());
+            }
+        }
+        final List<String> texts = new ArrayList<String>(positions.keySet());
+        CompletableFuture<List<float[]>> request;
+        try {
+            request = delegate.embedAllVectorsAsync(texts);
+        } catch (Throwable e) {
+            // E.g. a saturated executor behind the delegate: fail this batch, keep dispatching.
+            fail(batch, e);
+            return;
+        }
+        request.whenComplete(new BiConsumer<List<float[]>, Throwable>() {
+            @Override
+            public void accept(List<float[]> vectors, Throwable error) {
+                if (error != null) {
+                    fail(batch, error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error);
+                    return;
+                }
+                if (vectors == null || vectors.size() != texts.size()) {
+                    fail(batch, new IllegalStateException("Expected " + texts.size() + " embeddings but got "
+                            + (vectors == null ? 0 : vectors.size())));
+                    return;
+                }
+                boolean[] taken = new boolean[texts.size()];
+                for (Pending pending : batch) {
+                    int position = positions.get(pending.text);
+                    float[] vector = vectors.get(position);
+                    // Callers own their arrays, so a text asked for twice gets a copy.
+                    pending.future.complete(taken[position] && vector != null ? vector.clone() : vector);
+                    taken[position] = true;
+                }
+            }
+        });
+    }
+
+    private static void fail(List<Pending> batch, Throwable error) {
+        for (Pending pending : batch) {
+            pending.future.completeExceptionally(error);
+        }
+    }
+
+    private static void raise(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    private static final class Pending {
+        private final String text;
+        private final long enqueuedNanos = System.nanoTime();
+        private final CompletableFuture<float[]> future = new CompletableFuture<float[]>();
+
+        private Pending(String text) {
+            this.text = text;
+        }
+    }
+}
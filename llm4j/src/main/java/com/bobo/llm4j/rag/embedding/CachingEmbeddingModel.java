@@ -0,0 +1,338 @@
+package com.bobo.llm4j.rag.embedding;
+
+import lombok.Builder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the vectors of another {@link EmbeddingModel}.
+ * <p>
+ * Vectors are keyed by a 128-bit SHA-256 prefix of the model name and the text, after NFC
+ * normalization and trimming. A bounded LRU tier keeps recent vectors on heap as
+ * {@code float[]}; with a {@code cacheDirectory}, every vector is also appended to a log file
+ * there and survives restarts. {@link #embedAll} only sends the texts found in neither tier to
+ * the delegate, once each, and splices the results back in input order.
+ */
+public class CachingEmbeddingModel implements EmbeddingModel, Closeable {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private static final String LOG_FILE = "embeddings.cache";
+    private static final int MAGIC = 0x45434C4A;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 20;
+
+    private final EmbeddingModel delegate;
+    private final String modelName;
+    private final Map<Key, float[]> heap;
+    private final DiskTier disk;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CachingEmbeddingModel(EmbeddingModel delegate) {
+        this(delegate, null, 0, null);
+    }
+
+    /**
+     * @param modelName      part of every key, so vectors of different models never mix;
+     *                       defaults to {@link EmbeddingModel#getModelName()} of the delegate
+     * @param maxEntries     vectors kept on heap
+     * @param cacheDirectory directory of the persistent tier; heap only if {@code null}
+     */
+    @Builder
+    public CachingEmbeddingModel(EmbeddingModel delegate, String modelName, int maxEntries, Path cacheDirectory) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate must not be null");
+        }
+        String name = modelName == null ? delegate.getModelName() : modelName;
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("modelName must not be null");
+        }
+        this.delegate = delegate;
+        this.modelName = name;
+        final int capacity = maxEntries > 0 ? maxEntries : DEFAULT_MAX_ENTRIES;
+        this.heap = new LinkedHashMap<Key, float[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, float[]> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.disk = cacheDirectory == null ? null : new DiskTier(cacheDirectory.resolve(LOG_FILE));
+    }
+
+    @Override
+    public String getModelName() {
+        return modelName;
+    }
+
+    @Override
+    public List<List<Double>> embedAll(List<String> texts) throws Exception {
+        return EmbeddingVectors.toLists(embedAllVectors(texts));
+    }
+
+    /**
+     * Every returned array is a fresh copy of the cached vector.
+     */
+    @Override
+    public List<float[]> embedAllVectors(List<String> texts) throws Exception {
+        if (texts == null || texts.isEmpty()) {
+            return new ArrayList<float[]>();
+        }
+        float[][] vectors = new float[texts.size()][];
+        Map<Key, List<Integer>> missing = new LinkedHashMap<Key, List<Integer>>();
+        List<String> missingTexts = new ArrayList<String>();
+        for (int i = 0; i < texts.size(); i++) {
+            Key key = key(texts.get(i));
+            vectors[i] = lookup(key);
+            if (vectors[i] != null) {
+                hits.incrementAndGet();
+                continue;
+            }
+            List<Integer> positions = missing.get(key);
+            if (positions == null) {
+                positions = new ArrayList<Integer>();
+                missing.put(key, positions);
+                missingTexts.add(texts.get(i));
+            }
+            positions.add(i);
+        }
+        if (!missingTexts.isEmpty()) {
+            misses.addAndGet(missingTexts.size());
+            List<float[]> embedded = delegate.embedAllVectors(missingTexts);
+            if (embedded == null || embedded.size() != missingTexts.size()) {
+                throw new IllegalStateException("Expected " + missingTexts.size() + " embeddings but got "
+                        + (embedded == null ? 0 : embedded.size()));
+            }
+            int next = 0;
+            for (Map.Entry<Key, List<Integer>> entry : missing.entrySet()) {
+                float[] vector = embedded.get(next++);
+                if (vector == null) {
+                    throw new IllegalStateException("Embedding model returned a null vector");
+                }
+                store(entry.getKey(), vector);
+                for (int position : entry.getValue()) {
+                    vectors[position] = vector;
+                }
+            }
+        }
+        List<float[]> result = new ArrayList<float[]>(vectors.length);
+        for (float[] vector : vectors) {
+            result.add(vector.clone());
+        }
+        return result;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Drop the heap tier; the persistent tier is kept.
+     */
+    public void clear() {
+        synchronized (heap) {
+            heap.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (disk != null) {
+            disk.close();
+        }
+    }
+
+    private float[] lookup(Key key) {
+        float[] vector;
+        synchronized (heap) {
+            vector = heap.get(key);
+        }
+        if (vector == null && disk != null) {
+            vector = disk.get(key);
+            if (vector != null) {
+                synchronized (heap) {
+                    heap.put(key, vector);
+                }
+            }
+        }
+        return vector;
+    }
+
+    private void store(Key key, float[] vector) {
+        synchronized (heap) {
+            heap.put(key, vector);
+        }
+        if (disk != null) {
+            disk.put(key, vector);
+        }
+    }
+
+    private Key key(String text) {
+        String normalized = text == null ? "" : Normalizer.normalize(text, Normalizer.Form.NFC).trim();
+        byte[] digest;
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(modelName.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+            digest = sha.digest(normalized.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(digest);
+        return new Key(buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Append-only log of {@code key high, key low, dimension, floats} records, little-endian,
+     * indexed on open. A record cut short by a crash is truncated away.
+     */
+    private static final class DiskTier implements Closeable {
+
+        private final Path path;
+        private final FileChannel channel;
+        private final Map<Key, long[]> index = new HashMap<Key, long[]>();
+        private long end;
+
+        DiskTier(Path path) {
+            this.path = path;
+            try {
+                Files.createDirectories(path.getParent());
+                this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                load();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to open embedding cache " + path, e);
+            }
+        }
+
+        private void load() throws IOException {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (size < HEADER_BYTES) {
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                channel.truncate(0);
+                write(header, 0);
+                end = HEADER_BYTES;
+                return;
+            }
+            read(header, 0);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not an embedding cache: " + path);
+            }
+            long position = HEADER_BYTES;
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (position + RECORD_HEADER_BYTES <= size) {
+                record.clear();
+                read(record, position);
+                Key key = new Key(record.getLong(), record.getLong());
+                int dimension = record.getInt();
+                long next = position + RECORD_HEADER_BYTES + 4L * dimension;
+                if (dimension < 0 || next > size) {
+                    break;
+                }
+                index.put(key, new long[]{position + RECORD_HEADER_BYTES, dimension});
+                position = next;
+            }
+            if (position < size) {
+                channel.truncate(position);
+            }
+            end = position;
+        }
+
+        synchronized float[] get(Key key) {
+            long[] entry = index.get(key);
+            if (entry == null) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(4 * (int) entry[1]).order(ByteOrder.LITTLE_ENDIAN);
+            try {
+                read(buffer, entry[0]);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read embedding cache " + path, e);
+            }
+            float[] vector = new float[(int) entry[1]];
+            buffer.asFloatBuffer().get(vector);
+            return vector;
+        }
+
+        synchronized void put(Key key, float[] vector) {
+            if (index.containsKey(key)) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + 4 * vector.length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putLong(key.high).putLong(key.low).putInt(vector.length);
+            buffer.asFloatBuffer().put(vector);
+            buffer.clear();
+            try {
+                write(buffer, end);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write embedding cache " + path, e);
+            }
+            index.put(key, new long[]{end + RECORD_HEADER_BYTES, vector.length});
+            end += buffer.capacity();
+        }
+
+        private void read(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of embedding cache " + path);
+                }
+            }
+            buffer.flip();
+        }
+
+        private void write(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class Key {
+        private final long high;
+        private final long low;
+
+        private Key(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return high == key.high && low == key.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (high ^ (high >>> 32));
+        }
+    }
+}
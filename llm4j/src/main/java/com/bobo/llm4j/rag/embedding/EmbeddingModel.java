@@ -2,17 +2,68 @@ package com.bobo.llm4j.rag.embedding;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Embedding model abstraction.
+ * <p>
+ * Vectors come in two shapes: boxed lists from {@link #embedAll} and primitive arrays from
+ * {@link #embedAllVectors}. Only {@code embedAll} must be implemented, so a lambda is a model;
+ * {@code embedAllVectors} defaults to converting its result. Models that produce primitive
+ * arrays natively override {@code embedAllVectors} and implement {@code embedAll} on top of it.
+ * Vector stores use the primitive form. Returned arrays belong to the caller and may be modified.
+ * <p>
+ * The asynchronous variants default to running the blocking call on the common fork-join pool;
+ * HTTP-backed models override {@link #embedAllVectorsAsync} so no thread waits on the network.
  */
 public interface EmbeddingModel {
 
+    /**
+     * Name of the model that produces the vectors, e.g. to key cached vectors by; {@code null}
+     * if not known.
+     */
+    default String getModelName() {
+        return null;
+    }
+
     List<List<Double>> embedAll(List<String> texts) throws Exception;
 
     default List<Double> embed(String text) throws Exception {
         List<List<Double>> vectors = embedAll(Collections.singletonList(text));
         return vectors.isEmpty() ? Collections.<Double>emptyList() : vectors.get(0);
     }
-}
 
+    default List<float[]> embedAllVectors(List<String> texts) throws Exception {
+        return EmbeddingVectors.toFloatArrays(embedAll(texts));
+    }
+
+    default float[] embedVector(String text) throws Exception {
+        List<float[]> vectors = embedAllVectors(Collections.singletonList(text));
+        return vectors.isEmpty() ? new float[0] : vectors.get(0);
+    }
+
+    default CompletableFuture<List<List<Double>>> embedAllAsync(List<String> texts) {
+        return embedAllVectorsAsync(texts).thenApply(new Function<List<float[]>, List<List<Double>>>() {
+            @Override
+            public List<List<Double>> apply(List<float[]> vectors) {
+                return EmbeddingVectors.toLists(vectors);
+            }
+        });
+    }
+
+    default CompletableFuture<List<float[]>> embedAllVectorsAsync(final List<String> texts) {
+        return CompletableFuture.supplyAsync(new Supplier<List<float[]>>() {
+            @Override
+            public List<float[]> get() {
+                try {
+                    return embedAllVectors(texts);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }
+        });
+    }
+}
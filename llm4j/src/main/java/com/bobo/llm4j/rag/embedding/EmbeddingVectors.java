@@ -0,0 +1,55 @@
+package com.bobo.llm4j.rag.embedding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Conversions between the boxed and the primitive embedding representations.
+ */
+public final class EmbeddingVectors {
+
+    private EmbeddingVectors() {
+    }
+
+    /**
+     * A primitive copy of a boxed vector, or {@code null}; {@code null} components become zero.
+     */
+    public static float[] toFloatArray(List<Double> vector) {
+        if (vector == null) {
+            return null;
+        }
+        float[] result = new float[vector.size()];
+        for (int i = 0; i < result.length; i++) {
+            Double value = vector.get(i);
+            result[i] = value == null ? 0f : value.floatValue();
+        }
+        return result;
+    }
+
+    public static List<Double> toList(float[] vector) {
+        if (vector == null) {
+            return null;
+        }
+        List<Double> result = new ArrayList<Double>(vector.length);
+        for (float value : vector) {
+            result.add((double) value);
+        }
+        return result;
+    }
+
+    public static List<float[]> toFloatArrays(List<List<Double>> vectors) {
+        List<float[]> result = new ArrayList<float[]>(vectors.size());
+        for (List<Double> vector : vectors) {
+            result.add(toFloatArray(vector));
+        }
+        return result;
+    }
+
+    public static List<List<Double>> toLists(List<float[]> vectors) {
+        List<List<Double>> result = new ArrayList<List<Double>>(vectors.size());
+        for (float[] vector : vectors) {
+            result.add(toList(vector));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,196 @@
+package com.bobo.llm4j.rag.retrieval;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import com.bobo.llm4j.rag.embedding.EmbeddingModel;
+import com.bobo.llm4j.rag.vectorstore.Bm25Index;
+import com.bobo.llm4j.rag.vectorstore.FilterExpression;
+import com.bobo.llm4j.rag.vectorstore.HybridVectorStore;
+import com.bobo.llm4j.rag.vectorstore.SearchRequest;
+import com.bobo.llm4j.rag.vectorstore.VectorStore;
+import lombok.Builder;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Hybrid retriever that runs a BM25 lexical search and a vector search in parallel and merges
+ * them with reciprocal-rank fusion: each document scores {@code sum(1 / (rankConstant + rank))}
+ * over the lists it appears in, with 1-based ranks.
+ * <p>
+ * Single-term queries containing a digit, such as error codes or SKUs, are answered from the
+ * lexical index alone when some document contains every term of the query, which skips the
+ * embedding call; a document matching only one sub-token of the term does not count. Either way
+ * the scores of the returned documents are reciprocal-rank-fusion scores.
+ * <p>
+ * The vector search usually blocks on an embedding call. Given the store's embedding model, the
+ * query is embedded with {@link EmbeddingModel#embedAllVectorsAsync} while the lexical search
+ * runs, and the vector search then runs on the calling thread with that embedding. Otherwise an
+ * executor is required to run the vector search; it is never put on the common pool, which
+ * parallel scans of the stores rely on.
+ */
+public class HybridDocumentRetriever implements DocumentRetriever {
+
+    public static final int DEFAULT_RANK_CONSTANT = 60;
+    public static final int DEFAULT_CANDIDATE_MULTIPLIER = 2;
+
+    private final VectorStore vectorStore;
+    private final Bm25Index lexicalIndex;
+    private final Double similarityThreshold;
+    private final Integer topK;
+    private final Map<String, Object> defaultFilters;
+    private final FilterExpression filterExpression;
+    private final int rankConstant;
+    private final int candidateMultiplier;
+    private final EmbeddingModel embeddingModel;
+    private final Executor executor;
+    private final boolean exactTermLookup;
+
+    /**
+     * @param lexicalIndex        defaults to the index of {@code vectorStore} when it is a {@link HybridVectorStore}
+     * @param rankConstant        RRF constant damping the weight of top ranks
+     * @param candidateMultiplier candidates fetched from each list per requested hit
+     * @param embeddingModel      the store's embedding model, to embed the query asynchronously
+     * @param executor            runs the vector search; required without {@code embeddingModel}
+     * @param exactTermLookup     answer exact-term queries lexically, on by default
+     */
+    @Builder
+    public HybridDocumentRetriever(VectorStore vectorStore,
+                                   Bm25Index lexicalIndex,
+                                   Double similarityThreshold,
+                                   Integer topK,
+                                   Map<String, Object> defaultFilters,
+                                   FilterExpression filterExpression,
+                                   int rankConstant,
+                                   int candidateMultiplier,
+                                   EmbeddingModel embeddingModel,
+                                   Executor executor,
+                                   Boolean exactTermLookup) {
+        if (vectorStore == null) {
+            throw new IllegalArgumentException("vectorStore must not be null");
+        }
+        if (lexicalIndex == null && vectorStore instanceof HybridVectorStore) {
+            lexicalIndex = ((HybridVectorStore) vectorStore).getLexicalIndex();
+        }
+        if (lexicalIndex == null) {
+            throw new IllegalArgumentException("lexicalIndex must not be null");
+        }
+        if (embeddingModel == null && executor == null) {
+            throw new IllegalArgumentException("embeddingModel or executor must not be null");
+        }
+        this.vectorStore = vectorStore;
+        this.lexicalIndex = lexicalIndex;
+        this.similarityThreshold = similarityThreshold == null ? SearchRequest.SIMILARITY_THRESHOLD_ACCEPT_ALL : similarityThreshold;
+        this.topK = topK == null ? SearchRequest.DEFAULT_TOP_K : topK;
+        this.defaultFilters = defaultFilters == null ? new LinkedHashMap<String, Object>() : defaultFilters;
+        this.filterExpression = filterExpression;
+        this.rankConstant = rankConstant <= 0 ? DEFAULT_RANK_CONSTANT : rankConstant;
+        this.candidateMultiplier = candidateMultiplier <= 0 ? DEFAULT_CANDIDATE_MULTIPLIER : candidateMultiplier;
+        this.embeddingModel = embeddingModel;
+        this.executor = executor;
+        this.exactTermLookup = exactTermLookup == null || exactTermLookup;
+    }
+
+    @Override
+    public List<RagDocument> retrieve(String query, Map<String, Object> runtimeFilters) throws Exception {
+        Map<String, Object> filters = new LinkedHashMap<String, Object>(this.defaultFilters);
+        if (runtimeFilters != null) {
+            filters.putAll(runtimeFilters);
+        }
+        SearchRequest request = SearchRequest.builder()
+                .query(query == null ? "" : query)
+                .topK(topK)
+                .similarityThreshold(similarityThreshold)
+                .metadataFilters(filters)
+                .filterExpression(filterExpression)
+                .build();
+        if (exactTermLookup && isExactTerm(request.getQuery())) {
+            List<RagDocument> exact = lexicalIndex.searchAllTerms(request);
+            if (!exact.isEmpty()) {
+                return fuse(Collections.<RagDocument>emptyList(), exact);
+            }
+        }
+
+        final SearchRequest candidates = request.toBuilder().topK(topK * candidateMultiplier).build();
+        if (embeddingModel != null) {
+            CompletableFuture<List<float[]>> embedding =
+                    embeddingModel.embedAllVectorsAsync(Collections.singletonList(candidates.getQuery()));
+            List<RagDocument> lexical = lexicalIndex.search(candidates);
+            float[] queryEmbedding = join(embedding).get(0);
+            List<RagDocument> semantic = vectorStore.similaritySearch(
+                    candidates.toBuilder().queryEmbedding(queryEmbedding).build());
+            return fuse(semantic, lexical);
+        }
+        CompletableFuture<List<RagDocument>> vector = CompletableFuture.supplyAsync(new Supplier<List<RagDocument>>() {
+            @Override
+            public List<RagDocument> get() {
+                return vectorStore.similaritySearch(candidates);
+            }
+        }, executor);
+        List<RagDocument> lexical = lexicalIndex.search(candidates);
+        return fuse(join(vector), lexical);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private List<RagDocument> fuse(List<RagDocument> semantic, List<RagDocument> lexical) {
+        final Map<String, Double> scores = new HashMap<String, Double>();
+        Map<String, RagDocument> documents = new LinkedHashMap<String, RagDocument>();
+        for (List<RagDocument> ranking : Arrays.asList(semantic, lexical)) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                RagDocument doc = ranking.get(rank);
+                String key = doc.getId() != null ? doc.getId() : doc.getText();
+                Double score = scores.get(key);
+                scores.put(key, (score == null ? 0d : score) + 1d / (rankConstant + rank + 1));
+                if (!documents.containsKey(key)) {
+                    documents.put(key, doc);
+                }
+            }
+        }
+        List<String> keys = new ArrayList<String>(documents.keySet());
+        Collections.sort(keys, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Double.compare(scores.get(b), scores.get(a));
+            }
+        });
+        List<RagDocument> fused = new ArrayList<RagDocument>(Math.min(topK, keys.size()));
+        for (String key : keys) {
+            if (fused.size() >= topK) {
+                break;
+            }
+            fused.add(documents.get(key).toBuilder().score(scores.get(key)).build());
+        }
+        return fused;
+    }
+
+    /**
+     * A single whitespace-free term containing a digit, e.g. {@code ERR-4012} or {@code SKU8841}.
+     */
+    private static boolean isExactTerm(String query) {
+        String term = query.trim();
+        if (term.isEmpty()) {
+            return false;
+        }
+        boolean digit = false;
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (Character.isWhitespace(c)) {
+                return false;
+            }
+            digit |= Character.isDigit(c);
+        }
+        return digit;
+    }
+}
@@ -1,6 +1,7 @@
 package com.bobo.llm4j.rag.retrieval;
 
 import com.bobo.llm4j.rag.document.RagDocument;
+import com.bobo.llm4j.rag.vectorstore.FilterExpression;
 import com.bobo.llm4j.rag.vectorstore.SearchRequest;
 import com.bobo.llm4j.rag.vectorstore.VectorStore;
 import lombok.Builder;
@@ -20,16 +21,31 @@ public class VectorStoreDocumentRetriever implements DocumentRetriever {
     private final Double similarityThreshold;
     private final Integer topK;
     private final Map<String, Object> defaultFilters;
+    private final FilterExpression filterExpression;
+    private final Double mmrLambda;
+    private final int mmrCandidateMultiplier;
 
+    /**
+     * @param mmrLambda              re-rank hits by maximal marginal relevance with this relevance
+     *                               weight, so near-duplicate chunks do not crowd out the rest; off if {@code null}
+     * @param mmrCandidateMultiplier candidates fetched per hit for MMR to choose from
+     */
     @Builder
     public VectorStoreDocumentRetriever(VectorStore vectorStore,
                                         Double similarityThreshold,
                                         Integer topK,
-                                        Map<String, Object> defaultFilters) {
+                                        Map<String, Object> defaultFilters,
+                                        FilterExpression filterExpression,
+                                        Double mmrLambda,
+                                        int mmrCandidateMultiplier) {
         this.vectorStore = vectorStore;
         this.similarityThreshold = similarityThreshold == null ? SearchRequest.SIMILARITY_THRESHOLD_ACCEPT_ALL : similarityThreshold;
         this.topK = topK == null ? SearchRequest.DEFAULT_TOP_K : topK;
         this.defaultFilters = defaultFilters == null ? new LinkedHashMap<String, Object>() : defaultFilters;
+        this.filterExpression = filterExpression;
+        this.mmrLambda = mmrLambda;
+        this.mmrCandidateMultiplier = mmrCandidateMultiplier <= 0
+                ? SearchRequest.DEFAULT_MMR_CANDIDATE_MULTIPLIER : mmrCandidateMultiplier;
     }
 
     @Override
@@ -43,6 +59,9 @@ public class VectorStoreDocumentRetriever implements DocumentRetriever {
                 .topK(topK)
                 .similarityThreshold(similarityThreshold)
                 .metadataFilters(filters)
+                .filterExpression(filterExpression)
+                .mmrLambda(mmrLambda)
+                .mmrCandidateMultiplier(mmrCandidateMultiplier)
                 .build();
         return vectorStore.similaritySearch(request);
     }
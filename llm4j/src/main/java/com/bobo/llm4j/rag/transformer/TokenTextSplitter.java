@@ -81,41 +81,47 @@ public class TokenTextSplitter implements DocumentTransformer {
         return output;
     }
 
+    /**
+     * Encodes the text once and cuts chunks on token boundaries by character offset, so no
+     * chunk is decoded or re-encoded and the whole split is linear in the text length.
+     */
     private List<String> doSplit(String text) {
         if (text == null || text.trim().isEmpty()) {
             return new ArrayList<String>();
         }
 
-        List<Integer> tokens = getEncodedTokens(text);
+        IntArrayList tokens = this.encoding.encode(text);
+        int[] ends = tokenEnds(text, tokens);
         List<String> chunks = new ArrayList<String>();
         int generated = 0;
-
-        while (!tokens.isEmpty() && generated < this.maxNumChunks) {
-            List<Integer> chunkTokens = tokens.subList(0, Math.min(this.chunkSize, tokens.size()));
-            String chunkText = decodeTokens(chunkTokens);
-
-            if (tokens.size() > this.chunkSize) {
-                int end = lastPunctuation(chunkText);
-                if (end != -1 && end > this.minChunkSizeChars) {
-                    chunkText = chunkText.substring(0, end + 1);
+        int first = 0;
+
+        while (first < ends.length && generated < this.maxNumChunks) {
+            int start = first == 0 ? 0 : ends[first - 1];
+            int last = Math.min(first + this.chunkSize, ends.length) - 1;
+
+            if (last < ends.length - 1) {
+                int end = lastPunctuation(text, start, ends[last]);
+                if (end != -1 && end - start > this.minChunkSizeChars) {
+                    // Keep the token holding the punctuation mark.
+                    while (last > first && ends[last - 1] > end) {
+                        last--;
+                    }
                 }
             }
 
+            String chunkText = text.substring(start, ends[last]);
             String toAppend = this.keepSeparator ? chunkText.trim() : chunkText.replace('\n', ' ').trim();
             if (toAppend.length() > this.minChunkLengthToEmbed) {
                 chunks.add(toAppend);
             }
 
-            int consumeSize = getEncodedTokens(chunkText).size();
-            if (consumeSize <= 0) {
-                break;
-            }
-            tokens = tokens.subList(Math.min(consumeSize, tokens.size()), tokens.size());
+            first = last + 1;
             generated++;
         }
 
-        if (!tokens.isEmpty()) {
-            String rest = decodeTokens(tokens).replace('\n', ' ').trim();
+        if (first < ends.length) {
+            String rest = text.substring(ends[first - 1]).replace('\n', ' ').trim();
             if (rest.length() > this.minChunkLengthToEmbed) {
                 chunks.add(rest);
             }
@@ -124,24 +130,58 @@ public class TokenTextSplitter implements DocumentTransformer {
         return chunks;
     }
 
-    private int lastPunctuation(String text) {
-        int p1 = text.lastIndexOf('.');
-        int p2 = text.lastIndexOf('?');
-        int p3 = text.lastIndexOf('!');
-        int p4 = text.lastIndexOf('\n');
-        return Math.max(Math.max(p1, p2), Math.max(p3, p4));
+    private int lastPunctuation(String text, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            char c = text.charAt(i);
+            if (c == '.' || c == '?' || c == '!' || c == '\n') {
+                return i;
+            }
+        }
+        return -1;
     }
 
-    private List<Integer> getEncodedTokens(String text) {
-        return this.encoding.encode(text).boxed();
+    /**
+     * Character offset just past each token. A character whose UTF-8 bytes span several tokens
+     * belongs to the last of them.
+     */
+    private int[] tokenEnds(String text, IntArrayList tokens) {
+        int[] ends = new int[tokens.size()];
+        IntArrayList single = new IntArrayList(1);
+        long tokenBytes = 0;
+        long textBytes = 0;
+        int offset = 0;
+        for (int i = 0; i < ends.length; i++) {
+            single.clear();
+            single.add(tokens.get(i));
+            tokenBytes += this.encoding.decodeBytes(single).length;
+            while (offset < text.length()) {
+                int codePoint = text.codePointAt(offset);
+                int length = utf8Length(codePoint);
+                if (textBytes + length > tokenBytes) {
+                    break;
+                }
+                textBytes += length;
+                offset += Character.charCount(codePoint);
+            }
+            ends[i] = offset;
+        }
+        if (ends.length > 0) {
+            ends[ends.length - 1] = text.length();
+        }
+        return ends;
     }
 
-    private String decodeTokens(List<Integer> tokens) {
-        IntArrayList ints = new IntArrayList(tokens.size());
-        for (Integer token : tokens) {
-            ints.add(token);
+    private static int utf8Length(int codePoint) {
+        if (codePoint < 0x80) {
+            return 1;
         }
-        return this.encoding.decode(ints);
+        if (codePoint < 0x800) {
+            return 2;
+        }
+        if (codePoint < 0x10000) {
+            // A lone surrogate is encoded as '?'.
+            return Character.isSurrogate((char) codePoint) ? 1 : 3;
+        }
+        return 4;
     }
 }
-
@@ -0,0 +1,87 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One bit per dimension: whether the component lies above the per-dimension mean learned from
+ * the training batch. Bits are packed 64 to a {@code long}, so comparing a query against a
+ * vector is an XOR and {@link Long#bitCount} per 64 dimensions. Approximate scores are the
+ * negated Hamming distance.
+ */
+final class BinaryQuantizedVectors extends QuantizedVectors {
+
+    private static final int BLOCK_SIZE = VectorArena.DEFAULT_BLOCK_SIZE;
+
+    private final float[] means;
+    private final int words;
+    private volatile long[][] blocks = new long[0][];
+    private int size;
+
+    private BinaryQuantizedVectors(float[] means) {
+        this.means = means;
+        this.words = (means.length + 63) >>> 6;
+    }
+
+    static BinaryQuantizedVectors train(List<float[]> vectors) {
+        int dimension = vectors.get(0).length;
+        double[] sums = new double[dimension];
+        for (float[] vector : vectors) {
+            for (int i = 0; i < dimension; i++) {
+                sums[i] += vector[i];
+            }
+        }
+        float[] means = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            means[i] = (float) (sums[i] / vectors.size());
+        }
+        return new BinaryQuantizedVectors(means);
+    }
+
+    @Override
+    void append(float[] vector) {
+        int blockIndex = size / BLOCK_SIZE;
+        long[][] current = blocks;
+        if (blockIndex == current.length) {
+            current = Arrays.copyOf(current, current.length + 1);
+            current[blockIndex] = new long[BLOCK_SIZE * words];
+            blocks = current;
+        }
+        encode(vector, blocks[blockIndex], (size % BLOCK_SIZE) * words);
+        size++;
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    Scorer scorer(float[] query, float queryNorm, VectorArena arena) {
+        final long[] signature = new long[words];
+        encode(query, signature, 0);
+        final long[][] codes = blocks;
+        return new Scorer() {
+            @Override
+            public double score(int slot) {
+                long[] block = codes[slot / BLOCK_SIZE];
+                int offset = (slot % BLOCK_SIZE) * words;
+                int distance = 0;
+                for (int w = 0; w < words; w++) {
+                    distance += Long.bitCount(signature[w] ^ block[offset + w]);
+                }
+                return -distance;
+            }
+        };
+    }
+
+    private void encode(float[] vector, long[] target, int offset) {
+        Arrays.fill(target, offset, offset + words, 0L);
+        int len = Math.min(vector.length, means.length);
+        for (int i = 0; i < len; i++) {
+            if (vector[i] > means[i]) {
+                target[offset + (i >>> 6)] |= 1L << (i & 63);
+            }
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import com.bobo.llm4j.rag.etl.DocumentWriter;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import lombok.Builder;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process BM25 inverted index over document text.
+ * <p>
+ * Text is lower-cased, split on anything that is not a letter or digit and encoded with the
+ * cl100k_base tokenizer; the token ids are the index terms. Each term keeps a postings list of
+ * {@code (document, term frequency)} pairs. Adding a document whose id is already indexed
+ * replaces it unless text and metadata are unchanged. Deletes are tombstones that update the
+ * collection statistics right away; postings are compacted once a quarter of the documents are
+ * deleted.
+ * <p>
+ * BM25 scores are not comparable to cosine similarities, so the similarity threshold of a
+ * {@link SearchRequest} is ignored here. Use {@link HybridVectorStore} to keep an index in sync
+ * with a vector store.
+ */
+public class Bm25Index implements DocumentWriter {
+
+    public static final double DEFAULT_K1 = 1.2d;
+    public static final double DEFAULT_B = 0.75d;
+
+    private static final double MAX_DELETED_RATIO = 0.25d;
+
+    private final Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+    private final double k1;
+    private final double b;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, Postings> postings = new HashMap<Integer, Postings>();
+    private final Map<String, Integer> docsById = new HashMap<String, Integer>();
+    private RagDocument[] documents = new RagDocument[16];
+    private int[] lengths = new int[16];
+    private BitSet deleted = new BitSet();
+    private int size;
+    private int live;
+    private long totalLength;
+
+    public Bm25Index() {
+        this(DEFAULT_K1, DEFAULT_B);
+    }
+
+    /**
+     * @param k1 term frequency saturation
+     * @param b  length normalisation, in {@code (0, 1]}
+     */
+    @Builder
+    public Bm25Index(double k1, double b) {
+        this.k1 = k1 <= 0d ? DEFAULT_K1 : k1;
+        this.b = b <= 0d || b > 1d ? DEFAULT_B : b;
+    }
+
+    @Override
+    public void write(List<RagDocument> documents) {
+        add(documents);
+    }
+
+    public void add(List<RagDocument> documents) {
+        if (documents == null || documents.isEmpty()) {
+            return;
+        }
+        List<RagDocument> accepted = new ArrayList<RagDocument>(documents.size());
+        List<int[]> terms = new ArrayList<int[]>(documents.size());
+        for (RagDocument doc : documents) {
+            if (doc == null || doc.getText() == null) {
+                continue;
+            }
+            accepted.add(doc);
+            terms.add(tokenize(doc.getText()));
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < accepted.size(); i++) {
+                RagDocument doc = accepted.get(i);
+                Integer existing = doc.getId() == null ? null : docsById.get(doc.getId());
+                if (existing != null) {
+                    if (doc.getText().equals(this.documents[existing].getText())
+                            && Objects.equals(doc.getMetadata(), this.documents[existing].getMetadata())) {
+                        continue;
+                    }
+                    delete(existing);
+                }
+                append(doc, terms.get(i));
+            }
+            maybeCompact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Documents ranked by BM25 score against the query terms, best first. Metadata filters and
+     * filter expressions of the request apply; documents sharing no term with the query are
+     * never returned.
+     */
+    public List<RagDocument> search(SearchRequest request) {
+        return search(request, false);
+    }
+
+    /**
+     * Like {@link #search} but only documents containing every query term qualify, e.g. both
+     * {@code err} and {@code 401} of {@code err_401} rather than just one of its sub-tokens.
+     */
+    public List<RagDocument> searchAllTerms(SearchRequest request) {
+        return search(request, true);
+    }
+
+    private List<RagDocument> search(SearchRequest request, boolean allTerms) {
+        if (request == null || request.getQuery() == null || request.getQuery().isEmpty()) {
+            return Collections.emptyList();
+        }
+        int topK = Math.max(request.getTopK(), 0);
+        int[] queryTerms = distinct(tokenize(request.getQuery()));
+        if (topK == 0 || queryTerms.length == 0) {
+            return Collections.emptyList();
+        }
+        FilterExpression filter = FilterExpression.of(request);
+        lock.readLock().lock();
+        try {
+            if (live == 0) {
+                return Collections.emptyList();
+            }
+            double averageLength = (double) totalLength / live;
+            double[] scores = new double[size];
+            int[] termHits = allTerms ? new int[size] : null;
+            BitSet matched = new BitSet(size);
+            for (int term : queryTerms) {
+                Postings list = postings.get(term);
+                if (list == null || list.live == 0) {
+                    continue;
+                }
+                double idf = Math.log(1d + (live - list.live + 0.5d) / (list.live + 0.5d));
+                for (int i = 0; i < list.size; i++) {
+                    int doc = list.docs[i];
+                    if (deleted.get(doc)) {
+                        continue;
+                    }
+                    double tf = list.freqs[i];
+                    double norm = k1 * (1d - b + b * lengths[doc] / averageLength);
+                    scores[doc] += idf * tf * (k1 + 1d) / (tf + norm);
+                    matched.set(doc);
+                    if (termHits != null) {
+                        termHits[doc]++;
+                    }
+                }
+            }
+            TopKHeap top = new TopKHeap(topK);
+            for (int doc = matched.nextSetBit(0); doc >= 0; doc = matched.nextSetBit(doc + 1)) {
+                if (termHits != null && termHits[doc] < queryTerms.length) {
+                    continue;
+                }
+                if (top.accepts(scores[doc]) && (filter == null || filter.test(documents[doc].getMetadata()))) {
+                    top.offer(doc, scores[doc]);
+                }
+            }
+            double[] sorted = new double[top.size()];
+            int[] docs = top.drainDescending(sorted);
+            List<RagDocument> hits = new ArrayList<RagDocument>(docs.length);
+            for (int i = 0; i < docs.length; i++) {
+                hits.add(documents[docs[i]].toBuilder().score(sorted[i]).build());
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void deleteByMetadata(String key, Object value) {
+        if (key == null || key.trim().isEmpty()) {
+            return;
+        }
+        FilterExpression filter = FilterExpression.eq(key, value);
+        lock.writeLock().lock();
+        try {
+            for (int doc = 0; doc < size; doc++) {
+                if (!deleted.get(doc) && filter.test(documents[doc].getMetadata())) {
+                    delete(doc);
+                }
+            }
+            maybeCompact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The indexed document with this id, or {@code null}.
+     */
+    public RagDocument get(String id) {
+        if (id == null) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            Integer doc = docsById.get(id);
+            return doc == null ? null : documents[doc];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Number of live documents.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sorted token ids of the normalised text, one entry per occurrence.
+     */
+    private int[] tokenize(String text) {
+        StringBuilder normalized = new StringBuilder(text.length() + 1);
+        boolean separator = true;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (separator) {
+                    // Every word gets a leading space so it maps to the same tokens wherever it occurs.
+                    normalized.append(' ');
+                    separator = false;
+                }
+                normalized.append(Character.toLowerCase(c));
+            } else {
+                separator = true;
+            }
+        }
+        if (normalized.length() == 0) {
+            return new int[0];
+        }
+        int[] tokens = encoding.encodeOrdinary(normalized.toString()).toArray();
+        Arrays.sort(tokens);
+        return tokens;
+    }
+
+    private static int[] distinct(int[] sorted) {
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                count++;
+            }
+        }
+        int[] result = new int[count];
+        int index = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                result[index++] = sorted[i];
+            }
+        }
+        return result;
+    }
+
+    private void append(RagDocument document, int[] terms) {
+        int doc = size;
+        if (doc == documents.length) {
+            documents = Arrays.copyOf(documents, doc * 2);
+            lengths = Arrays.copyOf(lengths, doc * 2);
+        }
+        documents[doc] = document;
+        lengths[doc] = terms.length;
+        if (document.getId() != null) {
+            docsById.put(document.getId(), doc);
+        }
+        for (int start = 0; start < terms.length; ) {
+            int end = start + 1;
+            while (end < terms.length && terms[end] == terms[start]) {
+                end++;
+            }
+            Postings list = postings.get(terms[start]);
+            if (list == null) {
+                list = new Postings();
+                postings.put(terms[start], list);
+            }
+            list.add(doc, end - start);
+            start = end;
+        }
+        size++;
+        live++;
+        totalLength += terms.length;
+    }
+
+    /**
+     * Tombstone one document and take it out of the statistics. Caller holds the write lock.
+     */
+    private void delete(int doc) {
+        for (int term : distinct(tokenize(documents[doc].getText()))) {
+            postings.get(term).live--;
+        }
+        RagDocument document = documents[doc];
+        if (document.getId() != null && Integer.valueOf(doc).equals(docsById.get(document.getId()))) {
+            docsById.remove(document.getId());
+        }
+        deleted.set(doc);
+        live--;
+        totalLength -= lengths[doc];
+    }
+
+    /**
+     * Drop deleted documents and renumber the rest once enough have piled up. Caller holds the
+     * write lock.
+     */
+    private void maybeCompact() {
+        if (size - live <= size * MAX_DELETED_RATIO) {
+            return;
+        }
+        int[] remap = new int[size];
+        int count = 0;
+        for (int doc = 0; doc < size; doc++) {
+            if (deleted.get(doc)) {
+                remap[doc] = -1;
+                continue;
+            }
+            documents[count] = documents[doc];
+            lengths[count] = lengths[doc];
+            if (documents[count].getId() != null) {
+                docsById.put(documents[count].getId(), count);
+            }
+            remap[doc] = count++;
+        }
+        Arrays.fill(documents, count, size, null);
+        Iterator<Postings> lists = postings.values().iterator();
+        while (lists.hasNext()) {
+            Postings list = lists.next();
+            list.retain(remap);
+            if (list.size == 0) {
+                lists.remove();
+            }
+        }
+        deleted = new BitSet();
+        size = count;
+    }
+
+    private static final class Postings {
+        private int[] docs = new int[4];
+        private int[] freqs = new int[4];
+        private int size;
+        private int live;
+
+        void add(int doc, int freq) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size] = freq;
+            size++;
+            live++;
+        }
+
+        void retain(int[] remap) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                int doc = remap[docs[i]];
+                if (doc >= 0) {
+                    docs[count] = doc;
+                    freqs[count] = freqs[i];
+                    count++;
+                }
+            }
+            size = count;
+        }
+    }
+}
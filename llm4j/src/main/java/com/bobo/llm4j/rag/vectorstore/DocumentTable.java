@@ -0,0 +1,49 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+
+import java.util.Map;
+
+/**
+ * Documents of an {@link InMemoryVectorStore}, addressed by the same slots as its
+ * {@link VectorArena}. Like the arena, it is append-only and may be read concurrently with a
+ * single writer.
+ */
+abstract class DocumentTable {
+
+    /**
+     * Append a document at the next slot.
+     */
+    abstract void append(RagDocument document);
+
+    abstract int size();
+
+    abstract RagDocument get(int slot);
+
+    abstract String id(int slot);
+
+    abstract String text(int slot);
+
+    /**
+     * Whether the document at {@code slot} was stored with metadata equal to {@code metadata},
+     * compared in the form the table keeps it in.
+     */
+    abstract boolean sameMetadata(int slot, Map<String, Object> metadata);
+
+    /**
+     * Key under which equal texts collide; used to find a stored vector for a text.
+     */
+    abstract Object contentKey(String text);
+
+    /**
+     * An empty table of the same kind, used as the target of a compaction.
+     */
+    abstract DocumentTable create();
+
+    /**
+     * Called once no new snapshot references this table; searches on older snapshots may still
+     * read it.
+     */
+    void retire() {
+    }
+}
@@ -0,0 +1,434 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Builder;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Loads documents with precomputed embeddings into a {@link VectorStore} without calling its
+ * embedding model. The store must {@linkplain VectorStore#supportsPrecomputedEmbeddings() support}
+ * them, which is checked before anything is read.
+ * <p>
+ * Input is read sequentially in chunks of whole records. Each chunk is parsed on the executor
+ * while the next one is read, and parsed chunks are added to the store in file order, so later
+ * records win when ids repeat. At most {@code parallelism} chunks are in flight at once.
+ * <p>
+ * Two formats are supported:
+ * <ul>
+ *     <li>JSONL: one object per line with {@code id}, {@code text}, {@code metadata} and an
+ *     {@code embedding} (or {@code vector}) number array. Records are parsed with the streaming
+ *     parser, so vectors go straight into {@code float[]}.</li>
+ *     <li>Binary, little-endian: a header of magic {@code "L4JV"}, version and dimension
+ *     ({@code int}s), then per record its byte length, id, text and metadata JSON as
+ *     length-prefixed UTF-8 ({@code -1} for {@code null}) and {@code dimension} floats. Use
+ *     {@link BinaryWriter} to produce it.</li>
+ * </ul>
+ */
+public class EmbeddingBulkLoader {
+
+    public static final int DEFAULT_CHUNK_BYTES = 4 << 20;
+
+    static final int MAGIC = 0x56344A4C;
+    static final int VERSION = 1;
+
+    private static final TypeReference<LinkedHashMap<String, Object>> METADATA_TYPE =
+            new TypeReference<LinkedHashMap<String, Object>>() {
+            };
+
+    private final VectorStore vectorStore;
+    private final int chunkBytes;
+    private final int parallelism;
+    private final Executor executor;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public EmbeddingBulkLoader(VectorStore vectorStore) {
+        this(vectorStore, 0, 0, null);
+    }
+
+    /**
+     * @param chunkBytes  approximate bytes of input parsed per task and added to the store at once
+     * @param parallelism chunks parsed concurrently; defaults to the available processors
+     * @param executor    runs the parse tasks; defaults to the common fork-join pool
+     */
+    @Builder
+    public EmbeddingBulkLoader(VectorStore vectorStore, int chunkBytes, int parallelism, Executor executor) {
+        if (vectorStore == null) {
+            throw new IllegalArgumentException("vectorStore must not be null");
+        }
+        if (!vectorStore.supportsPrecomputedEmbeddings()) {
+            throw new IllegalArgumentException("vectorStore does not support precomputed embeddings: "
+                    + vectorStore.getClass().getName());
+        }
+        this.vectorStore = vectorStore;
+        this.chunkBytes = chunkBytes > 0 ? chunkBytes : DEFAULT_CHUNK_BYTES;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.executor = executor == null ? ForkJoinPool.commonPool() : executor;
+    }
+
+    /**
+     * @return number of records read
+     */
+    public long loadJsonl(Path path) {
+        try (InputStream in = Files.newInputStream(path)) {
+            return loadJsonl(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read embeddings file: " + path, e);
+        }
+    }
+
+    /**
+     * Reads until end of stream; the caller closes {@code in}.
+     */
+    public long loadJsonl(InputStream in) {
+        final JsonChunks chunks = new JsonChunks(in, chunkBytes);
+        return load(new ChunkSource() {
+            @Override
+            public Supplier<Batch> next() throws IOException {
+                final byte[] chunk = chunks.next();
+                if (chunk == null) {
+                    return null;
+                }
+                return new Supplier<Batch>() {
+                    @Override
+                    public Batch get() {
+                        return parseJson(chunk);
+                    }
+                };
+            }
+        });
+    }
+
+    public long loadBinary(Path path) {
+        try (InputStream in = Files.newInputStream(path)) {
+            return loadBinary(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read embeddings file: " + path, e);
+        }
+    }
+
+    /**
+     * Reads until end of stream; the caller closes {@code in}.
+     */
+    public long loadBinary(InputStream in) {
+        final DataInput input = new DataInputStream(in instanceof BufferedInputStream
+                ? in : new BufferedInputStream(in, 1 << 16));
+        final int dimension;
+        try {
+            if (Integer.reverseBytes(input.readInt()) != MAGIC) {
+                throw new IllegalArgumentException("Not an embeddings file");
+            }
+            int version = Integer.reverseBytes(input.readInt());
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported embeddings file version " + version);
+            }
+            dimension = Integer.reverseBytes(input.readInt());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read embeddings header", e);
+        }
+        return load(new ChunkSource() {
+            @Override
+            public Supplier<Batch> next() throws IOException {
+                final byte[] chunk = nextBinaryChunk(input);
+                if (chunk == null) {
+                    return null;
+                }
+                return new Supplier<Batch>() {
+                    @Override
+                    public Batch get() {
+                        return parseBinary(chunk, dimension);
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * Read ahead while up to {@code parallelism} chunks parse, adding finished chunks in order.
+     */
+    private long load(ChunkSource source) {
+        Deque<CompletableFuture<Batch>> inFlight = new ArrayDeque<CompletableFuture<Batch>>();
+        long count = 0;
+        try {
+            while (true) {
+                Supplier<Batch> task = source.next();
+                if (task == null) {
+                    break;
+                }
+                inFlight.addLast(CompletableFuture.supplyAsync(task, executor));
+                if (inFlight.size() >= parallelism) {
+                    count += store(inFlight.removeFirst());
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                count += store(inFlight.removeFirst());
+            }
+            return count;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read embeddings", e);
+        } finally {
+            for (CompletableFuture<Batch> future : inFlight) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private int store(CompletableFuture<Batch> future) {
+        Batch batch;
+        try {
+            batch = future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("Failed to parse embeddings", cause);
+        }
+        vectorStore.add(batch.documents, batch.embeddings);
+        return batch.documents.size();
+    }
+
+    private Batch parseJson(byte[] chunk) {
+        Batch batch = new Batch();
+        try (JsonParser parser = objectMapper.getFactory().createParser(chunk)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IllegalArgumentException("Expected a JSON object per line but found " + token);
+                }
+                parseRecord(parser, batch);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to parse embeddings", e);
+        }
+        return batch;
+    }
+
+    private void parseRecord(JsonParser parser, Batch batch) throws IOException {
+        RagDocument.RagDocumentBuilder doc = RagDocument.builder();
+        float[] vector = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("id".equals(field)) {
+                doc.id(value == JsonToken.VALUE_NULL ? null : parser.getValueAsString());
+            } else if ("text".equals(field)) {
+                doc.text(value == JsonToken.VALUE_NULL ? null : parser.getValueAsString());
+            } else if ("metadata".equals(field) && value == JsonToken.START_OBJECT) {
+                doc.metadata(parser.readValueAs(METADATA_TYPE));
+            } else if (("embedding".equals(field) || "vector".equals(field)) && value == JsonToken.START_ARRAY) {
+                vector = parseVector(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        batch.documents.add(doc.build());
+        batch.embeddings.add(vector);
+    }
+
+    private static float[] parseVector(JsonParser parser) throws IOException {
+        float[] values = new float[256];
+        int length = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (length == values.length) {
+                values = Arrays.copyOf(values, length * 2);
+            }
+            values[length++] = parser.getFloatValue();
+        }
+        return length == values.length ? values : Arrays.copyOf(values, length);
+    }
+
+    /**
+     * The next run of whole records totalling at least {@code chunkBytes}, or {@code null} at
+     * end of input.
+     */
+    private byte[] nextBinaryChunk(DataInput input) throws IOException {
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream(chunkBytes + (chunkBytes >>> 2));
+        DataOutputStream out = new DataOutputStream(chunk);
+        byte[] record = new byte[1024];
+        while (chunk.size() < chunkBytes) {
+            int length;
+            try {
+                length = Integer.reverseBytes(input.readInt());
+            } catch (EOFException e) {
+                break;
+            }
+            if (length < 0) {
+                throw new IllegalArgumentException("Corrupt embeddings record length " + length);
+            }
+            if (length > record.length) {
+                record = new byte[Math.max(length, record.length * 2)];
+            }
+            input.readFully(record, 0, length);
+            out.writeInt(Integer.reverseBytes(length));
+            out.write(record, 0, length);
+        }
+        return chunk.size() == 0 ? null : chunk.toByteArray();
+    }
+
+    private Batch parseBinary(byte[] chunk, int dimension) {
+        Batch batch = new Batch();
+        ByteBuffer buffer = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            while (buffer.hasRemaining()) {
+                int end = buffer.getInt() + buffer.position();
+                RagDocument.RagDocumentBuilder doc = RagDocument.builder()
+                        .id(readString(buffer))
+                        .text(readString(buffer));
+                int metadataLength = buffer.getInt();
+                if (metadataLength >= 0) {
+                    doc.metadata(objectMapper.readValue(
+                            chunk, buffer.position(), metadataLength, METADATA_TYPE));
+                    buffer.position(buffer.position() + metadataLength);
+                }
+                float[] vector = new float[dimension];
+                buffer.asFloatBuffer().get(vector);
+                buffer.position(buffer.position() + dimension * 4);
+                if (buffer.position() != end) {
+                    throw new IllegalArgumentException("Corrupt embeddings record");
+                }
+                batch.documents.add(doc.build());
+                batch.embeddings.add(vector);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to parse embeddings metadata", e);
+        }
+        return batch;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private interface ChunkSource {
+        Supplier<Batch> next() throws IOException;
+    }
+
+    private static final class Batch {
+        private final List<RagDocument> documents = new ArrayList<RagDocument>();
+        private final List<float[]> embeddings = new ArrayList<float[]>();
+    }
+
+    /**
+     * Splits a byte stream into chunks that end on a line break, without decoding it.
+     */
+    private static final class JsonChunks {
+        private final InputStream in;
+        private final int chunkBytes;
+        private byte[] carry = new byte[0];
+        private boolean eof;
+
+        private JsonChunks(InputStream in, int chunkBytes) {
+            this.in = in;
+            this.chunkBytes = chunkBytes;
+        }
+
+        byte[] next() throws IOException {
+            byte[] buffer = Arrays.copyOf(carry, Math.max(chunkBytes, carry.length * 2));
+            int length = carry.length;
+            while (true) {
+                while (!eof && length < buffer.length) {
+                    int read = in.read(buffer, length, buffer.length - length);
+                    if (read < 0) {
+                        eof = true;
+                    } else {
+                        length += read;
+                    }
+                }
+                if (eof) {
+                    carry = new byte[0];
+                    return length == 0 ? null : Arrays.copyOf(buffer, length);
+                }
+                int end = length - 1;
+                while (end >= 0 && buffer[end] != '\n') {
+                    end--;
+                }
+                if (end >= 0) {
+                    carry = Arrays.copyOfRange(buffer, end + 1, length);
+                    return Arrays.copyOf(buffer, end + 1);
+                }
+                // A single record longer than the chunk; keep reading until its line ends.
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+    }
+
+    /**
+     * Writes the binary format read by {@link #loadBinary}.
+     */
+    public static class BinaryWriter implements Closeable {
+
+        private final DataOutputStream out;
+        private final int dimension;
+        private final ObjectMapper objectMapper = new ObjectMapper();
+        private final ByteArrayOutputStream record = new ByteArrayOutputStream(1024);
+        private final ByteBuffer floats;
+
+        public BinaryWriter(OutputStream out, int dimension) throws IOException {
+            if (out == null) {
+                throw new IllegalArgumentException("out must not be null");
+            }
+            if (dimension <= 0) {
+                throw new IllegalArgumentException("dimension must be positive");
+            }
+            this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+            this.dimension = dimension;
+            this.floats = ByteBuffer.allocate(dimension * 4).order(ByteOrder.LITTLE_ENDIAN);
+            this.out.writeInt(Integer.reverseBytes(MAGIC));
+            this.out.writeInt(Integer.reverseBytes(VERSION));
+            this.out.writeInt(Integer.reverseBytes(dimension));
+        }
+
+        public void write(RagDocument document, float[] embedding) throws IOException {
+            if (document == null) {
+                throw new IllegalArgumentException("document must not be null");
+            }
+            if (embedding == null || embedding.length != dimension) {
+                throw new IllegalArgumentException("Embedding dimension mismatch, expected " + dimension);
+            }
+            record.reset();
+            DataOutputStream data = new DataOutputStream(record);
+            writeBytes(data, document.getId() == null ? null : document.getId().getBytes(StandardCharsets.UTF_8));
+            writeBytes(data, document.getText() == null ? null : document.getText().getBytes(StandardCharsets.UTF_8));
+            writeBytes(data, document.getMetadata() == null ? null : objectMapper.writeValueAsBytes(document.getMetadata()));
+            floats.clear();
+            floats.asFloatBuffer().put(embedding);
+            data.write(floats.array());
+            out.writeInt(Integer.reverseBytes(record.size()));
+            record.writeTo(out);
+        }
+
+        private static void writeBytes(DataOutputStream data, byte[] bytes) throws IOException {
+            data.writeInt(Integer.reverseBytes(bytes == null ? -1 : bytes.length));
+            if (bytes != null) {
+                data.write(bytes);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
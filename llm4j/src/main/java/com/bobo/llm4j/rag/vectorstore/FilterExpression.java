@@ -0,0 +1,339 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import java.util.*;
+
+/**
+ * Metadata filter expression for {@link SearchRequest#getFilterExpression()}.
+ * <p>
+ * Expressions are immutable predicate trees built from the static factories, e.g.
+ * <pre>{@code
+ * FilterExpression.and(
+ *         FilterExpression.eq("tenant", "acme"),
+ *         FilterExpression.in("source", "wiki", "faq"),
+ *         FilterExpression.not(FilterExpression.lt("year", 2020)))
+ * }</pre>
+ * Equality is exact ({@link Objects#equals}) except that numbers compare by value, so
+ * {@code eq("year", 2024L)} matches an {@code Integer} 2024; {@code eq(key, null)} matches entries
+ * that are missing or {@code null}. Range comparisons compare numbers by value and other
+ * {@link Comparable} values of the same class naturally; anything else never matches.
+ * Stores with a metadata index evaluate the tree against postings bitsets, the others call
+ * {@link #test} per document.
+ */
+public abstract class FilterExpression {
+
+    FilterExpression() {
+    }
+
+    /**
+     * Whether a document with the given metadata passes the filter.
+     */
+    public abstract boolean test(Map<String, Object> metadata);
+
+    /**
+     * Slots below {@code size} that pass the filter.
+     */
+    abstract BitSet resolve(MetadataIndex index, int size);
+
+    public static FilterExpression eq(String key, Object value) {
+        return new Eq(key, value);
+    }
+
+    public static FilterExpression ne(String key, Object value) {
+        return not(eq(key, value));
+    }
+
+    public static FilterExpression in(String key, Object... values) {
+        return in(key, Arrays.asList(values));
+    }
+
+    public static FilterExpression in(String key, Collection<?> values) {
+        return new In(key, values);
+    }
+
+    public static FilterExpression gt(String key, Object value) {
+        return new Range(key, value, false, null, false);
+    }
+
+    public static FilterExpression gte(String key, Object value) {
+        return new Range(key, value, true, null, false);
+    }
+
+    public static FilterExpression lt(String key, Object value) {
+        return new Range(key, null, false, value, false);
+    }
+
+    public static FilterExpression lte(String key, Object value) {
+        return new Range(key, null, false, value, true);
+    }
+
+    /**
+     * Inclusive range; either bound may be {@code null} for an open end.
+     */
+    public static FilterExpression range(String key, Object from, Object to) {
+        return new Range(key, from, true, to, true);
+    }
+
+    public static FilterExpression and(FilterExpression... operands) {
+        return and(Arrays.asList(operands));
+    }
+
+    public static FilterExpression and(List<FilterExpression> operands) {
+        return new Junction(true, operands);
+    }
+
+    public static FilterExpression or(FilterExpression... operands) {
+        return or(Arrays.asList(operands));
+    }
+
+    public static FilterExpression or(List<FilterExpression> operands) {
+        return new Junction(false, operands);
+    }
+
+    public static FilterExpression not(FilterExpression operand) {
+        return new Not(operand);
+    }
+
+    /**
+     * Conjunction of exact-match filters and an optional expression, or {@code null} when
+     * neither restricts anything.
+     */
+    static FilterExpression of(Map<String, Object> metadataFilters, FilterExpression expression) {
+        List<FilterExpression> operands = new ArrayList<FilterExpression>();
+        if (metadataFilters != null) {
+            for (Map.Entry<String, Object> entry : metadataFilters.entrySet()) {
+                operands.add(eq(entry.getKey(), entry.getValue()));
+            }
+        }
+        if (expression != null) {
+            operands.add(expression);
+        }
+        if (operands.isEmpty()) {
+            return null;
+        }
+        return operands.size() == 1 ? operands.get(0) : and(operands);
+    }
+
+    static FilterExpression of(SearchRequest request) {
+        return of(request.getMetadataFilters(), request.getFilterExpression());
+    }
+
+    private static Object value(Map<String, Object> metadata, String key) {
+        return metadata == null ? null : metadata.get(key);
+    }
+
+    private static BitSet all(int size) {
+        BitSet result = new BitSet(size);
+        result.set(0, size);
+        return result;
+    }
+
+    private static final class Eq extends FilterExpression {
+        private final String key;
+        private final Object value;
+
+        Eq(String key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public boolean test(Map<String, Object> metadata) {
+            return Objects.equals(MetadataIndex.normalize(value), MetadataIndex.normalize(value(metadata, key)));
+        }
+
+        @Override
+        BitSet resolve(MetadataIndex index, int size) {
+            if (value != null) {
+                return index.postings(key, value, size);
+            }
+            BitSet result = all(size);
+            result.andNot(index.present(key, size));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return key + " == " + value;
+        }
+    }
+
+    private static final class In extends FilterExpression {
+        private final String key;
+        private final Set<Object> values;
+
+        In(String key, Collection<?> values) {
+            this.key = key;
+            this.values = new LinkedHashSet<Object>();
+            for (Object value : values) {
+                this.values.add(MetadataIndex.normalize(value));
+            }
+        }
+
+        @Override
+        public boolean test(Map<String, Object> metadata) {
+            return values.contains(MetadataIndex.normalize(value(metadata, key)));
+        }
+
+        @Override
+        BitSet resolve(MetadataIndex index, int size) {
+            BitSet result = new BitSet();
+            for (Object value : values) {
+                result.or(eq(key, value).resolve(index, size));
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return key + " in " + values;
+        }
+    }
+
+    private static final class Range extends FilterExpression {
+        private final String key;
+        private final Object from;
+        private final boolean fromInclusive;
+        private final Object to;
+        private final boolean toInclusive;
+
+        Range(String key, Object from, boolean fromInclusive, Object to, boolean toInclusive) {
+            this.key = key;
+            this.from = from;
+            this.fromInclusive = fromInclusive;
+            this.to = to;
+            this.toInclusive = toInclusive;
+        }
+
+        @Override
+        public boolean test(Map<String, Object> metadata) {
+            return accepts(value(metadata, key));
+        }
+
+        boolean accepts(Object value) {
+            if (value == null) {
+                return false;
+            }
+            if (from != null) {
+                Integer cmp = compare(value, from);
+                if (cmp == null || cmp < 0 || (cmp == 0 && !fromInclusive)) {
+                    return false;
+                }
+            }
+            if (to != null) {
+                Integer cmp = compare(value, to);
+                if (cmp == null || cmp > 0 || (cmp == 0 && !toInclusive)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static Integer compare(Object value, Object bound) {
+            if (value instanceof Number && bound instanceof Number) {
+                return Double.compare(((Number) value).doubleValue(), ((Number) bound).doubleValue());
+            }
+            if (value instanceof Comparable && value.getClass() == bound.getClass()) {
+                return ((Comparable) value).compareTo(bound);
+            }
+            return null;
+        }
+
+        @Override
+        BitSet resolve(MetadataIndex index, int size) {
+            BitSet result = new BitSet();
+            for (Object value : index.values(key)) {
+                if (accepts(value)) {
+                    result.or(index.postings(key, value, size));
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return (from == null ? "" : from + (fromInclusive ? " <= " : " < "))
+                    + key + (to == null ? "" : (toInclusive ? " <= " : " < ") + to);
+        }
+    }
+
+    private static final class Junction extends FilterExpression {
+        private final boolean conjunction;
+        private final List<FilterExpression> operands;
+
+        Junction(boolean conjunction, List<FilterExpression> operands) {
+            if (operands == null || operands.isEmpty()) {
+                throw new IllegalArgumentException("operands must not be empty");
+            }
+            this.conjunction = conjunction;
+            this.operands = new ArrayList<FilterExpression>(operands);
+        }
+
+        @Override
+        public boolean test(Map<String, Object> metadata) {
+            for (FilterExpression operand : operands) {
+                if (operand.test(metadata) != conjunction) {
+                    return !conjunction;
+                }
+            }
+            return conjunction;
+        }
+
+        @Override
+        BitSet resolve(MetadataIndex index, int size) {
+            BitSet result = operands.get(0).resolve(index, size);
+            for (int i = 1; i < operands.size(); i++) {
+                if (conjunction && result.isEmpty()) {
+                    break;
+                }
+                BitSet next = operands.get(i).resolve(index, size);
+                if (conjunction) {
+                    result.and(next);
+                } else {
+                    result.or(next);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("(");
+            for (int i = 0; i < operands.size(); i++) {
+                if (i > 0) {
+                    sb.append(conjunction ? " && " : " || ");
+                }
+                sb.append(operands.get(i));
+            }
+            return sb.append(')').toString();
+        }
+    }
+
+    private static final class Not extends FilterExpression {
+        private final FilterExpression operand;
+
+        Not(FilterExpression operand) {
+            if (operand == null) {
+                throw new IllegalArgumentException("operand must not be null");
+            }
+            this.operand = operand;
+        }
+
+        @Override
+        public boolean test(Map<String, Object> metadata) {
+            return !operand.test(metadata);
+        }
+
+        @Override
+        BitSet resolve(MetadataIndex index, int size) {
+            BitSet result = all(size);
+            result.andNot(operand.resolve(index, size));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "!" + operand;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps every {@link RagDocument} on heap; the slot array is replaced copy-on-write when it grows.
+ */
+final class HeapDocumentTable extends DocumentTable {
+
+    private volatile RagDocument[] documents = new RagDocument[16];
+    private int size;
+
+    @Override
+    void append(RagDocument document) {
+        RagDocument[] current = documents;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size++] = document;
+        documents = current;
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    RagDocument get(int slot) {
+        return documents[slot];
+    }
+
+    @Override
+    String id(int slot) {
+        return documents[slot].getId();
+    }
+
+    @Override
+    String text(int slot) {
+        return documents[slot].getText();
+    }
+
+    @Override
+    boolean sameMetadata(int slot, Map<String, Object> metadata) {
+        return Objects.equals(metadata, documents[slot].getMetadata());
+    }
+
+    @Override
+    Object contentKey(String text) {
+        return text;
+    }
+
+    @Override
+    DocumentTable create() {
+        return new HeapDocumentTable();
+    }
+}
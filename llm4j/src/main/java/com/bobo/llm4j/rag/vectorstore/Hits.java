@@ -0,0 +1,82 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Helpers for scored result lists shared by the composite stores.
+ * <p>
+ * A composite store asks its parts with {@link #candidates(SearchRequest)} and combines their
+ * answers with {@link #merge(List, SearchRequest)}. For an MMR request the parts return plain
+ * candidates by score together with their vectors, and MMR runs once over the merged set, so
+ * diversity holds across parts and not only within each one.
+ */
+final class Hits {
+
+    private static final Comparator<RagDocument> BY_SCORE_DESCENDING = new Comparator<RagDocument>() {
+        @Override
+        public int compare(RagDocument a, RagDocument b) {
+            double left = a.getScore() == null ? Double.NEGATIVE_INFINITY : a.getScore();
+            double right = b.getScore() == null ? Double.NEGATIVE_INFINITY : b.getScore();
+            return Double.compare(right, left);
+        }
+    };
+
+    private Hits() {
+    }
+
+    /**
+     * The request to send to each part: unchanged, or for MMR the candidate pool ranked by score
+     * alone, with stored vectors.
+     */
+    static SearchRequest candidates(SearchRequest request) {
+        if (!Mmr.enabled(request)) {
+            return request;
+        }
+        return request.toBuilder()
+                .topK(Mmr.candidates(request))
+                .mmrLambda(null)
+                .includeEmbeddings(true)
+                .build();
+    }
+
+    /**
+     * Best hits of the parts' lists by score, re-ranked by MMR when the request asks for it.
+     */
+    static List<RagDocument> merge(List<List<RagDocument>> results, SearchRequest request) {
+        List<RagDocument> merged = new ArrayList<RagDocument>();
+        for (List<RagDocument> hits : results) {
+            if (hits != null) {
+                merged.addAll(hits);
+            }
+        }
+        Collections.sort(merged, BY_SCORE_DESCENDING);
+        if (!Mmr.enabled(request)) {
+            return top(merged, request.getTopK());
+        }
+        merged = top(merged, Mmr.candidates(request));
+        double[] scores = new double[merged.size()];
+        float[][] vectors = new float[merged.size()][];
+        for (int i = 0; i < scores.length; i++) {
+            RagDocument hit = merged.get(i);
+            scores[i] = hit.getScore() == null ? Double.NEGATIVE_INFINITY : hit.getScore();
+            vectors[i] = hit.getEmbedding() == null ? new float[0] : hit.getEmbedding();
+        }
+        int[] order = Mmr.select(scores, vectors, request.getMmrLambda(), request.getTopK());
+        List<RagDocument> diverse = new ArrayList<RagDocument>(order.length);
+        for (int i : order) {
+            RagDocument hit = merged.get(i);
+            diverse.add(request.isIncludeEmbeddings() ? hit : hit.toBuilder().embedding(null).build());
+        }
+        return diverse;
+    }
+
+    private static List<RagDocument> top(List<RagDocument> sorted, int topK) {
+        int limit = Math.max(topK, 0);
+        return sorted.size() > limit ? new ArrayList<RagDocument>(sorted.subList(0, limit)) : sorted;
+    }
+}
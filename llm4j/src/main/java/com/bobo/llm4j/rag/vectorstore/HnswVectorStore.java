@@ -0,0 +1,571 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import com.bobo.llm4j.rag.embedding.EmbeddingModel;
+import lombok.Builder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Approximate nearest neighbour vector store backed by an HNSW graph
+ * (Hierarchical Navigable Small World, Malkov &amp; Yashunin).
+ * <p>
+ * {@code m} bounds the links kept per node on the upper layers (twice that on the base layer),
+ * {@code efConstruction} is the candidate list size used while linking a new node and
+ * {@code efSearch} the candidate list size used at query time; larger values trade speed for recall.
+ * Vectors are normalised on insert so cosine similarity reduces to a dot product.
+ * <p>
+ * Inserts may run concurrently with each other and with searches: neighbour lists are replaced
+ * copy-on-write under a per-node lock and read without locking. Deletes are tombstones; deleted
+ * nodes keep routing traffic through the graph but are never returned.
+ * <p>
+ * Filters are resolved to an allowed-node bitset through a {@link MetadataIndex} first. Its size
+ * picks the plan: a selective filter scores its few candidates exactly, a broad one walks the
+ * graph with {@code efSearch} scaled up by the inverse selectivity so enough matching nodes
+ * survive the filter.
+ */
+public class HnswVectorStore implements VectorStore {
+
+    public static final int DEFAULT_M = 16;
+    public static final int DEFAULT_EF_CONSTRUCTION = 200;
+    public static final int DEFAULT_EF_SEARCH = 64;
+
+    private static final int MAX_LEVEL = 16;
+    private static final int[] NO_LINKS = new int[0];
+
+    private final EmbeddingModel embeddingModel;
+    private final int m;
+    private final int maxLinksBaseLayer;
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelMultiplier;
+
+    private final Object growLock = new Object();
+    private final MetadataIndex index = new MetadataIndex();
+    private final Object entryLock = new Object();
+    private volatile Node[] nodes = new Node[64];
+    private volatile int size;
+    private volatile Node entryPoint;
+    private volatile int dimension = -1;
+
+    private final ThreadLocal<VisitedSet> visitedSets = new ThreadLocal<VisitedSet>() {
+        @Override
+        protected VisitedSet initialValue() {
+            return new VisitedSet();
+        }
+    };
+
+    public HnswVectorStore(EmbeddingModel embeddingModel) {
+        this(embeddingModel, DEFAULT_M, DEFAULT_EF_CONSTRUCTION, DEFAULT_EF_SEARCH);
+    }
+
+    @Builder
+    public HnswVectorStore(EmbeddingModel embeddingModel, int m, int efConstruction, int efSearch) {
+        if (embeddingModel == null) {
+            throw new IllegalArgumentException("embeddingModel must not be null");
+        }
+        this.embeddingModel = embeddingModel;
+        this.m = m <= 1 ? DEFAULT_M : m;
+        this.maxLinksBaseLayer = this.m * 2;
+        this.efConstruction = efConstruction <= 0 ? DEFAULT_EF_CONSTRUCTION : Math.max(efConstruction, this.m);
+        this.efSearch = efSearch <= 0 ? DEFAULT_EF_SEARCH : efSearch;
+        this.levelMultiplier = 1d / Math.log(this.m);
+    }
+
+    @Override
+    public void add(List<RagDocument> documents) {
+        if (documents == null || documents.isEmpty()) {
+            return;
+        }
+        List<String> texts = new ArrayList<String>(documents.size());
+        for (RagDocument doc : documents) {
+            texts.add(doc == null || doc.getText() == null ? "" : doc.getText());
+        }
+        List<float[]> vectors;
+        try {
+            vectors = embeddingModel.embedAllVectors(texts);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to embed documents", e);
+        }
+        for (int i = 0; i < documents.size(); i++) {
+            RagDocument doc = documents.get(i);
+            float[] vector = vectors.get(i);
+            if (doc == null || vector == null || vector.length == 0) {
+                continue;
+            }
+            insert(doc, normalize(vector));
+        }
+    }
+
+    @Override
+    public boolean supportsPrecomputedEmbeddings() {
+        return true;
+    }
+
+    @Override
+    public void add(List<RagDocument> documents, List<float[]> embeddings) {
+        if (documents == null || documents.isEmpty()) {
+            return;
+        }
+        Vectors.checkAligned(documents, embeddings);
+        for (int i = 0; i < documents.size(); i++) {
+            RagDocument doc = documents.get(i);
+            float[] vector = embeddings.get(i);
+            if (doc == null || vector == null || vector.length == 0) {
+                continue;
+            }
+            insert(doc, normalize(vector.clone()));
+        }
+    }
+
+    @Override
+    public List<List<RagDocument>> batchSimilaritySearch(List<SearchRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<float[]> embeddings = QueryEmbeddings.embedAll(embeddingModel, requests);
+        List<List<RagDocument>> results = new ArrayList<List<RagDocument>>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            results.add(search(requests.get(i), embeddings.get(i)));
+        }
+        return results;
+    }
+
+    @Override
+    public List<RagDocument> similaritySearch(SearchRequest request) {
+        if (request == null) {
+            return Collections.emptyList();
+        }
+        return search(request, QueryEmbeddings.embed(embeddingModel, request));
+    }
+
+    private List<RagDocument> search(SearchRequest request, float[] queryEmbedding) {
+        if (queryEmbedding == null || queryEmbedding.length == 0) {
+            return Collections.emptyList();
+        }
+        int topK = Math.max(request.getTopK(), 0);
+        Node entry = entryPoint;
+        if (entry == null || topK == 0) {
+            return Collections.emptyList();
+        }
+        if (queryEmbedding.length != dimension) {
+            throw new IllegalArgumentException("Query embedding dimension mismatch, expected "
+                    + dimension + " but was " + queryEmbedding.length);
+        }
+        float[] query = normalize(queryEmbedding.clone());
+        int capacity = Mmr.candidates(request);
+        int ef = Math.max(efSearch, capacity);
+        FilterExpression filter = FilterExpression.of(request);
+        final BitSet allowed;
+        if (filter == null) {
+            allowed = null;
+        } else {
+            int count = size;
+            allowed = filter.resolve(index, count);
+            int matching = allowed.cardinality();
+            if (matching == 0) {
+                return Collections.emptyList();
+            }
+            // A graph walk that only keeps a matching fraction of what it visits has to look at
+            // about ef * count / matching nodes; once that exceeds the candidates themselves,
+            // scoring them directly is cheaper and exact.
+            if ((long) matching * matching <= (long) ef * count) {
+                return exactSearch(query, allowed, capacity, request);
+            }
+            ef = (int) Math.min(matching, (long) ef * count / matching);
+        }
+        for (int level = entry.level; level > 0; level--) {
+            entry = greedyClosest(query, entry, level);
+        }
+        List<Candidate> found = searchLayer(query, entry, ef, 0, new NodeFilter() {
+            @Override
+            public boolean accept(Node node) {
+                return !node.deleted && (allowed == null || allowed.get(node.id));
+            }
+        });
+        int count = 0;
+        int[] ids = new int[Math.min(capacity, found.size())];
+        double[] scores = new double[ids.length];
+        for (Candidate candidate : found) {
+            if (count >= ids.length || candidate.score < request.getSimilarityThreshold()) {
+                break;
+            }
+            ids[count] = candidate.id;
+            scores[count++] = candidate.score;
+        }
+        return hits(Arrays.copyOf(ids, count), Arrays.copyOf(scores, count), request);
+    }
+
+    /**
+     * Brute-force scoring of the filtered candidates, used when they are few.
+     */
+    private List<RagDocument> exactSearch(float[] query, BitSet allowed, int capacity, SearchRequest request) {
+        double threshold = request.getSimilarityThreshold();
+        TopKHeap top = new TopKHeap(capacity);
+        for (int id = allowed.nextSetBit(0); id >= 0; id = allowed.nextSetBit(id + 1)) {
+            Node node = node(id);
+            if (node.deleted) {
+                continue;
+            }
+            double score = similarity(query, node.vector);
+            if (score >= threshold) {
+                top.offer(id, score);
+            }
+        }
+        double[] scores = new double[top.size()];
+        int[] ids = top.drainDescending(scores);
+        return hits(ids, scores, request);
+    }
+
+    /**
+     * Scored documents for candidates ranked best first, re-ranked by MMR when requested.
+     */
+    private List<RagDocument> hits(int[] ids, double[] scores, SearchRequest request) {
+        int[] order;
+        if (Mmr.enabled(request)) {
+            float[][] vectors = new float[ids.length][];
+            for (int i = 0; i < ids.length; i++) {
+                vectors[i] = node(ids[i]).vector;
+            }
+            order = Mmr.select(scores, vectors, request.getMmrLambda(), request.getTopK());
+        } else {
+            order = new int[Math.min(ids.length, Math.max(request.getTopK(), 0))];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+        }
+        List<RagDocument> hits = new ArrayList<RagDocument>(order.length);
+        for (int i : order) {
+            Node node = node(ids[i]);
+            RagDocument.RagDocumentBuilder hit = node.document.toBuilder().score(scores[i]);
+            if (request.isIncludeEmbeddings()) {
+                hit.embedding(node.vector.clone());
+            }
+            hits.add(hit.build());
+        }
+        return hits;
+    }
+
+    @Override
+    public void deleteByMetadata(String key, Object value) {
+        if (key == null || key.trim().isEmpty()) {
+            return;
+        }
+        BitSet matches = FilterExpression.eq(key, value).resolve(index, size);
+        Node[] snapshot = nodes;
+        for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+            snapshot[id].deleted = true;
+        }
+    }
+
+    private void insert(RagDocument document, float[] vector) {
+        checkDimension(vector);
+        Node node = register(document, vector, randomLevel());
+        Node entry = entryPoint;
+        if (entry == null) {
+            synchronized (entryLock) {
+                if (entryPoint == null) {
+                    entryPoint = node;
+                    return;
+                }
+                entry = entryPoint;
+            }
+        }
+        int topLevel = entry.level;
+        for (int level = topLevel; level > node.level; level--) {
+            entry = greedyClosest(vector, entry, level);
+        }
+        for (int level = Math.min(topLevel, node.level); level >= 0; level--) {
+            List<Candidate> found = searchLayer(vector, entry, efConstruction, level, null);
+            int[] selected = selectNeighbors(found, m);
+            node.links.set(level, selected);
+            int maxLinks = level == 0 ? maxLinksBaseLayer : m;
+            for (int neighbor : selected) {
+                link(node(neighbor), node.id, level, maxLinks);
+            }
+            if (!found.isEmpty()) {
+                entry = node(found.get(0).id);
+            }
+        }
+        if (node.level > topLevel) {
+            synchronized (entryLock) {
+                if (node.level > entryPoint.level) {
+                    entryPoint = node;
+                }
+            }
+        }
+    }
+
+    private void checkDimension(float[] vector) {
+        if (dimension < 0) {
+            synchronized (entryLock) {
+                if (dimension < 0) {
+                    dimension = vector.length;
+                }
+            }
+        }
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Embedding dimension mismatch, expected "
+                    + dimension + " but was " + vector.length);
+        }
+    }
+
+    private Node register(RagDocument document, float[] vector, int level) {
+        synchronized (growLock) {
+            int id = size;
+            Node[] current = nodes;
+            if (id == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            Node node = new Node(id, document, vector, level);
+            current[id] = node;
+            index.add(id, document.getMetadata());
+            nodes = current;
+            size = id + 1;
+            return node;
+        }
+    }
+
+    private Node node(int id) {
+        return nodes[id];
+    }
+
+    /**
+     * Add {@code newId} to the neighbour list of {@code target}, shrinking the list with the
+     * selection heuristic when it exceeds {@code maxLinks}.
+     */
+    private void link(Node target, int newId, int level, int maxLinks) {
+        synchronized (target) {
+            int[] current = target.links.get(level);
+            int[] updated;
+            if (current.length < maxLinks) {
+                updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = newId;
+            } else {
+                List<Candidate> candidates = new ArrayList<Candidate>(current.length + 1);
+                for (int id : current) {
+                    candidates.add(new Candidate(id, similarity(target.vector, node(id).vector)));
+                }
+                candidates.add(new Candidate(newId, similarity(target.vector, node(newId).vector)));
+                Collections.sort(candidates, Candidate.BEST_FIRST);
+                updated = selectNeighbors(candidates, maxLinks);
+            }
+            target.links.set(level, updated);
+        }
+    }
+
+    /**
+     * Neighbour selection heuristic: walk candidates best first and keep one only if it is closer
+     * to the base vector than to every neighbour kept so far, so links spread across directions
+     * instead of clustering. Discarded candidates back-fill any remaining room.
+     */
+    private int[] selectNeighbors(List<Candidate> candidates, int count) {
+        if (candidates.size() <= count) {
+            int[] ids = new int[candidates.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = candidates.get(i).id;
+            }
+            return ids;
+        }
+        List<Candidate> selected = new ArrayList<Candidate>(count);
+        List<Candidate> pruned = new ArrayList<Candidate>();
+        for (Candidate candidate : candidates) {
+            if (selected.size() >= count) {
+                break;
+            }
+            float[] vector = node(candidate.id).vector;
+            boolean diverse = true;
+            for (Candidate kept : selected) {
+                if (similarity(vector, node(kept.id).vector) > candidate.score) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+            } else {
+                pruned.add(candidate);
+            }
+        }
+        for (int i = 0; i < pruned.size() && selected.size() < count; i++) {
+            selected.add(pruned.get(i));
+        }
+        int[] ids = new int[selected.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = selected.get(i).id;
+        }
+        return ids;
+    }
+
+    private Node greedyClosest(float[] query, Node entry, int level) {
+        Node current = entry;
+        double best = similarity(query, current.vector);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int id : current.links.get(level)) {
+                Node candidate = node(id);
+                double score = similarity(query, candidate.vector);
+                if (score > best) {
+                    best = score;
+                    current = candidate;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first search of one layer. Nodes rejected by {@code filter} are still traversed, but
+     * only accepted nodes enter the result list. Returns results best first.
+     */
+    private List<Candidate> searchLayer(float[] query, Node entry, int ef, int level, NodeFilter filter) {
+        VisitedSet visited = visitedSets.get();
+        visited.reset(size);
+        PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>(ef, Candidate.BEST_FIRST);
+        PriorityQueue<Candidate> results = new PriorityQueue<Candidate>(ef + 1, Candidate.WORST_FIRST);
+
+        Candidate start = new Candidate(entry.id, similarity(query, entry.vector));
+        visited.mark(entry.id);
+        candidates.add(start);
+        if (filter == null || filter.accept(entry)) {
+            results.add(start);
+        }
+        while (!candidates.isEmpty()) {
+            Candidate current = candidates.poll();
+            if (results.size() >= ef && current.score < results.peek().score) {
+                break;
+            }
+            for (int id : node(current.id).links.get(level)) {
+                if (!visited.mark(id)) {
+                    continue;
+                }
+                Node neighbor = node(id);
+                double score = similarity(query, neighbor.vector);
+                if (results.size() < ef || score > results.peek().score) {
+                    Candidate next = new Candidate(id, score);
+                    candidates.add(next);
+                    if (filter == null || filter.accept(neighbor)) {
+                        results.add(next);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+        List<Candidate> ordered = new ArrayList<Candidate>(results);
+        Collections.sort(ordered, Candidate.BEST_FIRST);
+        return ordered;
+    }
+
+    private int randomLevel() {
+        double random = 1d - ThreadLocalRandom.current().nextDouble();
+        return Math.min((int) Math.floor(-Math.log(random) * levelMultiplier), MAX_LEVEL);
+    }
+
+    private static double similarity(float[] left, float[] right) {
+        double dot = 0d;
+        for (int i = 0; i < left.length; i++) {
+            dot += left[i] * right[i];
+        }
+        return dot;
+    }
+
+    private static float[] normalize(float[] vector) {
+        float norm = Vectors.norm(vector);
+        if (norm > 0f) {
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] /= norm;
+            }
+        }
+        return vector;
+    }
+
+    private interface NodeFilter {
+        boolean accept(Node node);
+    }
+
+    private static final class Node {
+        private final int id;
+        private final RagDocument document;
+        private final float[] vector;
+        private final int level;
+        private final AtomicReferenceArray<int[]> links;
+        private volatile boolean deleted;
+
+        private Node(int id, RagDocument document, float[] vector, int level) {
+            this.id = id;
+            this.document = document;
+            this.vector = vector;
+            this.level = level;
+            this.links = new AtomicReferenceArray<int[]>(level + 1);
+            for (int i = 0; i <= level; i++) {
+                this.links.set(i, NO_LINKS);
+            }
+        }
+    }
+
+    private static final class Candidate {
+        private static final Comparator<Candidate> BEST_FIRST = new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate a, Candidate b) {
+                return Double.compare(b.score, a.score);
+            }
+        };
+        private static final Comparator<Candidate> WORST_FIRST = new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate a, Candidate b) {
+                return Double.compare(a.score, b.score);
+            }
+        };
+
+        private final int id;
+        private final double score;
+
+        private Candidate(int id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Per-thread visited marks reused across searches; bumping the epoch clears them in O(1).
+     */
+    private static final class VisitedSet {
+        private int[] marks = new int[0];
+        private int epoch;
+
+        private void reset(int capacity) {
+            if (marks.length < capacity) {
+                marks = new int[Math.max(capacity, marks.length * 2)];
+                epoch = 0;
+            }
+            epoch++;
+            if (epoch == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+        }
+
+        private boolean mark(int id) {
+            if (id >= marks.length) {
+                marks = Arrays.copyOf(marks, Math.max(id + 1, marks.length * 2));
+            }
+            if (marks[id] == epoch) {
+                return false;
+            }
+            marks[id] = epoch;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+
+import java.util.*;
+
+/**
+ * Vector store decorator that mirrors every add and delete into a {@link Bm25Index}, so the same
+ * documents can be searched both by vector and lexically.
+ * <p>
+ * The index upserts by document id, while many vector stores append a second copy when an id is
+ * re-added. So only new or changed documents are passed on to the wrapped store, and vector hits
+ * are checked against the index: a hit whose id is no longer indexed with that text is a stale
+ * copy and is skipped, as is a second hit for the same id, and the rest carry the indexed
+ * metadata. Searches fetch more candidates when stale copies leave fewer than {@code topK}.
+ * Documents without text are not indexed and are ignored.
+ */
+public class HybridVectorStore implements VectorStore {
+
+    private final VectorStore vectorStore;
+    private final Bm25Index lexicalIndex;
+
+    public HybridVectorStore(VectorStore vectorStore) {
+        this(vectorStore, new Bm25Index());
+    }
+
+    public HybridVectorStore(VectorStore vectorStore, Bm25Index lexicalIndex) {
+        if (vectorStore == null) {
+            throw new IllegalArgumentException("vectorStore must not be null");
+        }
+        if (lexicalIndex == null) {
+            throw new IllegalArgumentException("lexicalIndex must not be null");
+        }
+        this.vectorStore = vectorStore;
+        this.lexicalIndex = lexicalIndex;
+    }
+
+    @Override
+    public void add(List<RagDocument> documents) {
+        if (documents == null || documents.isEmpty()) {
+            return;
+        }
+        List<Integer> changed = changed(documents);
+        if (!changed.isEmpty()) {
+            vectorStore.add(select(documents, changed));
+        }
+        lexicalIndex.add(documents);
+    }
+
+    @Override
+    public boolean supportsPrecomputedEmbeddings() {
+        return vectorStore.supportsPrecomputedEmbeddings();
+    }
+
+    @Override
+    public void add(List<RagDocument> documents, List<float[]> embeddings) {
+        if (documents == null || documents.isEmpty()) {
+            return;
+        }
+        Vectors.checkAligned(documents, embeddings);
+        List<Integer> changed = changed(documents);
+        if (!changed.isEmpty()) {
+            vectorStore.add(select(documents, changed), select(embeddings, changed));
+        }
+        lexicalIndex.add(documents);
+    }
+
+    @Override
+    public List<RagDocument> similaritySearch(SearchRequest request) {
+        if (request == null) {
+            return Collections.emptyList();
+        }
+        int topK = Math.max(request.getTopK(), 0);
+        int fetch = topK;
+        while (true) {
+            SearchRequest candidates = fetch == request.getTopK() ? request : request.toBuilder().topK(fetch).build();
+            List<RagDocument> hits = vectorStore.similaritySearch(candidates);
+            List<RagDocument> current = current(hits, request);
+            if (current.size() >= topK || hits.size() < fetch || fetch == Integer.MAX_VALUE) {
+                return current.size() > topK ? new ArrayList<RagDocument>(current.subList(0, topK)) : current;
+            }
+            fetch = (int) Math.min(Integer.MAX_VALUE, 2L * fetch);
+        }
+    }
+
+    @Override
+    public List<List<RagDocument>> batchSimilaritySearch(List<SearchRequest> requests) {
+        List<List<RagDocument>> results = vectorStore.batchSimilaritySearch(requests);
+        List<List<RagDocument>> checked = new ArrayList<List<RagDocument>>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            SearchRequest request = requests.get(i);
+            List<RagDocument> hits = results.get(i);
+            List<RagDocument> current = request == null ? hits : current(hits, request);
+            // Stale copies took some of the places: fetch this one again with more candidates.
+            checked.add(current.size() < hits.size() ? similaritySearch(request) : current);
+        }
+        return checked;
+    }
+
+    /**
+     * BM25 search over the same documents; needs no embedding call.
+     */
+    public List<RagDocument> lexicalSearch(SearchRequest request) {
+        return lexicalIndex.search(request);
+    }
+
+    @Override
+    public void deleteByMetadata(String key, Object value) {
+        vectorStore.deleteByMetadata(key, value);
+        lexicalIndex.deleteByMetadata(key, value);
+    }
+
+    public VectorStore getVectorStore() {
+        return vectorStore;
+    }
+
+    public Bm25Index getLexicalIndex() {
+        return lexicalIndex;
+    }
+
+    /**
+     * Positions of the documents that the index does not already hold unchanged.
+     */
+    private List<Integer> changed(List<RagDocument> documents) {
+        List<Integer> changed = new ArrayList<Integer>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            RagDocument doc = documents.get(i);
+            if (doc == null || doc.getText() == null) {
+                continue;
+            }
+            RagDocument indexed = lexicalIndex.get(doc.getId());
+            if (indexed == null || !indexed.getText().equals(doc.getText())
+                    || !Objects.equals(indexed.getMetadata(), doc.getMetadata())) {
+                changed.add(i);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * The hits that are the indexed version of their document, with its current metadata.
+     */
+    private List<RagDocument> current(List<RagDocument> hits, SearchRequest request) {
+        FilterExpression filter = FilterExpression.of(request);
+        Set<String> seen = new HashSet<String>();
+        List<RagDocument> current = new ArrayList<RagDocument>(hits.size());
+        for (RagDocument hit : hits) {
+            RagDocument indexed = lexicalIndex.get(hit.getId());
+            if (indexed == null || !indexed.getText().equals(hit.getText()) || !seen.add(hit.getId())
+                    || (filter != null && !filter.test(indexed.getMetadata()))) {
+                continue;
+            }
+            current.add(indexed.toBuilder().score(hit.getScore()).embedding(hit.getEmbedding()).build());
+        }
+        return current;
+    }
+
+    private static <T> List<T> select(List<T> values, List<Integer> positions) {
+        List<T> selected = new ArrayList<T>(positions.size());
+        for (int position : positions) {
+            selected.add(values.get(position));
+        }
+        return selected;
+    }
+}
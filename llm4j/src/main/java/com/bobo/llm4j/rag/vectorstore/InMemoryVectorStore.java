@@ -2,86 +2,477 @@ package com.bobo.llm4j.rag.vectorstore;
 
 import com.bobo.llm4j.rag.document.RagDocument;
 import com.bobo.llm4j.rag.embedding.EmbeddingModel;
+import lombok.Builder;
 
+import java.io.Closeable;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * In-memory vector store for local RAG.
+ * <p>
+ * Embeddings are packed into a primitive {@link VectorArena} with precomputed norms, either on
+ * heap or off heap depending on the configured {@link VectorStorage}.
+ * <p>
+ * With a {@link VectorQuantization} other than {@code NONE}, queries first rank the corpus on
+ * compressed codes and only the best {@code topK * rescoreMultiplier} candidates are re-scored
+ * with exact cosine similarity. Until the store holds enough vectors to learn the code ranges
+ * from, queries scan at full precision; the quantizer is then retrained whenever the corpus has
+ * doubled since it was trained, and when the store is compacted, so one-document-at-a-time
+ * ingestion ends up with codes that fit the data.
+ * Combine with {@link VectorStorage#OFF_HEAP} to keep the full-precision vectors, which are only
+ * read for re-scoring, out of the heap.
+ * <p>
+ * Scans are split into segments of {@code segmentSize} slots that are scored in parallel on a
+ * {@link ForkJoinPool}. Each segment keeps only a bounded top-K heap of slot indices, so a query
+ * allocates result documents for the final hits only.
+ * <p>
+ * Storage is append-only: deletes only mark slots in a tombstone bitset, and once tombstones
+ * make up a quarter of the store it is compacted on {@code compactionExecutor}. Writers are
+ * serialized, while searches read an immutable snapshot without taking any lock.
+ * <p>
+ * {@link #add} upserts by document id and keeps a map from text to stored vector, so
+ * re-ingesting unchanged content costs no embedding calls.
+ * <p>
+ * With a {@code documentDirectory}, document text and metadata are appended to a memory-mapped
+ * log in that directory instead of the heap, which then only holds ids, vectors and the metadata
+ * index; searches read back just the final hits. The log is scratch space for the lifetime of
+ * the store: it is rewritten on compaction and deleted by {@link #close()}.
+ * <p>
+ * Metadata values are kept in a {@link MetadataIndex}, so metadata filters and
+ * {@link #deleteByMetadata} resolve to a candidate bitset before any vector is scored.
  */
-public class InMemoryVectorStore implements VectorStore {
+public class InMemoryVectorStore implements VectorStore, Closeable {
+
+    public static final int DEFAULT_RESCORE_MULTIPLIER = 4;
+    public static final int DEFAULT_BINARY_RESCORE_MULTIPLIER = 10;
+    public static final int DEFAULT_SEGMENT_SIZE = 16384;
+
+    private static final double MAX_DELETED_RATIO = 0.25d;
+    private static final int MIN_TRAINING_VECTORS = 256;
+    private static final int MAX_TRAINING_VECTORS = 16384;
+    private static final int TILE_FLOATS = 16384;
+    private static final float[] UNEMBEDDABLE = new float[0];
 
     private final EmbeddingModel embeddingModel;
-    private final List<Entry> entries = new CopyOnWriteArrayList<Entry>();
+    private final VectorStorage storage;
+    private final VectorQuantization quantization;
+    private final int rescoreMultiplier;
+    private final ForkJoinPool searchPool;
+    private final int segmentSize;
+    private final Executor compactionExecutor;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Live slot per document id and per text content key; guarded by writeLock.
+    private final Map<String, Integer> slotsById = new HashMap<String, Integer>();
+    private final Map<Object, Integer> slotsByContent = new HashMap<Object, Integer>();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private volatile State state;
+    private boolean closed;
 
     public InMemoryVectorStore(EmbeddingModel embeddingModel) {
+        this(embeddingModel, VectorStorage.HEAP, VectorQuantization.NONE, 0, null, 0, null, null);
+    }
+
+    /**
+     * @param storage            where full-precision vectors are kept
+     * @param quantization       compressed codes used for the first ranking pass
+     * @param rescoreMultiplier  candidates re-scored exactly per requested hit
+     * @param searchPool         pool for parallel segment scans, defaults to the common pool
+     * @param segmentSize        slots scanned per task
+     * @param compactionExecutor executor for background compaction, defaults to the common pool
+     * @param documentDirectory  where to keep document text and metadata off heap; on heap if {@code null}
+     */
+    @Builder
+    public InMemoryVectorStore(EmbeddingModel embeddingModel, VectorStorage storage,
+                               VectorQuantization quantization, int rescoreMultiplier,
+                               ForkJoinPool searchPool, int segmentSize, Executor compactionExecutor,
+                               Path documentDirectory) {
         if (embeddingModel == null) {
             throw new IllegalArgumentException("embeddingModel must not be null");
         }
         this.embeddingModel = embeddingModel;
+        this.storage = storage == null ? VectorStorage.HEAP : storage;
+        this.quantization = quantization == null ? VectorQuantization.NONE : quantization;
+        if (rescoreMultiplier > 0) {
+            this.rescoreMultiplier = rescoreMultiplier;
+        } else {
+            this.rescoreMultiplier = this.quantization == VectorQuantization.BINARY
+                    ? DEFAULT_BINARY_RESCORE_MULTIPLIER : DEFAULT_RESCORE_MULTIPLIER;
+        }
+        this.searchPool = searchPool == null ? ForkJoinPool.commonPool() : searchPool;
+        this.segmentSize = segmentSize > 0 ? segmentSize : DEFAULT_SEGMENT_SIZE;
+        this.compactionExecutor = compactionExecutor == null ? ForkJoinPool.commonPool() : compactionExecutor;
+        DocumentTable documents = documentDirectory == null
+                ? new HeapDocumentTable() : new MappedDocumentTable(documentDirectory);
+        this.state = new State(new VectorArena(this.storage), null, new MetadataIndex(),
+                documents, 0, new BitSet(), 0);
     }
 
+    /**
+     * Upserts by document id. A document whose id is already stored with the same text and
+     * metadata is skipped; one whose text or metadata changed replaces the stored entry. Texts
+     * that are already stored under any id reuse that vector, so only new content is embedded.
+     * If a document cannot be stored, the ones before it stay added.
+     */
     @Override
     public void add(List<RagDocument> documents) {
         if (documents == null || documents.isEmpty()) {
             return;
         }
-        List<String> texts = new ArrayList<String>(documents.size());
+        List<RagDocument> pending = new ArrayList<RagDocument>(documents.size());
         for (RagDocument doc : documents) {
-            texts.add(doc == null || doc.getText() == null ? "" : doc.getText());
+            if (doc != null) {
+                pending.add(doc);
+            }
         }
-        List<List<Double>> vectors;
-        try {
-            vectors = embeddingModel.embedAll(texts);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to embed documents", e);
+        Map<String, float[]> embedded = new HashMap<String, float[]>();
+        while (!pending.isEmpty()) {
+            List<String> missing;
+            writeLock.lock();
+            try {
+                missing = missingTexts(pending, embedded);
+                if (missing.isEmpty()) {
+                    // Usually one pass; a concurrent delete can remove a vector we meant to reuse.
+                    pending = upsert(pending, embedded);
+                    continue;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            List<float[]> vectors;
+            try {
+                vectors = embeddingModel.embedAllVectors(missing);
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to embed documents", e);
+            }
+            for (int i = 0; i < missing.size(); i++) {
+                float[] vector = vectors.get(i);
+                embedded.put(missing.get(i), vector == null || vector.length == 0 ? UNEMBEDDABLE : vector);
+            }
         }
+        maybeScheduleCompaction();
+    }
+
+    /**
+     * Same upsert rules as {@link #add(List)}; the supplied vectors replace the embedding call.
+     */
+    @Override
+    public boolean supportsPrecomputedEmbeddings() {
+        return true;
+    }
+
+    @Override
+    public void add(List<RagDocument> documents, List<float[]> embeddings) {
+        if (documents == null || documents.isEmpty()) {
+            return;
+        }
+        Vectors.checkAligned(documents, embeddings);
+        List<RagDocument> pending = new ArrayList<RagDocument>(documents.size());
+        Map<String, float[]> embedded = new HashMap<String, float[]>();
         for (int i = 0; i < documents.size(); i++) {
             RagDocument doc = documents.get(i);
-            List<Double> vector = vectors.get(i);
-            if (doc == null || vector == null || vector.isEmpty()) {
+            if (doc == null) {
+                continue;
+            }
+            float[] vector = embeddings.get(i);
+            pending.add(doc);
+            if (vector != null && vector.length > 0) {
+                embedded.put(text(doc), vector);
+            } else if (!embedded.containsKey(text(doc))) {
+                embedded.put(text(doc), UNEMBEDDABLE);
+            }
+        }
+        writeLock.lock();
+        try {
+            upsert(pending, embedded);
+        } finally {
+            writeLock.unlock();
+        }
+        maybeScheduleCompaction();
+    }
+
+    /**
+     * Distinct texts of {@code pending} that have neither been embedded yet nor are stored
+     * live. Caller holds the write lock.
+     */
+    private List<String> missingTexts(List<RagDocument> pending, Map<String, float[]> embedded) {
+        DocumentTable docs = state.documents;
+        Set<String> missing = new LinkedHashSet<String>();
+        for (RagDocument doc : pending) {
+            String text = text(doc);
+            if (!embedded.containsKey(text) && !missing.contains(text)
+                    && !slotsByContent.containsKey(docs.contentKey(text))) {
+                missing.add(text);
+            }
+        }
+        return new ArrayList<String>(missing);
+    }
+
+    /**
+     * Apply {@code pending} in order and publish the result, returning the documents whose
+     * vector could not be found. Caller holds the write lock.
+     */
+    private List<RagDocument> upsert(List<RagDocument> pending, Map<String, float[]> embedded) {
+        State current = state;
+        int dimension = current.arena.dimension();
+        for (float[] vector : embedded.values()) {
+            if (vector == UNEMBEDDABLE) {
                 continue;
             }
-            this.entries.add(new Entry(doc, new ArrayList<Double>(vector)));
+            if (dimension < 0) {
+                dimension = vector.length;
+            } else if (vector.length != dimension) {
+                throw new IllegalArgumentException("Embedding dimension mismatch, expected "
+                        + dimension + " but was " + vector.length);
+            }
+        }
+        List<RagDocument> retry = new ArrayList<RagDocument>();
+        DocumentTable docs = current.documents;
+        int size = current.size;
+        BitSet deleted = current.deleted;
+        int deletedCount = current.deletedCount;
+        try {
+            for (RagDocument doc : pending) {
+                String text = text(doc);
+                Integer existing = doc.getId() == null ? null : slotsById.get(doc.getId());
+                if (existing != null) {
+                    String stored = docs.text(existing);
+                    if (text.equals(stored == null ? "" : stored) && docs.sameMetadata(existing, doc.getMetadata())) {
+                        continue;
+                    }
+                }
+                float[] vector = embedded.get(text);
+                if (vector == null) {
+                    Integer same = slotsByContent.get(docs.contentKey(text));
+                    if (same == null) {
+                        retry.add(doc);
+                        continue;
+                    }
+                    vector = current.arena.get(same);
+                }
+                if (vector == UNEMBEDDABLE) {
+                    continue;
+                }
+                // The table goes first: a mapped one can fail to encode or map the record, and
+                // then nothing else may have moved on to the next slot.
+                docs.append(doc);
+                if (existing != null) {
+                    if (deleted == current.deleted) {
+                        deleted = (BitSet) current.deleted.clone();
+                    }
+                    deleted.set(existing);
+                    deletedCount++;
+                    unmap(docs, existing);
+                }
+                current.arena.append(vector);
+                current.index.add(size, doc.getMetadata());
+                map(docs, doc, size);
+                size++;
+            }
+        } finally {
+            // Publish the documents applied so far even when one fails, so the next write starts
+            // from the slot the arena, index and table are all at.
+            QuantizedVectors quantized = extend(current.quantized, current.arena);
+            state = new State(current.arena, quantized, current.index, docs, size, deleted, deletedCount);
+        }
+        return retry;
+    }
+
+    private static String text(RagDocument doc) {
+        return doc.getText() == null ? "" : doc.getText();
+    }
+
+    private void map(DocumentTable docs, RagDocument doc, int slot) {
+        if (doc.getId() != null) {
+            slotsById.put(doc.getId(), slot);
+        }
+        slotsByContent.put(docs.contentKey(text(doc)), slot);
+    }
+
+    private void unmap(DocumentTable docs, int slot) {
+        String id = docs.id(slot);
+        if (id != null && Integer.valueOf(slot).equals(slotsById.get(id))) {
+            slotsById.remove(id);
+        }
+        String text = docs.text(slot);
+        Object key = docs.contentKey(text == null ? "" : text);
+        if (Integer.valueOf(slot).equals(slotsByContent.get(key))) {
+            slotsByContent.remove(key);
         }
     }
 
     @Override
     public List<RagDocument> similaritySearch(SearchRequest request) {
-        if (request == null || request.getQuery() == null || request.getQuery().isEmpty()) {
+        if (request == null) {
             return Collections.emptyList();
         }
-        List<Double> queryEmbedding;
-        try {
-            queryEmbedding = embeddingModel.embed(request.getQuery());
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to embed query", e);
-        }
-        if (queryEmbedding == null || queryEmbedding.isEmpty()) {
+        return search(state, request, QueryEmbeddings.embed(embeddingModel, request));
+    }
+
+    /**
+     * Embeds all queries in one call. Without quantization the corpus is then scored in a single
+     * pass: vectors are visited in cache-sized tiles and every query is scored against a tile
+     * before moving on, so each vector is read from memory once per batch rather than per query.
+     */
+    @Override
+    public List<List<RagDocument>> batchSimilaritySearch(List<SearchRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
             return Collections.emptyList();
         }
-        List<RagDocument> hits = new ArrayList<RagDocument>();
-        for (Entry entry : entries) {
-            if (!matchMetadata(entry.document, request.getMetadataFilters())) {
+        List<float[]> embeddings = QueryEmbeddings.embedAll(embeddingModel, requests);
+        State current = state;
+        List<List<RagDocument>> results = new ArrayList<List<RagDocument>>(requests.size());
+        if (current.quantized != null) {
+            for (int i = 0; i < requests.size(); i++) {
+                results.add(search(current, requests.get(i), embeddings.get(i)));
+            }
+            return results;
+        }
+        int count = requests.size();
+        float[][] queries = new float[count][];
+        float[] queryNorms = new float[count];
+        BitSet[] candidates = new BitSet[count];
+        double[] thresholds = new double[count];
+        int[] capacities = new int[count];
+        for (int i = 0; i < count; i++) {
+            SearchRequest request = requests.get(i);
+            float[] query = embeddings.get(i);
+            if (query == null || query.length == 0 || request.getTopK() <= 0) {
                 continue;
             }
-            double score = cosineSimilarity(queryEmbedding, entry.vector);
-            if (score < request.getSimilarityThreshold()) {
+            BitSet allowed = candidates(current, request);
+            if (allowed != null && allowed.isEmpty()) {
                 continue;
             }
-            RagDocument hit = entry.document.toBuilder().score(score).build();
-            hits.add(hit);
+            queries[i] = query;
+            queryNorms[i] = Vectors.norm(queries[i]);
+            candidates[i] = allowed;
+            thresholds[i] = request.getSimilarityThreshold();
+            capacities[i] = Mmr.candidates(request);
+        }
+        BatchScan task = new BatchScan(current, queries, queryNorms, candidates, thresholds, capacities,
+                0, current.size);
+        TopKHeap[] heaps = current.size <= segmentSize ? task.compute() : searchPool.invoke(task);
+        for (int i = 0; i < count; i++) {
+            results.add(queries[i] == null ? Collections.<RagDocument>emptyList()
+                    : select(current, heaps[i], requests.get(i)));
+        }
+        return results;
+    }
+
+    private List<RagDocument> search(final State current, SearchRequest request, final float[] query) {
+        if (query == null || query.length == 0 || request.getTopK() <= 0) {
+            return Collections.emptyList();
+        }
+        final float queryNorm = Vectors.norm(query);
+        BitSet candidates = candidates(current, request);
+        if (candidates != null && candidates.isEmpty()) {
+            return Collections.emptyList();
         }
-        hits.sort(new Comparator<RagDocument>() {
+        int capacity = Mmr.candidates(request);
+        if (current.quantized != null) {
+            return select(current, rescore(current, candidates, request.getSimilarityThreshold(), capacity,
+                    query, queryNorm), request);
+        }
+        QuantizedVectors.Scorer exact = new QuantizedVectors.Scorer() {
             @Override
-            public int compare(RagDocument a, RagDocument b) {
-                double sa = a.getScore() == null ? 0d : a.getScore();
-                double sb = b.getScore() == null ? 0d : b.getScore();
-                return Double.compare(sb, sa);
+            public double score(int slot) {
+                return current.arena.cosine(query, queryNorm, slot);
             }
-        });
-        int end = Math.min(Math.max(request.getTopK(), 0), hits.size());
-        return new ArrayList<RagDocument>(hits.subList(0, end));
+        };
+        return select(current, scan(current, exact, candidates, request.getSimilarityThreshold(), capacity), request);
+    }
+
+    /**
+     * Live slots passing the request's filters, or {@code null} when it has none.
+     */
+    private BitSet candidates(State current, SearchRequest request) {
+        FilterExpression filter = FilterExpression.of(request);
+        if (filter == null) {
+            return null;
+        }
+        BitSet candidates = filter.resolve(current.index, current.size);
+        candidates.andNot(current.deleted);
+        return candidates;
+    }
+
+    /**
+     * Rank on the quantized codes, then re-score the best candidates at full precision.
+     */
+    private TopKHeap rescore(State current, BitSet candidates, double threshold, int topK,
+                             float[] query, float queryNorm) {
+        QuantizedVectors.Scorer scorer = current.quantized.scorer(query, queryNorm, current.arena);
+        TopKHeap approximate = scan(current, scorer, candidates, Double.NEGATIVE_INFINITY, topK * rescoreMultiplier);
+        TopKHeap top = new TopKHeap(topK);
+        for (int slot : approximate.drainDescending(null)) {
+            double score = current.arena.cosine(query, queryNorm, slot);
+            if (score >= threshold) {
+                top.offer(slot, score);
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Final hits of a request from its candidate heap, re-ranked by MMR over the stored vectors
+     * when the request asks for it.
+     */
+    private List<RagDocument> select(State current, TopKHeap top, SearchRequest request) {
+        if (!Mmr.enabled(request)) {
+            return hydrate(current, top, request);
+        }
+        double[] scores = new double[top.size()];
+        int[] slots = top.drainDescending(scores);
+        float[][] vectors = new float[slots.length][];
+        for (int i = 0; i < slots.length; i++) {
+            vectors[i] = current.arena.get(slots[i]);
+        }
+        int[] order = Mmr.select(scores, vectors, request.getMmrLambda(), request.getTopK());
+        List<RagDocument> hits = new ArrayList<RagDocument>(order.length);
+        for (int i : order) {
+            hits.add(hit(current, slots[i], scores[i], request));
+        }
+        return hits;
+    }
+
+    /**
+     * Turn the heap into scored documents, best first.
+     */
+    private List<RagDocument> hydrate(State current, TopKHeap top, SearchRequest request) {
+        double[] scores = new double[top.size()];
+        int[] slots = top.drainDescending(scores);
+        List<RagDocument> hits = new ArrayList<RagDocument>(slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            hits.add(hit(current, slots[i], scores[i], request));
+        }
+        return hits;
+    }
+
+    private static RagDocument hit(State current, int slot, double score, SearchRequest request) {
+        RagDocument.RagDocumentBuilder hit = current.documents.get(slot).toBuilder().score(score);
+        if (request.isIncludeEmbeddings()) {
+            hit.embedding(current.arena.get(slot));
+        }
+        return hit.build();
+    }
+
+    /**
+     * Score every live slot, or only the live {@code candidates} when filtered, keeping the best
+     * {@code capacity}. Stores larger than one segment are scanned in parallel.
+     */
+    private TopKHeap scan(State current, QuantizedVectors.Scorer scorer, BitSet candidates,
+                          double threshold, int capacity) {
+        SegmentScan task = new SegmentScan(current, scorer, candidates, threshold, capacity, 0, current.size);
+        if (current.size <= segmentSize) {
+            return task.compute();
+        }
+        return searchPool.invoke(task);
     }
 
     @Override
@@ -89,61 +480,339 @@ public class InMemoryVectorStore implements VectorStore {
         if (key == null || key.trim().isEmpty()) {
             return;
         }
-        for (Entry entry : entries) {
-            Object actual = entry.document.getMetadata() == null ? null : entry.document.getMetadata().get(key);
-            if (Objects.equals(value, actual)) {
-                entries.remove(entry);
+        writeLock.lock();
+        try {
+            State current = state;
+            BitSet matches = FilterExpression.eq(key, value).resolve(current.index, current.size);
+            matches.andNot(current.deleted);
+            if (matches.isEmpty()) {
+                return;
             }
+            BitSet deleted = (BitSet) current.deleted.clone();
+            deleted.or(matches);
+            for (int slot = matches.nextSetBit(0); slot >= 0; slot = matches.nextSetBit(slot + 1)) {
+                unmap(current.documents, slot);
+            }
+            state = new State(current.arena, current.quantized, current.index, current.documents, current.size,
+                    deleted, current.deletedCount + matches.cardinality());
+        } finally {
+            writeLock.unlock();
         }
+        maybeScheduleCompaction();
     }
 
-    private boolean matchMetadata(RagDocument doc, Map<String, Object> filters) {
-        if (filters == null || filters.isEmpty()) {
-            return true;
+    /**
+     * Rewrite the store without its deleted entries now. Searches keep running against the
+     * previous snapshot meanwhile, and writes made during the rewrite are carried over.
+     * Returns immediately if a background compaction is already in progress.
+     */
+    public void compact() {
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            doCompact();
+        } finally {
+            compacting.set(false);
         }
-        Map<String, Object> metadata = doc.getMetadata();
-        for (Map.Entry<String, Object> entry : filters.entrySet()) {
-            Object actual = metadata == null ? null : metadata.get(entry.getKey());
-            Object expect = entry.getValue();
-            if (expect == null) {
-                if (actual != null) {
-                    return false;
+    }
+
+    /**
+     * Releases the document log of a store with a {@code documentDirectory}; searches already
+     * running may finish, but the store must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            if (!closed) {
+                closed = true;
+                state.documents.retire();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void maybeScheduleCompaction() {
+        State current = state;
+        if (current.deletedCount == 0 || current.deletedCount < current.size * MAX_DELETED_RATIO
+                || !compacting.compareAndSet(false, true)) {
+            return;
+        }
+        compactionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    doCompact();
+                } finally {
+                    compacting.set(false);
                 }
-            } else if (!expect.equals(actual)) {
-                return false;
             }
+        });
+    }
+
+    private void doCompact() {
+        // Slots below the captured size never change, so they can be copied without the lock
+        // while writers keep appending to the same arena.
+        State source = state;
+        if (source.deletedCount == 0) {
+            return;
         }
-        return true;
+        VectorArena arena = new VectorArena(storage);
+        MetadataIndex index = new MetadataIndex();
+        DocumentTable docs = source.documents.create();
+        boolean published = false;
+        try {
+            int size = 0;
+            int[] remap = new int[source.size];
+            for (int slot = 0; slot < source.size; slot++) {
+                if (source.deleted.get(slot)) {
+                    remap[slot] = -1;
+                    continue;
+                }
+                arena.append(source.arena.get(slot));
+                docs.append(source.documents.get(slot));
+                remap[slot] = size++;
+            }
+            // Postings are copied rather than rebuilt from the documents: a mapped table hands back
+            // metadata decoded from JSON, whose values may differ in type from the indexed ones.
+            index.copy(source.index, remap, 0, source.size);
+            QuantizedVectors quantized = extend(null, arena);
+
+            writeLock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                State current = state;
+                BitSet deleted = new BitSet();
+                int deletedCount = 0;
+                for (int slot = current.deleted.nextSetBit(0); slot >= 0 && slot < source.size;
+                     slot = current.deleted.nextSetBit(slot + 1)) {
+                    if (remap[slot] >= 0) {
+                        deleted.set(remap[slot]);
+                        deletedCount++;
+                    }
+                }
+                remap = Arrays.copyOf(remap, current.size);
+                for (int slot = source.size; slot < current.size; slot++) {
+                    float[] vector = current.arena.get(slot);
+                    arena.append(vector);
+                    if (current.deleted.get(slot)) {
+                        deleted.set(size);
+                        deletedCount++;
+                    }
+                    docs.append(current.documents.get(slot));
+                    remap[slot] = size++;
+                }
+                index.copy(current.index, remap, source.size, current.size);
+                quantized = extend(quantized, arena);
+                // Mapped slots are live, so they all survive the rewrite.
+                for (Map.Entry<String, Integer> entry : slotsById.entrySet()) {
+                    entry.setValue(remap[entry.getValue()]);
+                }
+                for (Map.Entry<Object, Integer> entry : slotsByContent.entrySet()) {
+                    entry.setValue(remap[entry.getValue()]);
+                }
+                state = new State(arena, quantized, index, docs, size, deleted, deletedCount);
+                published = true;
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            // A compaction that fails or outlives the store leaves its rewritten log behind otherwise.
+            if (!published) {
+                docs.retire();
+            }
+        }
+        source.documents.retire();
     }
 
-    private double cosineSimilarity(List<Double> left, List<Double> right) {
-        int len = Math.min(left.size(), right.size());
-        if (len == 0) {
-            return 0d;
+    /**
+     * Codes for every vector of the arena: none while it is too small to train on, newly trained
+     * ones once it has doubled since {@code quantized} was trained, else {@code quantized}
+     * extended with the vectors appended since.
+     */
+    private QuantizedVectors extend(QuantizedVectors quantized, VectorArena arena) {
+        if (quantization == VectorQuantization.NONE || arena.size() < MIN_TRAINING_VECTORS) {
+            return null;
         }
-        double dot = 0d;
-        double normLeft = 0d;
-        double normRight = 0d;
-        for (int i = 0; i < len; i++) {
-            double l = left.get(i);
-            double r = right.get(i);
-            dot += l * r;
-            normLeft += l * l;
-            normRight += r * r;
+        if (quantized == null || (quantized.trainingSize() < MAX_TRAINING_VECTORS
+                && arena.size() >= 2L * quantized.trainingSize())) {
+            return quantize(arena);
         }
-        if (normLeft == 0d || normRight == 0d) {
-            return 0d;
+        for (int slot = quantized.size(); slot < arena.size(); slot++) {
+            quantized.append(arena.get(slot));
         }
-        return dot / (Math.sqrt(normLeft) * Math.sqrt(normRight));
+        return quantized;
     }
 
-    private static final class Entry {
-        private final RagDocument document;
-        private final List<Double> vector;
+    /**
+     * Train a quantizer on the leading vectors of the arena and encode all of them.
+     */
+    private QuantizedVectors quantize(VectorArena arena) {
+        int trainingSize = Math.min(arena.size(), MAX_TRAINING_VECTORS);
+        List<float[]> training = new ArrayList<float[]>(trainingSize);
+        for (int slot = 0; slot < trainingSize; slot++) {
+            training.add(arena.get(slot));
+        }
+        QuantizedVectors quantized = QuantizedVectors.create(quantization, training);
+        for (int slot = 0; slot < arena.size(); slot++) {
+            quantized.append(slot < trainingSize ? training.get(slot) : arena.get(slot));
+        }
+        return quantized;
+    }
 
-        private Entry(RagDocument document, List<Double> vector) {
-            this.document = document;
-            this.vector = vector;
+    /**
+     * Immutable view of the store. The arena, codes, index and document table are shared with
+     * later snapshots but only ever appended to beyond {@code size}.
+     */
+    private static final class State {
+        final VectorArena arena;
+        final QuantizedVectors quantized;
+        final MetadataIndex index;
+        final DocumentTable documents;
+        final int size;
+        final BitSet deleted;
+        final int deletedCount;
+
+        State(VectorArena arena, QuantizedVectors quantized, MetadataIndex index, DocumentTable documents,
+              int size, BitSet deleted, int deletedCount) {
+            this.arena = arena;
+            this.quantized = quantized;
+            this.index = index;
+            this.documents = documents;
+            this.size = size;
+            this.deleted = deleted;
+            this.deletedCount = deletedCount;
+        }
+    }
+
+    private final class SegmentScan extends RecursiveTask<TopKHeap> {
+        private final State current;
+        private final QuantizedVectors.Scorer scorer;
+        private final BitSet candidates;
+        private final double threshold;
+        private final int capacity;
+        private final int from;
+        private final int to;
+
+        SegmentScan(State current, QuantizedVectors.Scorer scorer, BitSet candidates,
+                    double threshold, int capacity, int from, int to) {
+            this.current = current;
+            this.scorer = scorer;
+            this.candidates = candidates;
+            this.threshold = threshold;
+            this.capacity = capacity;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TopKHeap compute() {
+            if (to - from > segmentSize) {
+                int mid = from + (to - from) / 2;
+                SegmentScan left = new SegmentScan(current, scorer, candidates, threshold, capacity, from, mid);
+                SegmentScan right = new SegmentScan(current, scorer, candidates, threshold, capacity, mid, to);
+                left.fork();
+                TopKHeap heap = right.compute();
+                heap.offerAll(left.join());
+                return heap;
+            }
+            TopKHeap heap = new TopKHeap(capacity);
+            if (candidates != null) {
+                for (int slot = candidates.nextSetBit(from); slot >= 0 && slot < to;
+                     slot = candidates.nextSetBit(slot + 1)) {
+                    double score = scorer.score(slot);
+                    if (score >= threshold) {
+                        heap.offer(slot, score);
+                    }
+                }
+                return heap;
+            }
+            boolean checkDeleted = current.deletedCount > 0;
+            for (int slot = from; slot < to; slot++) {
+                if (checkDeleted && current.deleted.get(slot)) {
+                    continue;
+                }
+                double score = scorer.score(slot);
+                if (score >= threshold) {
+                    heap.offer(slot, score);
+                }
+            }
+            return heap;
+        }
+    }
+
+    /**
+     * Multi-query counterpart of {@link SegmentScan}. Queries without a vector are skipped.
+     */
+    private final class BatchScan extends RecursiveTask<TopKHeap[]> {
+        private final State current;
+        private final float[][] queries;
+        private final float[] queryNorms;
+        private final BitSet[] candidates;
+        private final double[] thresholds;
+        private final int[] capacities;
+        private final int from;
+        private final int to;
+
+        BatchScan(State current, float[][] queries, float[] queryNorms, BitSet[] candidates,
+                  double[] thresholds, int[] capacities, int from, int to) {
+            this.current = current;
+            this.queries = queries;
+            this.queryNorms = queryNorms;
+            this.candidates = candidates;
+            this.thresholds = thresholds;
+            this.capacities = capacities;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TopKHeap[] compute() {
+            if (to - from > segmentSize) {
+                int mid = from + (to - from) / 2;
+                BatchScan left = new BatchScan(current, queries, queryNorms, candidates, thresholds, capacities,
+                        from, mid);
+                BatchScan right = new BatchScan(current, queries, queryNorms, candidates, thresholds, capacities,
+                        mid, to);
+                left.fork();
+                TopKHeap[] heaps = right.compute();
+                TopKHeap[] other = left.join();
+                for (int q = 0; q < heaps.length; q++) {
+                    heaps[q].offerAll(other[q]);
+                }
+                return heaps;
+            }
+            TopKHeap[] heaps = new TopKHeap[queries.length];
+            for (int q = 0; q < queries.length; q++) {
+                heaps[q] = new TopKHeap(capacities[q]);
+            }
+            VectorArena arena = current.arena;
+            int tile = Math.max(1, TILE_FLOATS / Math.max(arena.dimension(), 1));
+            boolean checkDeleted = current.deletedCount > 0;
+            for (int start = from; start < to; start += tile) {
+                int end = Math.min(to, start + tile);
+                for (int q = 0; q < queries.length; q++) {
+                    float[] query = queries[q];
+                    if (query == null) {
+                        continue;
+                    }
+                    BitSet allowed = candidates[q];
+                    for (int slot = start; slot < end; slot++) {
+                        if (allowed != null ? !allowed.get(slot) : checkDeleted && current.deleted.get(slot)) {
+                            continue;
+                        }
+                        double score = arena.cosine(query, queryNorms[q], slot);
+                        if (score >= thresholds[q]) {
+                            heaps[q].offer(slot, score);
+                        }
+                    }
+                }
+            }
+            return heaps;
         }
     }
 }
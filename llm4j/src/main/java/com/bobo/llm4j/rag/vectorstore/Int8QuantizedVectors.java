@@ -0,0 +1,63 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import java.util.Arrays;
+
+/**
+ * Int8 codes for every vector, packed into byte blocks. Approximate scores are cosine
+ * similarities computed from the decoded dot product and the exact stored norms.
+ */
+final class Int8QuantizedVectors extends QuantizedVectors {
+
+    private static final int BLOCK_SIZE = VectorArena.DEFAULT_BLOCK_SIZE;
+
+    private final ScalarQuantizer quantizer;
+    private final int dimension;
+    private volatile byte[][] blocks = new byte[0][];
+    private int size;
+
+    Int8QuantizedVectors(ScalarQuantizer quantizer) {
+        this.quantizer = quantizer;
+        this.dimension = quantizer.dimension();
+    }
+
+    @Override
+    void append(float[] vector) {
+        int blockIndex = size / BLOCK_SIZE;
+        byte[][] current = blocks;
+        if (blockIndex == current.length) {
+            current = Arrays.copyOf(current, current.length + 1);
+            current[blockIndex] = new byte[BLOCK_SIZE * dimension];
+            blocks = current;
+        }
+        quantizer.encode(vector, blocks[blockIndex], (size % BLOCK_SIZE) * dimension);
+        size++;
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    Scorer scorer(float[] query, final float queryNorm, final VectorArena arena) {
+        final float[] scaled = quantizer.scaledQuery(query);
+        final double base = quantizer.queryBase(query);
+        final byte[][] codes = blocks;
+        return new Scorer() {
+            @Override
+            public double score(int slot) {
+                float norm = arena.norm(slot);
+                if (queryNorm == 0f || norm == 0f) {
+                    return 0d;
+                }
+                byte[] block = codes[slot / BLOCK_SIZE];
+                int offset = (slot % BLOCK_SIZE) * dimension;
+                double dot = base;
+                for (int i = 0; i < dimension; i++) {
+                    dot += scaled[i] * block[offset + i];
+                }
+                return dot / ((double) queryNorm * norm);
+            }
+        };
+    }
+}
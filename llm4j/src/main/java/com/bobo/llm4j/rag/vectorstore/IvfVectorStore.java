@@ -0,0 +1,582 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import com.bobo.llm4j.rag.embedding.EmbeddingModel;
+import lombok.Builder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Inverted-file (IVF) vector store.
+ * <p>
+ * Vectors are clustered with spherical k-means into {@code nlist} partitions, and a query only
+ * scans the {@code nprobe} partitions whose centroids are closest to it. Until enough vectors
+ * have been added to train ({@code minTrainingSize}) the store behaves like a flat exact scan.
+ * Training runs on the configured executor once the corpus reaches {@code minTrainingSize}, and
+ * again whenever it has grown by {@code retrainGrowth} since the last training or when deleted
+ * entries pile up, so partitions follow the data as it drifts. {@link #retrain()} trains
+ * synchronously, e.g. after a bulk load.
+ * <p>
+ * Filtered queries keep probing partitions in centroid order past {@code nprobe} until
+ * {@code topK} matches are found.
+ */
+public class IvfVectorStore implements VectorStore {
+
+    public static final int DEFAULT_NPROBE = 8;
+    public static final int DEFAULT_MIN_TRAINING_SIZE = 1024;
+    public static final double DEFAULT_RETRAIN_GROWTH = 2.0d;
+
+    private static final int KMEANS_ITERATIONS = 8;
+    private static final int SAMPLES_PER_CENTROID = 32;
+    private static final double MAX_DELETED_RATIO = 0.3d;
+
+    private final EmbeddingModel embeddingModel;
+    private final int nlist;
+    private final int nprobe;
+    private final int minTrainingSize;
+    private final double retrainGrowth;
+    private final VectorStorage storage;
+    private final Executor retrainExecutor;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean training = new AtomicBoolean();
+    private volatile State state;
+
+    public IvfVectorStore(EmbeddingModel embeddingModel) {
+        this(embeddingModel, 0, DEFAULT_NPROBE, DEFAULT_MIN_TRAINING_SIZE, DEFAULT_RETRAIN_GROWTH, null, null);
+    }
+
+    /**
+     * @param nlist           number of partitions; {@code 0} picks {@code sqrt(n)} at training time
+     * @param nprobe          partitions scanned per query
+     * @param minTrainingSize live vectors required before the first training
+     * @param retrainGrowth   corpus growth factor since the last training that triggers a retrain
+     * @param storage         where partition vectors are kept
+     * @param retrainExecutor executor for background training, defaults to the common pool
+     */
+    @Builder
+    public IvfVectorStore(EmbeddingModel embeddingModel, int nlist, int nprobe, int minTrainingSize,
+                          double retrainGrowth, VectorStorage storage, Executor retrainExecutor) {
+        if (embeddingModel == null) {
+            throw new IllegalArgumentException("embeddingModel must not be null");
+        }
+        this.embeddingModel = embeddingModel;
+        this.nlist = Math.max(nlist, 0);
+        this.nprobe = nprobe <= 0 ? DEFAULT_NPROBE : nprobe;
+        this.minTrainingSize = minTrainingSize <= 0 ? DEFAULT_MIN_TRAINING_SIZE : minTrainingSize;
+        this.retrainGrowth = retrainGrowth <= 1d ? DEFAULT_RETRAIN_GROWTH : retrainGrowth;
+        this.storage = storage == null ? VectorStorage.HEAP : storage;
+        this.retrainExecutor = retrainExecutor == null ? ForkJoinPool.commonPool() : retrainExecutor;
+        this.state = new State(null, new Partition[]{new Partition(this.storage)}, 0);
+    }
+
+    @Override
+    public void add(List<RagDocument> documents) {
+        if (documents == null || documents.isEmpty()) {
+            return;
+        }
+        List<String> texts = new ArrayList<String>(documents.size());
+        for (RagDocument doc : documents) {
+            texts.add(doc == null || doc.getText() == null ? "" : doc.getText());
+        }
+        List<float[]> vectors;
+        try {
+            vectors = embeddingModel.embedAllVectors(texts);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to embed documents", e);
+        }
+        List<float[]> embeddings = new ArrayList<float[]>(vectors.size());
+        for (float[] vector : vectors) {
+            embeddings.add(vector == null || vector.length == 0 ? null : vector);
+        }
+        append(documents, embeddings);
+    }
+
+    @Override
+    public boolean supportsPrecomputedEmbeddings() {
+        return true;
+    }
+
+    @Override
+    public void add(List<RagDocument> documents, List<float[]> embeddings) {
+        if (documents == null || documents.isEmpty()) {
+            return;
+        }
+        Vectors.checkAligned(documents, embeddings);
+        List<float[]> copies = new ArrayList<float[]>(embeddings.size());
+        for (float[] vector : embeddings) {
+            copies.add(vector == null || vector.length == 0 ? null : vector.clone());
+        }
+        append(documents, copies);
+    }
+
+    private void append(List<RagDocument> documents, List<float[]> embeddings) {
+        lock.writeLock().lock();
+        try {
+            State current = state;
+            for (int i = 0; i < documents.size(); i++) {
+                RagDocument doc = documents.get(i);
+                float[] values = embeddings.get(i);
+                if (doc == null || values == null) {
+                    continue;
+                }
+                current.partitions[current.nearestPartition(values)].append(doc, values);
+                current.live++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        maybeScheduleRetrain();
+    }
+
+    @Override
+    public List<List<RagDocument>> batchSimilaritySearch(List<SearchRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<float[]> embeddings = QueryEmbeddings.embedAll(embeddingModel, requests);
+        List<List<RagDocument>> results = new ArrayList<List<RagDocument>>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            results.add(search(requests.get(i), embeddings.get(i)));
+        }
+        return results;
+    }
+
+    @Override
+    public List<RagDocument> similaritySearch(SearchRequest request) {
+        if (request == null) {
+            return Collections.emptyList();
+        }
+        return search(request, QueryEmbeddings.embed(embeddingModel, request));
+    }
+
+    private List<RagDocument> search(SearchRequest request, float[] query) {
+        if (query == null || query.length == 0) {
+            return Collections.emptyList();
+        }
+        int topK = Math.max(request.getTopK(), 0);
+        if (topK == 0) {
+            return Collections.emptyList();
+        }
+        float queryNorm = Vectors.norm(query);
+        FilterExpression filter = FilterExpression.of(request);
+        int capacity = Mmr.candidates(request);
+        boolean mmr = Mmr.enabled(request);
+        PriorityQueue<Hit> best = new PriorityQueue<Hit>(capacity + 1, Hit.WORST_FIRST);
+        lock.readLock().lock();
+        try {
+            State current = state;
+            // With a filter, keep probing the next closest partitions until topK matches are
+            // found, so a selective filter does not come back empty from the first nprobe.
+            int[] probes = current.probe(query, filter == null ? nprobe : current.partitions.length);
+            for (int i = 0; i < probes.length; i++) {
+                if (i >= nprobe && best.size() >= capacity) {
+                    break;
+                }
+                Partition partition = current.partitions[probes[i]];
+                for (int slot = 0; slot < partition.size; slot++) {
+                    if (partition.deleted.get(slot)) {
+                        continue;
+                    }
+                    RagDocument document = partition.documents[slot];
+                    if (filter != null && !filter.test(document.getMetadata())) {
+                        continue;
+                    }
+                    double score = partition.arena.cosine(query, queryNorm, slot);
+                    if (score < request.getSimilarityThreshold()) {
+                        continue;
+                    }
+                    if (best.size() < capacity || score > best.peek().score) {
+                        if (best.size() == capacity) {
+                            best.poll();
+                        }
+                        best.add(new Hit(document, score,
+                                mmr || request.isIncludeEmbeddings() ? partition.arena.get(slot) : null));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Hit> ordered = new ArrayList<Hit>(best);
+        Collections.sort(ordered, Collections.reverseOrder(Hit.WORST_FIRST));
+        if (mmr) {
+            double[] scores = new double[ordered.size()];
+            float[][] vectors = new float[ordered.size()][];
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = ordered.get(i).score;
+                vectors[i] = ordered.get(i).vector;
+            }
+            List<Hit> diverse = new ArrayList<Hit>(topK);
+            for (int i : Mmr.select(scores, vectors, request.getMmrLambda(), topK)) {
+                diverse.add(ordered.get(i));
+            }
+            ordered = diverse;
+        }
+        List<RagDocument> hits = new ArrayList<RagDocument>(ordered.size());
+        for (Hit hit : ordered) {
+            hits.add(hit.document.toBuilder().score(hit.score)
+                    .embedding(request.isIncludeEmbeddings() ? hit.vector : null).build());
+        }
+        return hits;
+    }
+
+    @Override
+    public void deleteByMetadata(String key, Object value) {
+        if (key == null || key.trim().isEmpty()) {
+            return;
+        }
+        FilterExpression filter = FilterExpression.eq(key, value);
+        lock.writeLock().lock();
+        try {
+            State current = state;
+            for (Partition partition : current.partitions) {
+                for (int slot = 0; slot < partition.size; slot++) {
+                    if (!partition.deleted.get(slot)
+                            && filter.test(partition.documents[slot].getMetadata())) {
+                        partition.deleted.set(slot);
+                        current.live--;
+                        current.deletedSinceTraining++;
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        maybeScheduleRetrain();
+    }
+
+    /**
+     * Re-cluster all live vectors now and swap in the new partitions. Deleted entries are
+     * dropped in the process. Searches keep running against the old partitions meanwhile.
+     * Returns immediately if a background training is already in progress.
+     */
+    public void retrain() {
+        if (!training.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            doRetrain();
+        } finally {
+            training.set(false);
+        }
+    }
+
+    private void maybeScheduleRetrain() {
+        State current = state;
+        // Measured from at least minTrainingSize, so a training on a tiny or emptied corpus does
+        // not make every later write look like growth.
+        int trained = Math.max(current.trainedSize, minTrainingSize);
+        boolean due = current.centroids == null
+                ? current.live >= minTrainingSize
+                : current.live >= trained * retrainGrowth
+                || current.deletedSinceTraining > trained * MAX_DELETED_RATIO;
+        if (!due || !training.compareAndSet(false, true)) {
+            return;
+        }
+        retrainExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    doRetrain();
+                } finally {
+                    training.set(false);
+                }
+            }
+        });
+    }
+
+    private void doRetrain() {
+        State source;
+        int[] captured;
+        BitSet[] capturedDeleted;
+        List<float[]> sample;
+        int k;
+        lock.readLock().lock();
+        try {
+            source = state;
+            if (source.live == 0) {
+                return;
+            }
+            captured = new int[source.partitions.length];
+            capturedDeleted = new BitSet[source.partitions.length];
+            for (int p = 0; p < captured.length; p++) {
+                captured[p] = source.partitions[p].size;
+                capturedDeleted[p] = (BitSet) source.partitions[p].deleted.clone();
+            }
+            k = nlist > 0 ? nlist : (int) Math.max(1, Math.round(Math.sqrt(source.live)));
+            k = Math.min(k, source.live);
+        } finally {
+            lock.readLock().unlock();
+        }
+        // The source partitions are append-only, so everything below the captured sizes can be
+        // read without holding the lock while writers keep appending.
+        sample = source.sample(captured, capturedDeleted, k * SAMPLES_PER_CENTROID, new Random(source.live));
+        float[][] centroids = kMeans(sample, Math.min(k, sample.size()), new Random(sample.size()));
+        State rebuilt = new State(centroids, newPartitions(centroids.length), 0);
+        long[][] locations = rebuilt.copyFrom(source, captured, capturedDeleted);
+
+        lock.writeLock().lock();
+        try {
+            // Replay what happened to the source while the new partitions were being built.
+            for (int p = 0; p < captured.length; p++) {
+                Partition partition = source.partitions[p];
+                for (int slot = 0; slot < partition.size; slot++) {
+                    if (slot < captured[p]) {
+                        long location = locations[p][slot];
+                        if (location >= 0 && partition.deleted.get(slot)) {
+                            rebuilt.partitions[(int) (location >>> 32)].deleted.set((int) location);
+                            rebuilt.live--;
+                        }
+                    } else if (!partition.deleted.get(slot)) {
+                        float[] vector = partition.arena.get(slot);
+                        rebuilt.partitions[rebuilt.nearestPartition(vector)].append(partition.documents[slot], vector);
+                        rebuilt.live++;
+                    }
+                }
+            }
+            rebuilt.trainedSize = rebuilt.live;
+            state = rebuilt;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Partition[] newPartitions(int count) {
+        Partition[] partitions = new Partition[count];
+        for (int c = 0; c < count; c++) {
+            partitions[c] = new Partition(storage);
+        }
+        return partitions;
+    }
+
+    /**
+     * Spherical k-means over normalised sample vectors.
+     */
+    private static float[][] kMeans(List<float[]> sample, int k, Random random) {
+        int dimension = sample.get(0).length;
+        List<float[]> points = new ArrayList<float[]>(sample.size());
+        for (float[] vector : sample) {
+            points.add(normalized(vector));
+        }
+        Collections.shuffle(points, random);
+        float[][] centroids = new float[k][];
+        for (int c = 0; c < k; c++) {
+            centroids[c] = points.get(c).clone();
+        }
+        int[] assignment = new int[points.size()];
+        for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+            boolean changed = false;
+            for (int i = 0; i < points.size(); i++) {
+                int nearest = nearest(centroids, points.get(i));
+                if (iteration == 0 || nearest != assignment[i]) {
+                    assignment[i] = nearest;
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                break;
+            }
+            double[][] sums = new double[k][dimension];
+            int[] counts = new int[k];
+            for (int i = 0; i < points.size(); i++) {
+                float[] point = points.get(i);
+                double[] sum = sums[assignment[i]];
+                for (int d = 0; d < dimension; d++) {
+                    sum[d] += point[d];
+                }
+                counts[assignment[i]]++;
+            }
+            for (int c = 0; c < k; c++) {
+                if (counts[c] == 0) {
+                    centroids[c] = points.get(random.nextInt(points.size())).clone();
+                    continue;
+                }
+                float[] centroid = new float[dimension];
+                for (int d = 0; d < dimension; d++) {
+                    centroid[d] = (float) sums[c][d];
+                }
+                centroids[c] = normalized(centroid);
+            }
+        }
+        return centroids;
+    }
+
+    private static int nearest(float[][] centroids, float[] vector) {
+        int best = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < centroids.length; c++) {
+            double score = Vectors.dot(centroids[c], vector);
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private static float[] normalized(float[] vector) {
+        float norm = Vectors.norm(vector);
+        float[] result = vector.clone();
+        if (norm > 0f) {
+            for (int i = 0; i < result.length; i++) {
+                result[i] /= norm;
+            }
+        }
+        return result;
+    }
+
+    private static final class State {
+        private final float[][] centroids;
+        private final Partition[] partitions;
+        private volatile int trainedSize;
+        private volatile int live;
+        private volatile int deletedSinceTraining;
+
+        private State(float[][] centroids, Partition[] partitions, int trainedSize) {
+            this.centroids = centroids;
+            this.partitions = partitions;
+            this.trainedSize = trainedSize;
+        }
+
+        private int nearestPartition(float[] vector) {
+            return centroids == null ? 0 : nearest(centroids, vector);
+        }
+
+        /**
+         * Indexes of the {@code nprobe} partitions whose centroids score highest against the query.
+         */
+        private int[] probe(float[] query, int nprobe) {
+            if (centroids == null || nprobe >= centroids.length) {
+                int[] all = new int[partitions.length];
+                for (int i = 0; i < all.length; i++) {
+                    all[i] = i;
+                }
+                return all;
+            }
+            final double[] scores = new double[centroids.length];
+            List<Integer> order = new ArrayList<Integer>(centroids.length);
+            for (int c = 0; c < centroids.length; c++) {
+                scores[c] = Vectors.dot(centroids[c], query);
+                order.add(c);
+            }
+            Collections.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(scores[b], scores[a]);
+                }
+            });
+            int[] probes = new int[nprobe];
+            for (int i = 0; i < nprobe; i++) {
+                probes[i] = order.get(i);
+            }
+            return probes;
+        }
+
+        private List<float[]> sample(int[] sizes, BitSet[] deletedSlots, int limit, Random random) {
+            List<float[]> sample = new ArrayList<float[]>();
+            int seen = 0;
+            for (int p = 0; p < partitions.length; p++) {
+                Partition partition = partitions[p];
+                for (int slot = 0; slot < sizes[p]; slot++) {
+                    if (deletedSlots[p].get(slot)) {
+                        continue;
+                    }
+                    if (sample.size() < limit) {
+                        sample.add(partition.arena.get(slot));
+                    } else {
+                        int replace = random.nextInt(seen + 1);
+                        if (replace < limit) {
+                            sample.set(replace, partition.arena.get(slot));
+                        }
+                    }
+                    seen++;
+                }
+            }
+            return sample;
+        }
+
+        /**
+         * Assign the live entries of {@code source} below the given sizes to this state's
+         * partitions. Returns, per source partition and slot, the new location packed as
+         * {@code partition << 32 | slot}, or {@code -1} for entries that were skipped.
+         */
+        private long[][] copyFrom(State source, int[] sizes, BitSet[] deletedSlots) {
+            long[][] locations = new long[sizes.length][];
+            for (int p = 0; p < sizes.length; p++) {
+                Partition partition = source.partitions[p];
+                locations[p] = new long[sizes[p]];
+                for (int slot = 0; slot < sizes[p]; slot++) {
+                    if (deletedSlots[p].get(slot)) {
+                        locations[p][slot] = -1L;
+                        continue;
+                    }
+                    float[] vector = partition.arena.get(slot);
+                    int target = nearestPartition(vector);
+                    int newSlot = partitions[target].append(partition.documents[slot], vector);
+                    locations[p][slot] = ((long) target << 32) | newSlot;
+                    live++;
+                }
+            }
+            return locations;
+        }
+    }
+
+    /**
+     * Append-only partition. Entries below a size observed under the store lock can be read
+     * while a writer appends.
+     */
+    private static final class Partition {
+        private final VectorArena arena;
+        private final BitSet deleted = new BitSet();
+        private volatile RagDocument[] documents = new RagDocument[16];
+        private volatile int size;
+
+        private Partition(VectorStorage storage) {
+            this.arena = new VectorArena(storage, 256);
+        }
+
+        private int append(RagDocument document, float[] vector) {
+            int slot = arena.append(vector);
+            RagDocument[] current = documents;
+            if (slot == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[slot] = document;
+            documents = current;
+            size = slot + 1;
+            return slot;
+        }
+    }
+    private static final class Hit {
+        private static final Comparator<Hit> WORST_FIRST = new Comparator<Hit>() {
+            @Override
+            public int compare(Hit a, Hit b) {
+                return Double.compare(a.score, b.score);
+            }
+        };
+
+        private final RagDocument document;
+        private final double score;
+        // Only kept for MMR re-ranking.
+        private final float[] vector;
+
+        private Hit(RagDocument document, double score, float[] vector) {
+            this.document = document;
+            this.score = score;
+            this.vector = vector;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps only document ids on heap. Text and metadata JSON are appended to a memory-mapped log
+ * file of its own in the directory and read back by address when a document is hydrated.
+ * <p>
+ * The log is mapped in regions of {@code regionBytes} that are never remapped; a record that does
+ * not fit the current region starts a new one. An address is the region index in the high and
+ * the offset within the region in the low 32 bits. Texts are keyed by a 128-bit SHA-256 prefix
+ * so the text-to-vector map holds no text either.
+ * <p>
+ * A table holds a lock on its log until it is retired. Opening a table deletes the logs in the
+ * directory that nobody holds, which are left over from stores that were never closed, e.g.
+ * because the process died.
+ */
+final class MappedDocumentTable extends DocumentTable {
+
+    static final int DEFAULT_REGION_BYTES = 64 << 20;
+
+    private static final String PREFIX = "documents-";
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final int regionBytes;
+    private final Path path;
+    private final FileChannel channel;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+    private volatile String[] ids = new String[16];
+    private volatile long[] addresses = new long[16];
+    private long fileEnd;
+    private int position;
+    private int size;
+
+    MappedDocumentTable(Path directory) {
+        this(directory, DEFAULT_REGION_BYTES);
+    }
+
+    private MappedDocumentTable(Path directory, int regionBytes) {
+        this.directory = directory;
+        this.regionBytes = regionBytes;
+        // Serialized so a sweep never sees a log between its creation and its lock.
+        synchronized (MappedDocumentTable.class) {
+            try {
+                Files.createDirectories(directory);
+                sweep(directory);
+                // A fresh file per table, so stores sharing a directory never write into each other's log.
+                this.path = Files.createTempFile(directory, PREFIX, SUFFIX);
+                this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                channel.lock();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to create document log in " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * Delete the logs in {@code directory} that no table, in this process or another, holds.
+     */
+    private static void sweep(Path directory) throws IOException {
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path log : logs) {
+                try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    if (channel.tryLock() != null) {
+                        Files.deleteIfExists(log);
+                    }
+                } catch (OverlappingFileLockException | IOException e) {
+                    // Held by a table of this process, or not ours to delete.
+                }
+            }
+        }
+    }
+
+    @Override
+    void append(RagDocument document) {
+        byte[] text = document.getText() == null ? null : document.getText().getBytes(StandardCharsets.UTF_8);
+        byte[] metadata = encode(document.getMetadata());
+        int length = 8 + (text == null ? 0 : text.length) + (metadata == null ? 0 : metadata.length);
+        MappedByteBuffer[] current = regions;
+        if (current.length == 0 || position + length > current[current.length - 1].capacity()) {
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = map(Math.max(regionBytes, length));
+            position = 0;
+        }
+        ByteBuffer region = current[current.length - 1].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long address = ((long) (current.length - 1) << 32) | position;
+        region.position(position);
+        put(region, text);
+        put(region, metadata);
+        position = region.position();
+        regions = current;
+
+        String[] currentIds = ids;
+        long[] currentAddresses = addresses;
+        if (size == currentIds.length) {
+            currentIds = Arrays.copyOf(currentIds, size * 2);
+            currentAddresses = Arrays.copyOf(currentAddresses, size * 2);
+        }
+        currentIds[size] = document.getId();
+        currentAddresses[size] = address;
+        size++;
+        addresses = currentAddresses;
+        ids = currentIds;
+    }
+
+    private MappedByteBuffer map(int length) {
+        try {
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, fileEnd, length);
+            fileEnd += length;
+            return region;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to extend document log " + path, e);
+        }
+    }
+
+    private static void put(ByteBuffer region, byte[] bytes) {
+        region.putInt(bytes == null ? -1 : bytes.length);
+        if (bytes != null) {
+            region.put(bytes);
+        }
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    RagDocument get(int slot) {
+        ByteBuffer record = record(slot);
+        String text = readText(record);
+        byte[] metadata = readBytes(record);
+        Map<String, Object> decoded = null;
+        if (metadata != null) {
+            try {
+                decoded = objectMapper.readValue(metadata, new TypeReference<LinkedHashMap<String, Object>>() {
+                });
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to parse document metadata", e);
+            }
+        }
+        return RagDocument.builder().id(ids[slot]).text(text).metadata(decoded).build();
+    }
+
+    @Override
+    String id(int slot) {
+        return ids[slot];
+    }
+
+    @Override
+    String text(int slot) {
+        return readText(record(slot));
+    }
+
+    private ByteBuffer record(int slot) {
+        long address = addresses[slot];
+        ByteBuffer record = regions[(int) (address >>> 32)].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        record.position((int) address);
+        return record;
+    }
+
+    private static String readText(ByteBuffer record) {
+        byte[] bytes = readBytes(record);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Compares the JSON encoding, so values whose type JSON does not keep still compare equal
+     * to what was stored.
+     */
+    @Override
+    boolean sameMetadata(int slot, Map<String, Object> metadata) {
+        ByteBuffer record = record(slot);
+        readBytes(record);
+        return Arrays.equals(encode(metadata), readBytes(record));
+    }
+
+    private byte[] encode(Map<String, Object> metadata) {
+        try {
+            return metadata == null ? null : objectMapper.writeValueAsBytes(metadata);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to serialize document metadata", e);
+        }
+    }
+
+    @Override
+    Object contentKey(String text) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(digest);
+        return new ContentKey(buffer.getLong(), buffer.getLong());
+    }
+
+    @Override
+    DocumentTable create() {
+        return new MappedDocumentTable(directory, regionBytes);
+    }
+
+    /**
+     * Closes and deletes the log, releasing its lock. Mapped regions stay readable until they are
+     * garbage collected.
+     */
+    @Override
+    void retire() {
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Platforms that forbid deleting mapped files keep it until the process exits.
+            path.toFile().deleteOnExit();
+        }
+    }
+
+    private static final class ContentKey {
+        private final long high;
+        private final long low;
+
+        private ContentKey(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ContentKey)) {
+                return false;
+            }
+            ContentKey key = (ContentKey) other;
+            return high == key.high && low == key.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (high ^ (high >>> 32));
+        }
+    }
+}
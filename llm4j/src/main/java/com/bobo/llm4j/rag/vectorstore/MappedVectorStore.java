@@ -0,0 +1,757 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import com.bobo.llm4j.rag.embedding.EmbeddingModel;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Builder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Persistent vector store backed by memory-mapped segment files.
+ * <p>
+ * Every {@link #add} writes its vectors, ids, metadata and text into new immutable segment files
+ * and then commits a new {@code MANIFEST} listing the live segments and their deletion files.
+ * The manifest is written to a temporary file, forced to disk and atomically renamed, so a crash
+ * at any point leaves either the previous or the new commit; files not referenced by the
+ * manifest are removed on open. Segments are opened with {@link FileChannel#map}, so startup only
+ * reads the manifest and segment headers and the OS page cache keeps hot vectors resident.
+ * <p>
+ * Searches read an immutable snapshot without locking; writers are serialised. Deletes are
+ * recorded as per-segment deletion bitsets. Once more than {@code maxSegments} segments exist
+ * the newer half is merged, dropping deleted entries; {@link #compact()} merges everything.
+ * <p>
+ * Segment file layout (little endian): {@code magic, version, count, dimension} as ints, then
+ * {@code count * dimension} float vectors, {@code count} float norms, {@code count + 1} long record
+ * offsets, and per record the UTF-8 id, metadata JSON and text, each prefixed by its byte length.
+ */
+public class MappedVectorStore implements VectorStore {
+
+    public static final int DEFAULT_MAX_SEGMENTS = 32;
+
+    private static final int MAGIC = 0x4C344A56;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+    private static final int ESTIMATED_RECORD_OVERHEAD = 512;
+    private static final String MANIFEST = "MANIFEST";
+    private static final String MANIFEST_TMP = "MANIFEST.tmp";
+    private static final String SEGMENT_SUFFIX = ".vec";
+    private static final String DELETES_SUFFIX = ".del";
+
+    private final EmbeddingModel embeddingModel;
+    private final Path directory;
+    private final int maxSegments;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Object commitLock = new Object();
+    private volatile Snapshot snapshot;
+    private long generation;
+
+    public MappedVectorStore(EmbeddingModel embeddingModel, Path directory) {
+        this(embeddingModel, directory, DEFAULT_MAX_SEGMENTS);
+    }
+
+    @Builder
+    public MappedVectorStore(EmbeddingModel embeddingModel, Path directory, int maxSegments) {
+        if (embeddingModel == null) {
+            throw new IllegalArgumentException("embeddingModel must not be null");
+        }
+        if (directory == null) {
+            throw new IllegalArgumentException("directory must not be null");
+        }
+        this.embeddingModel = embeddingModel;
+        this.directory = directory;
+        this.maxSegments = maxSegments <= 0 ? DEFAULT_MAX_SEGMENTS : maxSegments;
+        try {
+            Files.createDirectories(directory);
+            this.snapshot = open();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open vector store at " + directory, e);
+        }
+    }
+
+    @Override
+    public void add(List<RagDocument> documents) {
+        if (documents == null || documents.isEmpty()) {
+            return;
+        }
+        List<String> texts = new ArrayList<String>(documents.size());
+        for (RagDocument doc : documents) {
+            texts.add(doc == null || doc.getText() == null ? "" : doc.getText());
+        }
+        List<float[]> vectors;
+        try {
+            vectors = embeddingModel.embedAllVectors(texts);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to embed documents", e);
+        }
+        List<RagDocument> accepted = new ArrayList<RagDocument>(documents.size());
+        List<float[]> values = new ArrayList<float[]>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            RagDocument doc = documents.get(i);
+            float[] vector = vectors.get(i);
+            if (doc == null || vector == null || vector.length == 0) {
+                continue;
+            }
+            accepted.add(doc);
+            values.add(vector);
+        }
+        append(accepted, values);
+    }
+
+    @Override
+    public boolean supportsPrecomputedEmbeddings() {
+        return true;
+    }
+
+    @Override
+    public void add(List<RagDocument> documents, List<float[]> embeddings) {
+        if (documents == null || documents.isEmpty()) {
+            return;
+        }
+        Vectors.checkAligned(documents, embeddings);
+        List<RagDocument> accepted = new ArrayList<RagDocument>(documents.size());
+        List<float[]> values = new ArrayList<float[]>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            RagDocument doc = documents.get(i);
+            float[] vector = embeddings.get(i);
+            if (doc == null || vector == null || vector.length == 0) {
+                continue;
+            }
+            accepted.add(doc);
+            values.add(vector);
+        }
+        append(accepted, values);
+    }
+
+    private void append(List<RagDocument> accepted, List<float[]> values) {
+        if (accepted.isEmpty()) {
+            return;
+        }
+        synchronized (commitLock) {
+            Snapshot current = snapshot;
+            checkDimension(current, values);
+            List<Segment> segments = new ArrayList<Segment>(current.segments);
+            List<BitSet> deletes = new ArrayList<BitSet>(current.deletes);
+            try {
+                for (Segment segment : writeSegments(accepted, values)) {
+                    segments.add(segment);
+                    deletes.add(new BitSet());
+                }
+                Snapshot next = new Snapshot(segments, deletes, current.deleteFiles(segments.size()));
+                commit(next);
+                if (next.segments.size() > maxSegments) {
+                    merge(maxSegments / 2);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write vector segment", e);
+            }
+        }
+    }
+
+    @Override
+    public List<List<RagDocument>> batchSimilaritySearch(List<SearchRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<float[]> embeddings = QueryEmbeddings.embedAll(embeddingModel, requests);
+        List<List<RagDocument>> results = new ArrayList<List<RagDocument>>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            results.add(search(requests.get(i), embeddings.get(i)));
+        }
+        return results;
+    }
+
+    @Override
+    public List<RagDocument> similaritySearch(SearchRequest request) {
+        if (request == null) {
+            return Collections.emptyList();
+        }
+        return search(request, QueryEmbeddings.embed(embeddingModel, request));
+    }
+
+    private List<RagDocument> search(SearchRequest request, float[] query) {
+        if (query == null || query.length == 0) {
+            return Collections.emptyList();
+        }
+        int topK = Math.max(request.getTopK(), 0);
+        Snapshot current = snapshot;
+        float queryNorm = Vectors.norm(query);
+        FilterExpression filter = FilterExpression.of(request);
+        TopKHeap best = new TopKHeap(Mmr.candidates(request));
+        for (int s = 0; s < current.segments.size(); s++) {
+            Segment segment = current.segments.get(s);
+            BitSet deleted = current.deletes.get(s);
+            int base = current.bases[s];
+            BitSet allowed = filter == null ? null : filter.resolve(segment.index(objectMapper), segment.count);
+            for (int slot = 0; slot < segment.count; slot++) {
+                if (deleted.get(slot) || (allowed != null && !allowed.get(slot))) {
+                    continue;
+                }
+                double score = segment.cosine(query, queryNorm, slot);
+                if (score >= request.getSimilarityThreshold()) {
+                    best.offer(base + slot, score);
+                }
+            }
+        }
+        double[] scores = new double[best.size()];
+        int[] ordinals = best.drainDescending(scores);
+        int[] order = new int[ordinals.length];
+        if (Mmr.enabled(request)) {
+            float[][] vectors = new float[ordinals.length][];
+            for (int i = 0; i < ordinals.length; i++) {
+                int s = current.segmentOf(ordinals[i]);
+                vectors[i] = current.segments.get(s).vector(ordinals[i] - current.bases[s]);
+            }
+            order = Mmr.select(scores, vectors, request.getMmrLambda(), topK);
+        } else {
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+        }
+        List<RagDocument> hits = new ArrayList<RagDocument>(order.length);
+        for (int i : order) {
+            int s = current.segmentOf(ordinals[i]);
+            Segment segment = current.segments.get(s);
+            RagDocument.RagDocumentBuilder hit = segment.document(ordinals[i] - current.bases[s], objectMapper)
+                    .toBuilder().score(scores[i]);
+            if (request.isIncludeEmbeddings()) {
+                hit.embedding(segment.vector(ordinals[i] - current.bases[s]));
+            }
+            hits.add(hit.build());
+        }
+        return hits;
+    }
+
+    @Override
+    public void deleteByMetadata(String key, Object value) {
+        if (key == null || key.trim().isEmpty()) {
+            return;
+        }
+        synchronized (commitLock) {
+            Snapshot current = snapshot;
+            List<BitSet> deletes = new ArrayList<BitSet>(current.deletes);
+            String[] deleteFiles = current.deleteFiles(current.segments.size());
+            boolean changed = false;
+            try {
+                for (int s = 0; s < current.segments.size(); s++) {
+                    Segment segment = current.segments.get(s);
+                    BitSet matches = FilterExpression.eq(key, value).resolve(segment.index(objectMapper), segment.count);
+                    matches.andNot(deletes.get(s));
+                    if (!matches.isEmpty()) {
+                        BitSet updated = (BitSet) deletes.get(s).clone();
+                        updated.or(matches);
+                        deletes.set(s, updated);
+                        deleteFiles[s] = segment.name + "." + (++generation) + DELETES_SUFFIX;
+                        writeDeletes(directory.resolve(deleteFiles[s]), updated);
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    commit(new Snapshot(current.segments, deletes, deleteFiles));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write deletions", e);
+            }
+        }
+    }
+
+    /**
+     * Merge all segments into a single one without deleted entries.
+     */
+    public void compact() {
+        synchronized (commitLock) {
+            try {
+                merge(0);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to compact vector store", e);
+            }
+        }
+    }
+
+    /**
+     * Number of live (not deleted) entries.
+     */
+    public int size() {
+        Snapshot current = snapshot;
+        int size = 0;
+        for (int s = 0; s < current.segments.size(); s++) {
+            size += current.segments.get(s).count - current.deletes.get(s).cardinality();
+        }
+        return size;
+    }
+
+    /**
+     * Rewrite the segments from index {@code from} onwards, dropping deleted entries. Newer
+     * segments are the small ones, so merging the tail keeps the rewrite cost proportional to
+     * recent writes rather than to the whole store.
+     */
+    private void merge(int from) throws IOException {
+        Snapshot current = snapshot;
+        List<RagDocument> documents = new ArrayList<RagDocument>();
+        List<float[]> vectors = new ArrayList<float[]>();
+        for (int s = from; s < current.segments.size(); s++) {
+            Segment segment = current.segments.get(s);
+            for (int slot = 0; slot < segment.count; slot++) {
+                if (!current.deletes.get(s).get(slot)) {
+                    documents.add(segment.document(slot, objectMapper));
+                    vectors.add(segment.vector(slot));
+                }
+            }
+        }
+        List<Segment> segments = new ArrayList<Segment>(current.segments.subList(0, from));
+        List<BitSet> deletes = new ArrayList<BitSet>(current.deletes.subList(0, from));
+        for (Segment segment : writeSegments(documents, vectors)) {
+            segments.add(segment);
+            deletes.add(new BitSet());
+        }
+        String[] deleteFiles = new String[segments.size()];
+        System.arraycopy(current.deleteFiles, 0, deleteFiles, 0, from);
+        commit(new Snapshot(segments, deletes, deleteFiles));
+    }
+
+    /**
+     * Write the entries into as many new segment files as needed to keep each one mappable.
+     */
+    private List<Segment> writeSegments(List<RagDocument> documents, List<float[]> vectors) throws IOException {
+        List<Segment> segments = new ArrayList<Segment>();
+        int from = 0;
+        while (from < documents.size()) {
+            int to = from;
+            long bytes = HEADER_BYTES;
+            while (to < documents.size() && (to == from || bytes < MAX_SEGMENT_BYTES)) {
+                RagDocument doc = documents.get(to);
+                int textLength = doc.getText() == null ? 0 : doc.getText().length();
+                bytes += 4L * (vectors.get(to).length + 1) + 8 + 3L * textLength + ESTIMATED_RECORD_OVERHEAD;
+                to++;
+            }
+            String name = segmentName(++generation);
+            writeSegment(directory.resolve(name), documents.subList(from, to), vectors.subList(from, to));
+            segments.add(Segment.open(name, directory.resolve(name)));
+            from = to;
+        }
+        return segments;
+    }
+
+    private void checkDimension(Snapshot current, List<float[]> values) {
+        int dimension = current.segments.isEmpty() ? values.get(0).length : current.segments.get(0).dimension;
+        for (float[] vector : values) {
+            if (vector.length != dimension) {
+                throw new IllegalArgumentException("Embedding dimension mismatch, expected "
+                        + dimension + " but was " + vector.length);
+            }
+        }
+    }
+
+    /**
+     * Write the manifest for {@code next}, atomically replace the previous one, publish the
+     * snapshot and remove files the new manifest no longer references.
+     */
+    private void commit(Snapshot next) throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        manifest.append("version ").append(VERSION).append('\n');
+        manifest.append("generation ").append(generation).append('\n');
+        for (int s = 0; s < next.segments.size(); s++) {
+            manifest.append("segment ").append(next.segments.get(s).name).append(' ')
+                    .append(next.deleteFiles[s] == null ? "-" : next.deleteFiles[s]).append('\n');
+        }
+        Path tmp = directory.resolve(MANIFEST_TMP);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(manifest.toString().getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+        Files.move(tmp, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+        snapshot = next;
+        removeUnreferenced(next);
+    }
+
+    private Snapshot open() throws IOException {
+        Path manifestPath = directory.resolve(MANIFEST);
+        Snapshot opened;
+        if (!Files.exists(manifestPath)) {
+            opened = new Snapshot(new ArrayList<Segment>(), new ArrayList<BitSet>(), new String[0]);
+        } else {
+            List<Segment> segments = new ArrayList<Segment>();
+            List<BitSet> deletes = new ArrayList<BitSet>();
+            List<String> deleteFiles = new ArrayList<String>();
+            for (String line : Files.readAllLines(manifestPath, StandardCharsets.UTF_8)) {
+                String[] parts = line.trim().split(" ");
+                if (parts.length == 2 && "version".equals(parts[0]) && Integer.parseInt(parts[1]) != VERSION) {
+                    throw new IOException("Unsupported manifest version " + parts[1]);
+                } else if (parts.length == 2 && "generation".equals(parts[0])) {
+                    generation = Long.parseLong(parts[1]);
+                } else if (parts.length == 3 && "segment".equals(parts[0])) {
+                    segments.add(Segment.open(parts[1], directory.resolve(parts[1])));
+                    boolean hasDeletes = !"-".equals(parts[2]);
+                    deletes.add(hasDeletes ? readDeletes(directory.resolve(parts[2])) : new BitSet());
+                    deleteFiles.add(hasDeletes ? parts[2] : null);
+                }
+            }
+            opened = new Snapshot(segments, deletes, deleteFiles.toArray(new String[0]));
+        }
+        Files.deleteIfExists(directory.resolve(MANIFEST_TMP));
+        removeUnreferenced(opened);
+        return opened;
+    }
+
+    private void removeUnreferenced(Snapshot live) throws IOException {
+        Set<String> referenced = new HashSet<String>();
+        for (int s = 0; s < live.segments.size(); s++) {
+            referenced.add(live.segments.get(s).name);
+            if (live.deleteFiles[s] != null) {
+                referenced.add(live.deleteFiles[s]);
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                boolean ours = name.endsWith(SEGMENT_SUFFIX) || name.endsWith(DELETES_SUFFIX);
+                if (ours && !referenced.contains(name)) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        // Still mapped on platforms that forbid deleting mapped files; retried on next open.
+                    }
+                }
+            }
+        }
+    }
+
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on every platform; the rename itself is still atomic.
+        }
+    }
+
+    private void writeSegment(Path path, List<RagDocument> documents, List<float[]> vectors) throws IOException {
+        int count = documents.size();
+        int dimension = vectors.get(0).length;
+        List<byte[][]> records = new ArrayList<byte[][]>(count);
+        for (RagDocument doc : documents) {
+            Map<String, Object> metadata = doc.getMetadata() == null
+                    ? new LinkedHashMap<String, Object>() : doc.getMetadata();
+            records.add(new byte[][]{
+                    utf8(doc.getId()),
+                    objectMapper.writeValueAsBytes(metadata),
+                    utf8(doc.getText())});
+        }
+        long recordsStart = HEADER_BYTES + 4L * count * (dimension + 1) + 8L * (count + 1);
+        long end = recordsStart;
+        for (byte[][] record : records) {
+            end += recordLength(record);
+        }
+        if (end > Integer.MAX_VALUE) {
+            throw new IOException("Segment exceeds the mappable size limit: " + end + " bytes");
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChannelWriter writer = new ChannelWriter(channel);
+            writer.putInt(MAGIC);
+            writer.putInt(VERSION);
+            writer.putInt(count);
+            writer.putInt(dimension);
+            for (float[] vector : vectors) {
+                for (float v : vector) {
+                    writer.putFloat(v);
+                }
+            }
+            for (float[] vector : vectors) {
+                writer.putFloat(Vectors.norm(vector));
+            }
+            long offset = recordsStart;
+            for (byte[][] record : records) {
+                writer.putLong(offset);
+                offset += recordLength(record);
+            }
+            writer.putLong(offset);
+            for (byte[][] record : records) {
+                for (byte[] field : record) {
+                    writer.putInt(field == null ? -1 : field.length);
+                    if (field != null) {
+                        writer.put(field);
+                    }
+                }
+            }
+            writer.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeDeletes(Path path, BitSet deleted) throws IOException {
+        long[] words = deleted.toLongArray();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChannelWriter writer = new ChannelWriter(channel);
+            writer.putInt(words.length);
+            for (long word : words) {
+                writer.putLong(word);
+            }
+            writer.flush();
+            channel.force(true);
+        }
+    }
+
+    private static BitSet readDeletes(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        long[] words = new long[buffer.getInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = buffer.getLong();
+        }
+        return BitSet.valueOf(words);
+    }
+
+    private static String segmentName(long generation) {
+        return String.format("segment-%08d%s", generation, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * UTF-8 bytes of the value; {@code null} is kept and written as length -1.
+     */
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long recordLength(byte[][] record) {
+        long length = 0L;
+        for (byte[] field : record) {
+            length += 4 + (field == null ? 0 : field.length);
+        }
+        return length;
+    }
+
+    private static final class Snapshot {
+        private final List<Segment> segments;
+        private final List<BitSet> deletes;
+        private final String[] deleteFiles;
+        private final int[] bases;
+
+        private Snapshot(List<Segment> segments, List<BitSet> deletes, String[] deleteFiles) {
+            this.segments = Collections.unmodifiableList(segments);
+            this.deletes = Collections.unmodifiableList(deletes);
+            this.deleteFiles = deleteFiles;
+            this.bases = new int[segments.size()];
+            int base = 0;
+            for (int s = 0; s < segments.size(); s++) {
+                bases[s] = base;
+                base += segments.get(s).count;
+            }
+        }
+
+        private String[] deleteFiles(int length) {
+            return Arrays.copyOf(deleteFiles, length);
+        }
+
+        private int segmentOf(int ordinal) {
+            int index = Arrays.binarySearch(bases, ordinal);
+            if (index >= 0) {
+                while (index + 1 < bases.length && bases[index + 1] == ordinal) {
+                    index++;
+                }
+                return index;
+            }
+            return -index - 2;
+        }
+    }
+
+    /**
+     * Read-only view of one mapped segment file. Metadata stays in the mapping; the first filter
+     * against the segment decodes it once into a {@link MetadataIndex} of postings bitsets.
+     */
+    private static final class Segment {
+        private final String name;
+        private final ByteBuffer buffer;
+        private final FloatBuffer floats;
+        private final int count;
+        private final int dimension;
+        private final long offsetsStart;
+        private volatile MetadataIndex index;
+
+        private Segment(String name, ByteBuffer buffer, int count, int dimension) {
+            this.name = name;
+            this.buffer = buffer;
+            this.count = count;
+            this.dimension = dimension;
+            this.offsetsStart = HEADER_BYTES + 4L * count * (dimension + 1);
+            ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            view.position(HEADER_BYTES);
+            this.floats = view.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        }
+
+        private static Segment open(String name, Path path) throws IOException {
+            MappedByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a vector segment file: " + path);
+            }
+            return new Segment(name, buffer, buffer.getInt(8), buffer.getInt(12));
+        }
+
+        private double cosine(float[] query, float queryNorm, int slot) {
+            float norm = floats.get(count * dimension + slot);
+            if (queryNorm == 0f || norm == 0f) {
+                return 0d;
+            }
+            int offset = slot * dimension;
+            int len = Math.min(query.length, dimension);
+            double dot = 0d;
+            for (int i = 0; i < len; i++) {
+                dot += query[i] * floats.get(offset + i);
+            }
+            return dot / ((double) queryNorm * norm);
+        }
+
+        private float[] vector(int slot) {
+            float[] vector = new float[dimension];
+            int offset = slot * dimension;
+            for (int i = 0; i < dimension; i++) {
+                vector[i] = floats.get(offset + i);
+            }
+            return vector;
+        }
+
+        private MetadataIndex index(ObjectMapper objectMapper) {
+            MetadataIndex current = index;
+            if (current == null) {
+                synchronized (this) {
+                    current = index;
+                    if (current == null) {
+                        current = new MetadataIndex();
+                        for (int slot = 0; slot < count; slot++) {
+                            current.add(slot, metadata(slot, objectMapper));
+                        }
+                        index = current;
+                    }
+                }
+            }
+            return current;
+        }
+
+        private Map<String, Object> metadata(int slot, ObjectMapper objectMapper) {
+            long position = recordStart(slot);
+            position = next(position);
+            return readMetadata(position, objectMapper);
+        }
+
+        private RagDocument document(int slot, ObjectMapper objectMapper) {
+            long position = recordStart(slot);
+            String id = readString(position);
+            position = next(position);
+            Map<String, Object> metadata = readMetadata(position, objectMapper);
+            position = next(position);
+            String text = readString(position);
+            return RagDocument.builder().id(id).text(text).metadata(metadata).build();
+        }
+
+        private long recordStart(int slot) {
+            return buffer.getLong((int) (offsetsStart + 8L * slot));
+        }
+
+        private long next(long position) {
+            return position + 4 + Math.max(buffer.getInt((int) position), 0);
+        }
+
+        private String readString(long position) {
+            int length = buffer.getInt((int) position);
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position((int) position + 4);
+            view.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private Map<String, Object> readMetadata(long position, ObjectMapper objectMapper) {
+            int length = buffer.getInt((int) position);
+            byte[] bytes = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position((int) position + 4);
+            view.get(bytes);
+            try {
+                return objectMapper.readValue(bytes, new TypeReference<LinkedHashMap<String, Object>>() {
+                });
+            } catch (IOException e) {
+                throw new RuntimeException("Corrupt metadata in segment " + name, e);
+            }
+        }
+    }
+
+    /**
+     * Little-endian buffered writer over a file channel.
+     */
+    private static final class ChannelWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+        private ChannelWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        private void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        private void putFloat(float value) throws IOException {
+            ensure(4);
+            buffer.putFloat(value);
+        }
+
+        private void put(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.remaining()) {
+                flush();
+                if (bytes.length > buffer.capacity()) {
+                    ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+                    while (wrapped.hasRemaining()) {
+                        channel.write(wrapped);
+                    }
+                    return;
+                }
+            }
+            buffer.put(bytes);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
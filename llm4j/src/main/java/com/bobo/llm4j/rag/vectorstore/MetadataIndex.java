@@ -0,0 +1,176 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inverted index from metadata values to the slots whose document carries them.
+ * <p>
+ * Each {@code key -> value} pair owns a postings bitset, so a {@link FilterExpression} resolves to
+ * a candidate bitset with a few word-wise operations instead of a walk over every document's
+ * metadata. Postings are append-only: deleted slots stay set and are masked by the store's own
+ * tombstones. A single writer may add while other threads resolve filters for slots that were
+ * published to them through a happens-before edge.
+ * <p>
+ * Numbers are indexed by value (see {@link #normalize}), so {@code 7}, {@code 7L} and
+ * {@code 7.0} find the same postings.
+ */
+final class MetadataIndex {
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Object, Postings>> postings =
+            new ConcurrentHashMap<String, ConcurrentHashMap<Object, Postings>>();
+
+    void add(int slot, Map<String, Object> metadata) {
+        if (metadata == null) {
+            return;
+        }
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                continue;
+            }
+            ConcurrentHashMap<Object, Postings> values = postings.get(entry.getKey());
+            if (values == null) {
+                values = new ConcurrentHashMap<Object, Postings>();
+                postings.put(entry.getKey(), values);
+            }
+            Object value = normalize(entry.getValue());
+            Postings list = values.get(value);
+            if (list == null) {
+                list = new Postings();
+                values.put(value, list);
+            }
+            list.set(slot);
+        }
+    }
+
+    /**
+     * Slots below {@code size} whose {@code key} entry equals {@code value}.
+     */
+    BitSet postings(String key, Object value, int size) {
+        ConcurrentHashMap<Object, Postings> values = key == null ? null : postings.get(key);
+        Postings list = values == null || value == null ? null : values.get(normalize(value));
+        return list == null ? new BitSet() : list.toBitSet(size);
+    }
+
+    /**
+     * Slots below {@code size} with a non-null {@code key} entry.
+     */
+    BitSet present(String key, int size) {
+        BitSet result = new BitSet();
+        ConcurrentHashMap<Object, Postings> values = key == null ? null : postings.get(key);
+        if (values != null) {
+            for (Postings list : values.values()) {
+                result.or(list.toBitSet(size));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Distinct non-null values seen for {@code key}, including values of deleted slots.
+     */
+    Set<Object> values(String key) {
+        ConcurrentHashMap<Object, Postings> values = key == null ? null : postings.get(key);
+        return values == null ? Collections.<Object>emptySet() : values.keySet();
+    }
+
+    /**
+     * Copy the postings of {@code source} slots in {@code [from, to)} to slot {@code remap[slot]}
+     * of this index, skipping slots mapped to a negative value. Values keep the exact form they
+     * were indexed with, so a compaction does not depend on how the documents are stored.
+     */
+    void copy(MetadataIndex source, int[] remap, int from, int to) {
+        for (Map.Entry<String, ConcurrentHashMap<Object, Postings>> key : source.postings.entrySet()) {
+            ConcurrentHashMap<Object, Postings> values = null;
+            for (Map.Entry<Object, Postings> value : key.getValue().entrySet()) {
+                long[] words = value.getValue().words;
+                Postings target = null;
+                for (int word = from >>> 6; word < words.length && word << 6 < to; word++) {
+                    for (long bits = words[word]; bits != 0; bits &= bits - 1) {
+                        int slot = (word << 6) + Long.numberOfTrailingZeros(bits);
+                        if (slot < from || slot >= to || remap[slot] < 0) {
+                            continue;
+                        }
+                        if (target == null) {
+                            if (values == null) {
+                                values = postings.get(key.getKey());
+                                if (values == null) {
+                                    values = new ConcurrentHashMap<Object, Postings>();
+                                    postings.put(key.getKey(), values);
+                                }
+                            }
+                            target = values.get(value.getKey());
+                            if (target == null) {
+                                target = new Postings();
+                                values.put(value.getKey(), target);
+                            }
+                        }
+                        target.set(remap[slot]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Canonical form for equality: integral numbers become {@link Long}, other numbers
+     * {@link Double}, so metadata compares numbers by value whatever boxed type or JSON decoding
+     * produced them. Other values are returned as is.
+     */
+    static Object normalize(Object value) {
+        if (!(value instanceof Number)) {
+            return value;
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof BigInteger && ((BigInteger) value).bitLength() >= 64) {
+            return value;
+        }
+        if (value instanceof BigDecimal) {
+            BigDecimal decimal = ((BigDecimal) value).stripTrailingZeros();
+            if (decimal.scale() > 0 || decimal.precision() - decimal.scale() > 18) {
+                return decimal.doubleValue();
+            }
+            return decimal.longValueExact();
+        }
+        double number = ((Number) value).doubleValue();
+        if (number == Math.rint(number) && !Double.isInfinite(number) && Math.abs(number) < 0x1p63) {
+            return (long) number;
+        }
+        return number;
+    }
+
+    /**
+     * Append-only bitset whose word array is replaced copy-on-write when it grows.
+     */
+    private static final class Postings {
+        private volatile long[] words = new long[1];
+
+        void set(int slot) {
+            int index = slot >>> 6;
+            long[] current = words;
+            if (index >= current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length * 2, index + 1));
+            }
+            current[index] |= 1L << slot;
+            words = current;
+        }
+
+        BitSet toBitSet(int size) {
+            long[] current = words;
+            int count = Math.min(current.length, (size + 63) >>> 6);
+            long[] copy = Arrays.copyOf(current, count);
+            if (count > 0 && (size & 63) != 0 && count == (size + 63) >>> 6) {
+                copy[count - 1] &= (1L << size) - 1;
+            }
+            return BitSet.valueOf(copy);
+        }
+    }
+}
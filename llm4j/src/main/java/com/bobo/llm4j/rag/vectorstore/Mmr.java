@@ -0,0 +1,75 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+/**
+ * Maximal marginal relevance selection over candidates a store has already scored. The stores
+ * pass the stored vectors of their candidates, so re-ranking costs no embedding call.
+ */
+final class Mmr {
+
+    private Mmr() {
+    }
+
+    static boolean enabled(SearchRequest request) {
+        return request.getMmrLambda() != null;
+    }
+
+    /**
+     * Candidates to fetch so that MMR has {@code mmrCandidateMultiplier} per requested hit.
+     */
+    static int candidates(SearchRequest request) {
+        int topK = Math.max(request.getTopK(), 0);
+        if (!enabled(request)) {
+            return topK;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, (long) topK * Math.max(1, request.getMmrCandidateMultiplier()));
+    }
+
+    /**
+     * Greedily pick up to {@code topK} candidates, each maximising
+     * {@code lambda * relevance - (1 - lambda) * max similarity to the ones picked before}.
+     *
+     * @return candidate indices in pick order
+     */
+    static int[] select(double[] relevance, float[][] vectors, double lambda, int topK) {
+        int count = relevance.length;
+        int limit = Math.min(Math.max(topK, 0), count);
+        double weight = Math.max(0d, Math.min(1d, lambda));
+        float[] norms = new float[count];
+        double[] redundancy = new double[count];
+        boolean[] picked = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            norms[i] = Vectors.norm(vectors[i]);
+            redundancy[i] = Double.NEGATIVE_INFINITY;
+        }
+        int[] order = new int[limit];
+        for (int n = 0; n < limit; n++) {
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                if (picked[i]) {
+                    continue;
+                }
+                double score = n == 0 ? relevance[i] : weight * relevance[i] - (1d - weight) * redundancy[i];
+                if (best < 0 || score > bestScore) {
+                    best = i;
+                    bestScore = score;
+                }
+            }
+            picked[best] = true;
+            order[n] = best;
+            for (int i = 0; i < count; i++) {
+                if (!picked[i]) {
+                    redundancy[i] = Math.max(redundancy[i], similarity(vectors[i], norms[i], vectors[best], norms[best]));
+                }
+            }
+        }
+        return order;
+    }
+
+    private static double similarity(float[] left, float leftNorm, float[] right, float rightNorm) {
+        if (leftNorm == 0f || rightNorm == 0f) {
+            return 0d;
+        }
+        return Vectors.dot(left, right) / ((double) leftNorm * rightNorm);
+    }
+}
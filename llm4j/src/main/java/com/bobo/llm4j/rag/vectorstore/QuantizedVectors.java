@@ -0,0 +1,46 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import java.util.List;
+
+/**
+ * Compressed copy of the vectors in a store, addressed by the same slots as its
+ * {@link VectorArena}, used for a cheap approximate first pass over the corpus. Like the arena,
+ * it is append-only and may be read concurrently with a single writer.
+ */
+abstract class QuantizedVectors {
+
+    private int trainingSize;
+
+    static QuantizedVectors create(VectorQuantization quantization, List<float[]> trainingVectors) {
+        QuantizedVectors quantized;
+        if (quantization == VectorQuantization.INT8) {
+            quantized = new Int8QuantizedVectors(ScalarQuantizer.train(trainingVectors));
+        } else if (quantization == VectorQuantization.BINARY) {
+            quantized = BinaryQuantizedVectors.train(trainingVectors);
+        } else {
+            throw new IllegalArgumentException("Unsupported quantization: " + quantization);
+        }
+        quantized.trainingSize = trainingVectors.size();
+        return quantized;
+    }
+
+    /**
+     * Vectors the codes were trained on.
+     */
+    int trainingSize() {
+        return trainingSize;
+    }
+
+    abstract void append(float[] vector);
+
+    abstract int size();
+
+    /**
+     * Prepare a scorer for one query. Scores are only meaningful relative to each other.
+     */
+    abstract Scorer scorer(float[] query, float queryNorm, VectorArena arena);
+
+    interface Scorer {
+        double score(int slot);
+    }
+}
@@ -0,0 +1,66 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import com.bobo.llm4j.rag.embedding.EmbeddingModel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Embeds the queries of a search, a batch with a single {@link EmbeddingModel#embedAllVectors} call.
+ */
+final class QueryEmbeddings {
+
+    private QueryEmbeddings() {
+    }
+
+    /**
+     * The request's precomputed query embedding, else the query embedded by the model;
+     * {@code null} for a request without either.
+     */
+    static float[] embed(EmbeddingModel embeddingModel, SearchRequest request) {
+        if (request.getQueryEmbedding() != null) {
+            return request.getQueryEmbedding();
+        }
+        if (request.getQuery() == null || request.getQuery().isEmpty()) {
+            return null;
+        }
+        try {
+            return embeddingModel.embedVector(request.getQuery());
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to embed query", e);
+        }
+    }
+
+    /**
+     * One embedding per request, in order; {@code null} for requests without a query. Requests
+     * carrying a precomputed embedding are not sent to the model.
+     */
+    static List<float[]> embedAll(EmbeddingModel embeddingModel, List<SearchRequest> requests) {
+        List<float[]> embeddings = new ArrayList<float[]>(requests.size());
+        List<String> texts = new ArrayList<String>(requests.size());
+        List<Integer> positions = new ArrayList<Integer>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            embeddings.add(null);
+            SearchRequest request = requests.get(i);
+            if (request != null && request.getQueryEmbedding() != null) {
+                embeddings.set(i, request.getQueryEmbedding());
+            } else if (request != null && request.getQuery() != null && !request.getQuery().isEmpty()) {
+                texts.add(request.getQuery());
+                positions.add(i);
+            }
+        }
+        if (texts.isEmpty()) {
+            return embeddings;
+        }
+        List<float[]> vectors;
+        try {
+            vectors = embeddingModel.embedAllVectors(texts);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to embed query", e);
+        }
+        for (int i = 0; i < positions.size(); i++) {
+            embeddings.set(positions.get(i), vectors.get(i));
+        }
+        return embeddings;
+    }
+}
@@ -0,0 +1,74 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-dimension affine int8 quantizer: {@code x ~= offset + scale * (code + 128)}.
+ * <p>
+ * Ranges are learned from a training batch; values outside the learned range are clamped.
+ */
+final class ScalarQuantizer {
+
+    private final float[] offsets;
+    private final float[] scales;
+
+    private ScalarQuantizer(float[] offsets, float[] scales) {
+        this.offsets = offsets;
+        this.scales = scales;
+    }
+
+    static ScalarQuantizer train(List<float[]> vectors) {
+        int dimension = vectors.get(0).length;
+        float[] min = new float[dimension];
+        float[] max = new float[dimension];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+        for (float[] vector : vectors) {
+            for (int i = 0; i < dimension; i++) {
+                min[i] = Math.min(min[i], vector[i]);
+                max[i] = Math.max(max[i], vector[i]);
+            }
+        }
+        float[] scales = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            float range = max[i] - min[i];
+            scales[i] = range > 0f ? range / 255f : 1f;
+        }
+        return new ScalarQuantizer(min, scales);
+    }
+
+    int dimension() {
+        return offsets.length;
+    }
+
+    void encode(float[] vector, byte[] target, int offset) {
+        for (int i = 0; i < offsets.length; i++) {
+            int code = Math.round((vector[i] - offsets[i]) / scales[i]);
+            code = Math.max(0, Math.min(255, code));
+            target[offset + i] = (byte) (code - 128);
+        }
+    }
+
+    /**
+     * Query coefficients {@code q[i] * scale[i]}; the approximate dot product with an encoded
+     * vector is {@link #queryBase} plus the sum of coefficient times code.
+     */
+    float[] scaledQuery(float[] query) {
+        float[] scaled = new float[offsets.length];
+        int len = Math.min(query.length, offsets.length);
+        for (int i = 0; i < len; i++) {
+            scaled[i] = query[i] * scales[i];
+        }
+        return scaled;
+    }
+
+    double queryBase(float[] query) {
+        double base = 0d;
+        int len = Math.min(query.length, offsets.length);
+        for (int i = 0; i < len; i++) {
+            base += query[i] * (offsets[i] + 128f * scales[i]);
+        }
+        return base;
+    }
+}
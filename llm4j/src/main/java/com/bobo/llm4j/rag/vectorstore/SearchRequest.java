@@ -15,6 +15,7 @@ public class SearchRequest {
 
     public static final double SIMILARITY_THRESHOLD_ACCEPT_ALL = 0.0d;
     public static final int DEFAULT_TOP_K = 4;
+    public static final int DEFAULT_MMR_CANDIDATE_MULTIPLIER = 4;
 
     @Builder.Default
     private String query = "";
@@ -30,5 +31,34 @@ public class SearchRequest {
      */
     @Builder.Default
     private Map<String, Object> metadataFilters = new LinkedHashMap<String, Object>();
+
+    /**
+     * Optional filter expression, combined with {@link #metadataFilters} by conjunction.
+     */
+    private FilterExpression filterExpression;
+
+    /**
+     * Enables maximal marginal relevance re-ranking when set: the weight of query similarity
+     * against dissimilarity to the hits already picked, in {@code [0, 1]}. {@code 1} ranks by
+     * similarity alone; lower values trade relevance for diversity.
+     */
+    private Double mmrLambda;
+
+    /**
+     * Candidates fetched per requested hit for MMR to choose from.
+     */
+    @Builder.Default
+    private int mmrCandidateMultiplier = DEFAULT_MMR_CANDIDATE_MULTIPLIER;
+
+    /**
+     * Precomputed embedding of {@link #query}; stores use it instead of calling their embedding
+     * model, e.g. when a composite store has already embedded the query once for all its parts.
+     */
+    private float[] queryEmbedding;
+
+    /**
+     * Return each hit's stored vector in {@link com.bobo.llm4j.rag.document.RagDocument#getEmbedding()}.
+     */
+    private boolean includeEmbeddings;
 }
 
@@ -0,0 +1,399 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import com.bobo.llm4j.rag.embedding.EmbeddingModel;
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scatter-gather store that partitions documents across child stores.
+ * <p>
+ * A document goes to the shard picked by hashing its {@code shardKey} metadata value, or its id
+ * when no key is configured, so re-adding a document reaches the shard that holds it. Shards
+ * are any {@link VectorStore}: in-process, memory-mapped, or a client for a remote index.
+ * <p>
+ * With an {@code embeddingModel} the query is embedded once here and handed to every shard as
+ * {@link SearchRequest#getQueryEmbedding()}; without one each shard embeds it itself. Searches
+ * run on every shard concurrently and the partial top-K lists are merged by score, MMR requests
+ * re-ranked once over the merged candidates. A shard that has not answered within
+ * {@code shardTimeoutMillis} of the start of the search is interrupted and left out of the
+ * result, which is logged and counted in {@link #getPartialSearchCount()}; a shard that fails
+ * fails the search. When the metadata filters of a request pin {@code shardKey}, only the owning
+ * shard is asked. Writes and deletes wait for every shard.
+ */
+@Slf4j
+public class ShardedVectorStore implements VectorStore {
+
+    public static final long DEFAULT_SHARD_TIMEOUT_MILLIS = 10000L;
+    public static final int DEFAULT_THREADS_PER_SHARD = 2;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private final List<VectorStore> shards;
+    private final String shardKey;
+    private final EmbeddingModel embeddingModel;
+    private final Executor executor;
+    private final long shardTimeoutMillis;
+    private final AtomicLong partialSearches = new AtomicLong();
+
+    public ShardedVectorStore(List<VectorStore> shards) {
+        this(shards, null, null, null, 0L);
+    }
+
+    /**
+     * @param shardKey           metadata key whose value picks the shard; document ids if {@code null}
+     * @param embeddingModel     embeds queries once for all shards; each shard embeds if {@code null}
+     * @param executor           runs the per-shard calls; defaults to a bounded pool of
+     *                           {@value #DEFAULT_THREADS_PER_SHARD} daemon threads per shard
+     * @param shardTimeoutMillis deadline for every shard to answer a search
+     */
+    @Builder
+    public ShardedVectorStore(List<VectorStore> shards, String shardKey, EmbeddingModel embeddingModel,
+                              Executor executor, long shardTimeoutMillis) {
+        if (shards == null || shards.isEmpty()) {
+            throw new IllegalArgumentException("shards must not be empty");
+        }
+        for (VectorStore shard : shards) {
+            if (shard == null) {
+                throw new IllegalArgumentException("shards must not contain null");
+            }
+        }
+        this.shards = new ArrayList<VectorStore>(shards);
+        this.shardKey = shardKey;
+        this.embeddingModel = embeddingModel;
+        this.executor = executor == null ? defaultExecutor(shards.size()) : executor;
+        this.shardTimeoutMillis = shardTimeoutMillis > 0 ? shardTimeoutMillis : DEFAULT_SHARD_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * Shard calls block on I/O or on a shard's own embedding call, so they get threads of their
+     * own rather than the common pool. Idle threads exit; a full queue rejects the search.
+     */
+    private static ExecutorService defaultExecutor(int shardCount) {
+        final AtomicInteger threads = new AtomicInteger();
+        int size = shardCount * DEFAULT_THREADS_PER_SHARD;
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(DEFAULT_QUEUE_CAPACITY), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "vector-shard-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    public List<VectorStore> getShards() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    /**
+     * Searches answered without every shard they were sent to, because one missed the deadline.
+     */
+    public long getPartialSearchCount() {
+        return partialSearches.get();
+    }
+
+    @Override
+    public void add(final List<RagDocument> documents) {
+        if (documents == null || documents.isEmpty()) {
+            return;
+        }
+        final List<List<Integer>> partitions = partition(documents);
+        List<FutureTask<Void>> writes = new ArrayList<FutureTask<Void>>();
+        for (int s = 0; s < shards.size(); s++) {
+            if (partitions.get(s).isEmpty()) {
+                continue;
+            }
+            final VectorStore shard = shards.get(s);
+            final List<RagDocument> part = select(documents, partitions.get(s));
+            writes.add(submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    shard.add(part);
+                    return null;
+                }
+            }));
+        }
+        awaitAll(writes);
+    }
+
+    @Override
+    public boolean supportsPrecomputedEmbeddings() {
+        for (VectorStore shard : shards) {
+            if (!shard.supportsPrecomputedEmbeddings()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void add(List<RagDocument> documents, List<float[]> embeddings) {
+        if (documents == null || documents.isEmpty()) {
+            return;
+        }
+        Vectors.checkAligned(documents, embeddings);
+        List<List<Integer>> partitions = partition(documents);
+        List<FutureTask<Void>> writes = new ArrayList<FutureTask<Void>>();
+        for (int s = 0; s < shards.size(); s++) {
+            if (partitions.get(s).isEmpty()) {
+                continue;
+            }
+            final VectorStore shard = shards.get(s);
+            final List<RagDocument> part = select(documents, partitions.get(s));
+            final List<float[]> vectors = select(embeddings, partitions.get(s));
+            writes.add(submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    shard.add(part, vectors);
+                    return null;
+                }
+            }));
+        }
+        awaitAll(writes);
+    }
+
+    @Override
+    public List<RagDocument> similaritySearch(SearchRequest request) {
+        if (request == null) {
+            return Collections.emptyList();
+        }
+        if (embeddingModel != null) {
+            request = request.toBuilder().queryEmbedding(QueryEmbeddings.embed(embeddingModel, request)).build();
+        }
+        final SearchRequest shardRequest = Hits.candidates(request);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shardTimeoutMillis);
+        int pinned = pinnedShard(request);
+        List<Integer> targets = new ArrayList<Integer>();
+        List<FutureTask<List<RagDocument>>> searches = new ArrayList<FutureTask<List<RagDocument>>>();
+        for (int s = 0; s < shards.size(); s++) {
+            if (pinned >= 0 && pinned != s) {
+                continue;
+            }
+            final VectorStore shard = shards.get(s);
+            targets.add(s);
+            searches.add(submit(new Callable<List<RagDocument>>() {
+                @Override
+                public List<RagDocument> call() {
+                    return shard.similaritySearch(shardRequest);
+                }
+            }));
+        }
+        List<List<RagDocument>> partial = new ArrayList<List<RagDocument>>(searches.size());
+        boolean complete = true;
+        for (int t = 0; t < searches.size(); t++) {
+            List<RagDocument> hits = await(searches.get(t), deadline, targets.get(t));
+            complete &= hits != null;
+            partial.add(hits);
+        }
+        if (!complete) {
+            partialSearches.incrementAndGet();
+        }
+        return Hits.merge(partial, request);
+    }
+
+    /**
+     * Sends each shard one batch with the requests it has to answer, then merges per request.
+     */
+    @Override
+    public List<List<RagDocument>> batchSimilaritySearch(List<SearchRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<SearchRequest> prepared = new ArrayList<SearchRequest>(requests);
+        if (embeddingModel != null) {
+            List<float[]> embeddings = QueryEmbeddings.embedAll(embeddingModel, requests);
+            for (int i = 0; i < prepared.size(); i++) {
+                if (prepared.get(i) != null) {
+                    prepared.set(i, prepared.get(i).toBuilder().queryEmbedding(embeddings.get(i)).build());
+                }
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shardTimeoutMillis);
+        List<List<Integer>> assigned = new ArrayList<List<Integer>>(shards.size());
+        for (int s = 0; s < shards.size(); s++) {
+            assigned.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < prepared.size(); i++) {
+            if (prepared.get(i) == null) {
+                continue;
+            }
+            int pinned = pinnedShard(prepared.get(i));
+            for (int s = 0; s < shards.size(); s++) {
+                if (pinned < 0 || pinned == s) {
+                    assigned.get(s).add(i);
+                }
+            }
+        }
+        List<FutureTask<List<List<RagDocument>>>> searches =
+                new ArrayList<FutureTask<List<List<RagDocument>>>>(shards.size());
+        for (int s = 0; s < shards.size(); s++) {
+            if (assigned.get(s).isEmpty()) {
+                searches.add(null);
+                continue;
+            }
+            final VectorStore shard = shards.get(s);
+            final List<SearchRequest> batch = new ArrayList<SearchRequest>(assigned.get(s).size());
+            for (int i : assigned.get(s)) {
+                batch.add(Hits.candidates(prepared.get(i)));
+            }
+            searches.add(submit(new Callable<List<List<RagDocument>>>() {
+                @Override
+                public List<List<RagDocument>> call() {
+                    return shard.batchSimilaritySearch(batch);
+                }
+            }));
+        }
+        List<List<List<RagDocument>>> partial = new ArrayList<List<List<RagDocument>>>(prepared.size());
+        for (int i = 0; i < prepared.size(); i++) {
+            partial.add(new ArrayList<List<RagDocument>>());
+        }
+        boolean complete = true;
+        for (int s = 0; s < shards.size(); s++) {
+            if (searches.get(s) == null) {
+                continue;
+            }
+            List<List<RagDocument>> hits = await(searches.get(s), deadline, s);
+            complete &= hits != null;
+            for (int j = 0; hits != null && j < hits.size(); j++) {
+                partial.get(assigned.get(s).get(j)).add(hits.get(j));
+            }
+        }
+        if (!complete) {
+            partialSearches.incrementAndGet();
+        }
+        List<List<RagDocument>> results = new ArrayList<List<RagDocument>>(prepared.size());
+        for (int i = 0; i < prepared.size(); i++) {
+            SearchRequest request = prepared.get(i);
+            results.add(request == null ? Collections.<RagDocument>emptyList()
+                    : Hits.merge(partial.get(i), request));
+        }
+        return results;
+    }
+
+    @Override
+    public void deleteByMetadata(final String key, final Object value) {
+        if (key == null || key.trim().isEmpty()) {
+            return;
+        }
+        List<VectorStore> targets = key.equals(shardKey)
+                ? Collections.singletonList(shardFor(value)) : shards;
+        List<FutureTask<Void>> deletes = new ArrayList<FutureTask<Void>>();
+        for (final VectorStore shard : targets) {
+            deletes.add(submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    shard.deleteByMetadata(key, value);
+                    return null;
+                }
+            }));
+        }
+        awaitAll(deletes);
+    }
+
+    /**
+     * The only shard that can hold matches for the request, or -1 if any can.
+     */
+    private int pinnedShard(SearchRequest request) {
+        Map<String, Object> filters = request.getMetadataFilters();
+        if (shardKey != null && filters != null && filters.containsKey(shardKey)) {
+            return shardIndex(filters.get(shardKey));
+        }
+        return -1;
+    }
+
+    private List<List<Integer>> partition(List<RagDocument> documents) {
+        List<List<Integer>> partitions = new ArrayList<List<Integer>>(shards.size());
+        for (int s = 0; s < shards.size(); s++) {
+            partitions.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < documents.size(); i++) {
+            RagDocument doc = documents.get(i);
+            if (doc == null) {
+                continue;
+            }
+            Object routing = shardKey == null ? doc.getId()
+                    : doc.getMetadata() == null ? null : doc.getMetadata().get(shardKey);
+            partitions.get(shardIndex(routing)).add(i);
+        }
+        return partitions;
+    }
+
+    private VectorStore shardFor(Object routing) {
+        return shards.get(shardIndex(routing));
+    }
+
+    private int shardIndex(Object routing) {
+        if (routing == null) {
+            return 0;
+        }
+        // Spread the bits so that sequential ids do not map to sequential shards.
+        int hash = routing.toString().hashCode() * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), shards.size());
+    }
+
+    private static <T> List<T> select(List<T> values, List<Integer> positions) {
+        List<T> selected = new ArrayList<T>(positions.size());
+        for (int position : positions) {
+            selected.add(values.get(position));
+        }
+        return selected;
+    }
+
+    /**
+     * Runs the call on the executor as a task that a missed deadline can interrupt.
+     */
+    private <T> FutureTask<T> submit(Callable<T> call) {
+        FutureTask<T> task = new FutureTask<T>(call);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * The shard's result, or {@code null} if it missed the deadline and was interrupted.
+     */
+    private <T> T await(FutureTask<T> task, long deadline, int shard) {
+        try {
+            return task.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            task.cancel(true);
+            log.warn("Shard {} missed the {} ms deadline; returning partial results", shard, shardTimeoutMillis);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for shards", e);
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        }
+    }
+
+    private static void awaitAll(List<FutureTask<Void>> tasks) {
+        try {
+            for (FutureTask<Void> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for shards", e);
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        }
+    }
+
+    private static RuntimeException propagate(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new RuntimeException("Shard request failed", cause);
+    }
+}
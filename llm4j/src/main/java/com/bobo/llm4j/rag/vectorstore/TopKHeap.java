@@ -0,0 +1,108 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+/**
+ * Bounded min-heap of {@code (slot, score)} pairs on primitive arrays, keeping the
+ * {@code capacity} highest scores seen so far without allocating per offer.
+ */
+final class TopKHeap {
+
+    private final int capacity;
+    private final int[] slots;
+    private final double[] scores;
+    private int size;
+
+    TopKHeap(int capacity) {
+        this.capacity = Math.max(capacity, 0);
+        this.slots = new int[this.capacity];
+        this.scores = new double[this.capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Whether a candidate with this score would currently be kept.
+     */
+    boolean accepts(double score) {
+        return size < capacity || (capacity > 0 && score > scores[0]);
+    }
+
+    void offer(int slot, double score) {
+        if (size < capacity) {
+            slots[size] = slot;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (capacity > 0 && score > scores[0]) {
+            slots[0] = slot;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Offer every entry of {@code other}, leaving it unchanged.
+     */
+    void offerAll(TopKHeap other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.slots[i], other.scores[i]);
+        }
+    }
+
+    /**
+     * Empty the heap, returning its slots best first. Scores are written to {@code sortedScores}
+     * when it is not {@code null}.
+     */
+    int[] drainDescending(double[] sortedScores) {
+        int count = size;
+        int[] result = new int[count];
+        for (int i = count - 1; i >= 0; i--) {
+            result[i] = slots[0];
+            if (sortedScores != null) {
+                sortedScores[i] = scores[0];
+            }
+            size--;
+            if (size > 0) {
+                slots[0] = slots[size];
+                scores[0] = scores[size];
+                siftDown(0);
+            }
+        }
+        return result;
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (scores[parent] <= scores[index]) {
+                break;
+            }
+            swap(parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int left = index * 2 + 1;
+            if (left >= size) {
+                break;
+            }
+            int smallest = left + 1 < size && scores[left + 1] < scores[left] ? left + 1 : left;
+            if (scores[index] <= scores[smallest]) {
+                break;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int slot = slots[a];
+        slots[a] = slots[b];
+        slots[b] = slot;
+        double score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
@@ -0,0 +1,152 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Packed primitive storage for fixed-dimension vectors.
+ * <p>
+ * Vectors are laid out back to back in large blocks (a {@code float[]} on heap or a direct
+ * {@link FloatBuffer} off heap), so a scan walks contiguous memory instead of chasing boxed
+ * {@code Double} references. The L2 norm of every vector is computed once on append.
+ * Blocks are never copied when the arena grows.
+ * <p>
+ * A single writer may append while other threads read slots that were published to them
+ * through a happens-before edge (a lock or volatile size): the block and norm tables are
+ * replaced copy-on-write.
+ */
+final class VectorArena {
+
+    static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    private final VectorStorage storage;
+    private final int blockSize;
+    private volatile float[][] heapBlocks = new float[0][];
+    private volatile FloatBuffer[] directBlocks = new FloatBuffer[0];
+    private volatile float[] norms = new float[16];
+    private int dimension = -1;
+    private int size;
+
+    VectorArena(VectorStorage storage) {
+        this(storage, DEFAULT_BLOCK_SIZE);
+    }
+
+    VectorArena(VectorStorage storage, int blockSize) {
+        this.storage = storage == null ? VectorStorage.HEAP : storage;
+        this.blockSize = blockSize <= 0 ? DEFAULT_BLOCK_SIZE : blockSize;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int dimension() {
+        return dimension;
+    }
+
+    VectorStorage storage() {
+        return storage;
+    }
+
+    /**
+     * Append a vector and return its slot.
+     */
+    int append(float[] vector) {
+        if (dimension < 0) {
+            dimension = vector.length;
+        } else if (vector.length != dimension) {
+            throw new IllegalArgumentException("Embedding dimension mismatch, expected "
+                    + dimension + " but was " + vector.length);
+        }
+        int slot = size;
+        int offset = ensureBlock(slot);
+        if (storage == VectorStorage.OFF_HEAP) {
+            FloatBuffer block = directBlocks[slot / blockSize];
+            for (int i = 0; i < dimension; i++) {
+                block.put(offset + i, vector[i]);
+            }
+        } else {
+            System.arraycopy(vector, 0, heapBlocks[slot / blockSize], offset, dimension);
+        }
+        float[] currentNorms = norms;
+        if (slot == currentNorms.length) {
+            currentNorms = Arrays.copyOf(currentNorms, currentNorms.length * 2);
+        }
+        currentNorms[slot] = Vectors.norm(vector);
+        norms = currentNorms;
+        size++;
+        return slot;
+    }
+
+    float norm(int slot) {
+        return norms[slot];
+    }
+
+    float[] get(int slot) {
+        float[] vector = new float[dimension];
+        int offset = (slot % blockSize) * dimension;
+        if (storage == VectorStorage.OFF_HEAP) {
+            FloatBuffer block = directBlocks[slot / blockSize];
+            for (int i = 0; i < dimension; i++) {
+                vector[i] = block.get(offset + i);
+            }
+        } else {
+            System.arraycopy(heapBlocks[slot / blockSize], offset, vector, 0, dimension);
+        }
+        return vector;
+    }
+
+    double dot(float[] query, int slot) {
+        int len = Math.min(query.length, dimension);
+        int offset = (slot % blockSize) * dimension;
+        double dot = 0d;
+        if (storage == VectorStorage.OFF_HEAP) {
+            FloatBuffer block = directBlocks[slot / blockSize];
+            for (int i = 0; i < len; i++) {
+                dot += query[i] * block.get(offset + i);
+            }
+        } else {
+            float[] block = heapBlocks[slot / blockSize];
+            for (int i = 0; i < len; i++) {
+                dot += query[i] * block[offset + i];
+            }
+        }
+        return dot;
+    }
+
+    /**
+     * Cosine similarity between {@code query} and the vector at {@code slot}, using the
+     * precomputed norm of the stored vector.
+     */
+    double cosine(float[] query, float queryNorm, int slot) {
+        float norm = norms[slot];
+        if (queryNorm == 0f || norm == 0f) {
+            return 0d;
+        }
+        return dot(query, slot) / ((double) queryNorm * norm);
+    }
+
+    private int ensureBlock(int slot) {
+        int blockIndex = slot / blockSize;
+        if (storage == VectorStorage.OFF_HEAP) {
+            FloatBuffer[] blocks = directBlocks;
+            if (blockIndex == blocks.length) {
+                blocks = Arrays.copyOf(blocks, blocks.length + 1);
+                blocks[blockIndex] = ByteBuffer.allocateDirect(blockSize * dimension * 4)
+                        .order(ByteOrder.nativeOrder())
+                        .asFloatBuffer();
+                directBlocks = blocks;
+            }
+        } else {
+            float[][] blocks = heapBlocks;
+            if (blockIndex == blocks.length) {
+                blocks = Arrays.copyOf(blocks, blocks.length + 1);
+                blocks[blockIndex] = new float[blockSize * dimension];
+                heapBlocks = blocks;
+            }
+        }
+        return (slot % blockSize) * dimension;
+    }
+}
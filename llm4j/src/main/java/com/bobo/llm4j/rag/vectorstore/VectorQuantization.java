@@ -0,0 +1,25 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+/**
+ * Compressed vector representation used to pre-select candidates before they are re-scored
+ * with exact cosine similarity against the full-precision vectors.
+ */
+public enum VectorQuantization {
+
+    /**
+     * Score every vector at full precision.
+     */
+    NONE,
+
+    /**
+     * One signed byte per dimension with per-dimension scale and offset, a quarter of the
+     * size of {@code float} vectors.
+     */
+    INT8,
+
+    /**
+     * One bit per dimension compared by Hamming distance, 1/32 of the size of {@code float}
+     * vectors. Coarser than {@link #INT8}, so it benefits from a larger re-score shortlist.
+     */
+    BINARY
+}
@@ -0,0 +1,17 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+/**
+ * Where a vector store keeps its embedding vectors.
+ */
+public enum VectorStorage {
+
+    /**
+     * Primitive {@code float[]} blocks on the Java heap.
+     */
+    HEAP,
+
+    /**
+     * Direct (off-heap) buffers, keeping vector data out of the GC-managed heap.
+     */
+    OFF_HEAP
+}
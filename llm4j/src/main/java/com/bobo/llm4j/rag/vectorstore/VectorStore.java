@@ -3,6 +3,8 @@ package com.bobo.llm4j.rag.vectorstore;
 import com.bobo.llm4j.rag.document.RagDocument;
 import com.bobo.llm4j.rag.etl.DocumentWriter;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -13,6 +15,23 @@ public interface VectorStore extends DocumentWriter {
 
     void add(List<RagDocument> documents);
 
+    /**
+     * Add documents whose embeddings were computed elsewhere, without calling the embedding
+     * model. {@code embeddings} is aligned with {@code documents}; a {@code null} or empty vector
+     * skips its document. Stores that keep the given vectors override this together with
+     * {@link #supportsPrecomputedEmbeddings()}; the default throws.
+     */
+    default void add(List<RagDocument> documents, List<float[]> embeddings) {
+        throw new UnsupportedOperationException("Precomputed embeddings are not supported by " + getClass().getName());
+    }
+
+    /**
+     * Whether {@link #add(List, List)} stores the given vectors.
+     */
+    default boolean supportsPrecomputedEmbeddings() {
+        return false;
+    }
+
     @Override
     default void write(List<RagDocument> documents) {
         add(documents);
@@ -20,5 +39,20 @@ public interface VectorStore extends DocumentWriter {
 
     List<RagDocument> similaritySearch(SearchRequest request);
 
+    /**
+     * Run several searches at once, returning one result list per request in the same order.
+     * Stores override this to embed all queries in a single call; the default searches one by one.
+     */
+    default List<List<RagDocument>> batchSimilaritySearch(List<SearchRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<List<RagDocument>> results = new ArrayList<List<RagDocument>>(requests.size());
+        for (SearchRequest request : requests) {
+            results.add(similaritySearch(request));
+        }
+        return results;
+    }
+
     void deleteByMetadata(String key, Object value);
 }
@@ -0,0 +1,265 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import lombok.Builder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Named collections, each backed by its own {@link VectorStore}, behind a single store.
+ * <p>
+ * Documents are routed by the value of the {@code collectionKey} metadata entry, so code that
+ * isolated tenants with a metadata filter on one store keeps working unchanged: a search whose
+ * metadata filters pin {@code collectionKey} only touches that collection, with the pinning
+ * filter dropped. Searches without it fan out to every collection and are merged by score.
+ * <p>
+ * Each collection is created on first use by {@code storeFactory}, so its index type, embedding
+ * model and dimension are chosen per collection. Collections can also be registered and unloaded
+ * explicitly. {@code deleteByMetadata(collectionKey, name)} deletes the documents of that one
+ * collection from its store, persistent ones included, and leaves the collection loaded.
+ */
+public class VectorStoreRegistry implements VectorStore {
+
+    public static final String DEFAULT_COLLECTION_KEY = "collection";
+
+    private final String collectionKey;
+    private final Function<String, VectorStore> storeFactory;
+    private final ConcurrentHashMap<String, VectorStore> collections = new ConcurrentHashMap<String, VectorStore>();
+
+    /**
+     * @param collectionKey metadata key naming the collection of a document
+     * @param storeFactory  creates the store of a new collection from its name; without one,
+     *                      collections must be {@linkplain #register registered} before use
+     */
+    @Builder
+    public VectorStoreRegistry(String collectionKey, Function<String, VectorStore> storeFactory) {
+        this.collectionKey = collectionKey == null || collectionKey.trim().isEmpty()
+                ? DEFAULT_COLLECTION_KEY : collectionKey;
+        this.storeFactory = storeFactory;
+    }
+
+    /**
+     * The store of a collection, created through the factory if it does not exist yet.
+     */
+    public VectorStore collection(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name must not be null");
+        }
+        VectorStore store = collections.get(name);
+        if (store != null) {
+            return store;
+        }
+        if (storeFactory == null) {
+            throw new IllegalArgumentException("Unknown collection: " + name);
+        }
+        return collections.computeIfAbsent(name, storeFactory);
+    }
+
+    /**
+     * The store of a collection, or {@code null} if it is not loaded.
+     */
+    public VectorStore getCollection(String name) {
+        return name == null ? null : collections.get(name);
+    }
+
+    /**
+     * Load a collection backed by an existing store.
+     */
+    public void register(String name, VectorStore store) {
+        if (name == null) {
+            throw new IllegalArgumentException("name must not be null");
+        }
+        if (store == null) {
+            throw new IllegalArgumentException("store must not be null");
+        }
+        if (collections.putIfAbsent(name, store) != null) {
+            throw new IllegalArgumentException("Collection already exists: " + name);
+        }
+    }
+
+    /**
+     * Drop a collection and return its store, or {@code null} if it was not loaded. A store that
+     * is {@link Closeable} is closed, which releases files it keeps only while loaded.
+     */
+    public VectorStore unload(String name) {
+        VectorStore store = name == null ? null : collections.remove(name);
+        if (store instanceof Closeable) {
+            try {
+                ((Closeable) store).close();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to close collection: " + name, e);
+            }
+        }
+        return store;
+    }
+
+    public Set<String> getCollectionNames() {
+        return Collections.unmodifiableSet(collections.keySet());
+    }
+
+    public String getCollectionKey() {
+        return collectionKey;
+    }
+
+    @Override
+    public void add(List<RagDocument> documents) {
+        if (documents == null || documents.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, List<Integer>> group : groupByCollection(documents).entrySet()) {
+            collection(group.getKey()).add(select(documents, group.getValue()));
+        }
+    }
+
+    /**
+     * Whether every loaded collection supports it; a collection the factory creates later is
+     * only checked when documents are added to it.
+     */
+    @Override
+    public boolean supportsPrecomputedEmbeddings() {
+        for (VectorStore store : collections.values()) {
+            if (!store.supportsPrecomputedEmbeddings()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void add(List<RagDocument> documents, List<float[]> embeddings) {
+        if (documents == null || documents.isEmpty()) {
+            return;
+        }
+        Vectors.checkAligned(documents, embeddings);
+        for (Map.Entry<String, List<Integer>> group : groupByCollection(documents).entrySet()) {
+            collection(group.getKey()).add(select(documents, group.getValue()), select(embeddings, group.getValue()));
+        }
+    }
+
+    /**
+     * Positions of the non-null documents per collection, in input order.
+     */
+    private Map<String, List<Integer>> groupByCollection(List<RagDocument> documents) {
+        Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < documents.size(); i++) {
+            RagDocument doc = documents.get(i);
+            if (doc == null) {
+                continue;
+            }
+            Object name = doc.getMetadata() == null ? null : doc.getMetadata().get(collectionKey);
+            if (name == null) {
+                throw new IllegalArgumentException("Document " + doc.getId() + " has no '" + collectionKey
+                        + "' metadata");
+            }
+            List<Integer> positions = groups.get(name.toString());
+            if (positions == null) {
+                positions = new ArrayList<Integer>();
+                groups.put(name.toString(), positions);
+            }
+            positions.add(i);
+        }
+        return groups;
+    }
+
+    private static <T> List<T> select(List<T> values, List<Integer> positions) {
+        List<T> selected = new ArrayList<T>(positions.size());
+        for (int position : positions) {
+            selected.add(values.get(position));
+        }
+        return selected;
+    }
+
+    @Override
+    public List<RagDocument> similaritySearch(SearchRequest request) {
+        if (request == null) {
+            return Collections.emptyList();
+        }
+        String name = pinnedCollection(request);
+        if (name != null) {
+            VectorStore store = collections.get(name);
+            return store == null ? Collections.<RagDocument>emptyList() : store.similaritySearch(unpin(request));
+        }
+        SearchRequest candidates = Hits.candidates(request);
+        List<List<RagDocument>> results = new ArrayList<List<RagDocument>>();
+        for (VectorStore store : collections.values()) {
+            results.add(store.similaritySearch(candidates));
+        }
+        return Hits.merge(results, request);
+    }
+
+    /**
+     * Requests pinned to one collection are batched per collection; the others are answered
+     * one by one across all collections.
+     */
+    @Override
+    public List<List<RagDocument>> batchSimilaritySearch(List<SearchRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<List<RagDocument>> results = new ArrayList<List<RagDocument>>(
+                Collections.<List<RagDocument>>nCopies(requests.size(), Collections.<RagDocument>emptyList()));
+        Map<String, List<Integer>> pinned = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < requests.size(); i++) {
+            SearchRequest request = requests.get(i);
+            String name = request == null ? null : pinnedCollection(request);
+            if (name == null) {
+                results.set(i, similaritySearch(request));
+                continue;
+            }
+            List<Integer> positions = pinned.get(name);
+            if (positions == null) {
+                positions = new ArrayList<Integer>();
+                pinned.put(name, positions);
+            }
+            positions.add(i);
+        }
+        for (Map.Entry<String, List<Integer>> group : pinned.entrySet()) {
+            VectorStore store = collections.get(group.getKey());
+            if (store == null) {
+                continue;
+            }
+            List<SearchRequest> unpinned = new ArrayList<SearchRequest>(group.getValue().size());
+            for (int position : group.getValue()) {
+                unpinned.add(unpin(requests.get(position)));
+            }
+            List<List<RagDocument>> hits = store.batchSimilaritySearch(unpinned);
+            for (int i = 0; i < hits.size(); i++) {
+                results.set(group.getValue().get(i), hits.get(i));
+            }
+        }
+        return results;
+    }
+
+    private String pinnedCollection(SearchRequest request) {
+        Map<String, Object> filters = request.getMetadataFilters();
+        Object name = filters == null ? null : filters.get(collectionKey);
+        return name == null ? null : name.toString();
+    }
+
+    private SearchRequest unpin(SearchRequest request) {
+        Map<String, Object> filters = new LinkedHashMap<String, Object>(request.getMetadataFilters());
+        filters.remove(collectionKey);
+        return request.toBuilder().metadataFilters(filters).build();
+    }
+
+    @Override
+    public void deleteByMetadata(String key, Object value) {
+        if (key == null || key.trim().isEmpty()) {
+            return;
+        }
+        if (key.equals(collectionKey)) {
+            VectorStore store = value == null ? null : collections.get(value.toString());
+            if (store != null) {
+                store.deleteByMetadata(key, value);
+            }
+            return;
+        }
+        for (VectorStore store : collections.values()) {
+            store.deleteByMetadata(key, value);
+        }
+    }
+}
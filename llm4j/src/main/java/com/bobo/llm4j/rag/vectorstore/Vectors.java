@@ -0,0 +1,53 @@
+package com.bobo.llm4j.rag.vectorstore;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+
+import java.util.List;
+
+/**
+ * Primitive vector helpers shared by the vector store implementations.
+ */
+final class Vectors {
+
+    private Vectors() {
+    }
+
+    /**
+     * Reject precomputed embeddings that are not aligned with their documents.
+     */
+    static void checkAligned(List<RagDocument> documents, List<float[]> embeddings) {
+        if (embeddings == null) {
+            throw new IllegalArgumentException("embeddings must not be null");
+        }
+        if (embeddings.size() != documents.size()) {
+            throw new IllegalArgumentException("Expected " + documents.size()
+                    + " embeddings but got " + embeddings.size());
+        }
+    }
+
+    static float norm(float[] vector) {
+        double sum = 0d;
+        for (float v : vector) {
+            sum += v * v;
+        }
+        return (float) Math.sqrt(sum);
+    }
+
+    static double dot(float[] left, float[] right) {
+        int len = Math.min(left.length, right.length);
+        double dot = 0d;
+        for (int i = 0; i < len; i++) {
+            dot += left[i] * right[i];
+        }
+        return dot;
+    }
+
+    static double cosine(float[] left, float[] right) {
+        float normLeft = norm(left);
+        float normRight = norm(right);
+        if (normLeft == 0f || normRight == 0f) {
+            return 0d;
+        }
+        return dot(left, right) / ((double) normLeft * normRight);
+    }
+}
@@ -2,15 +2,32 @@ package com.bobo.llm4j.utils;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @Author bo
- * @Description SPI服务加载
+ * @Description SPI服务加载，每个服务只加载一次
  */
 @Slf4j
 public class ServiceLoaderUtil {
+
+    private static final Map<Class<?>, Object> CACHE = new ConcurrentHashMap<Class<?>, Object>();
+
     public static <T> T load(Class<T> service) {
+        Object cached = CACHE.get(service);
+        if (cached == null) {
+            T impl = find(service);
+            cached = CACHE.putIfAbsent(service, impl);
+            if (cached == null) {
+                cached = impl;
+            }
+        }
+        return service.cast(cached);
+    }
+
+    private static <T> T find(Class<T> service) {
         ServiceLoader<T> loader = ServiceLoader.load(service);
         for (T impl : loader) {
             log.info("Loaded SPI implementation: {}", impl.getClass().getSimpleName());
@@ -0,0 +1,85 @@
+package com.bobo.llm4j.chat;
+
+import com.bobo.llm4j.chat.entity.ChatResponse;
+import com.bobo.llm4j.chat.entity.Media;
+import com.bobo.llm4j.chat.entity.Message;
+import com.bobo.llm4j.chat.entity.Prompt;
+import com.bobo.llm4j.chat.model.ChatModel;
+import com.bobo.llm4j.config.Configuration;
+import com.bobo.llm4j.config.OpenAiConfig;
+import com.bobo.llm4j.config.QwenConfig;
+import com.bobo.llm4j.platform.openai.chat.OpenAiChatModel;
+import com.bobo.llm4j.platform.qwen.chat.QwenChatModel;
+import okhttp3.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * callAsync 测试：请求通过 OkHttp enqueue 发送，调用方线程不等待响应
+ */
+public class ChatModelAsyncTest {
+
+    private static Configuration configuration(final CountDownLatch release, final int status) {
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new Response.Builder().request(chain.request()).protocol(Protocol.HTTP_1_1)
+                        .code(status).message("fake")
+                        .body(ResponseBody.create("{\"id\":\"" + chain.request().url().host() + "\",\"model\":\"m\"}",
+                                MediaType.parse("application/json")))
+                        .build();
+            }
+        }).build();
+        return Configuration.builder()
+                .okHttpClient(client)
+                .openAiConfig(OpenAiConfig.builder().apiHost("http://openai.test/").build())
+                .qwenConfig(QwenConfig.builder().apiHost("http://qwen.test/").build())
+                .build();
+    }
+
+    private static Prompt prompt() {
+        Message message = Message.builder().role("user").content(Media.ofText("hello")).build();
+        return Prompt.builder().message(message).model("m").build();
+    }
+
+    @Test
+    public void testCallAsyncCompletesWithoutBlocking() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Configuration configuration = configuration(release, 200);
+        List<CompletableFuture<ChatResponse>> calls = new ArrayList<CompletableFuture<ChatResponse>>();
+        for (int i = 0; i < 20; i++) {
+            ChatModel model = i % 2 == 0 ? new OpenAiChatModel(configuration) : new QwenChatModel(configuration);
+            calls.add(model.callAsync(prompt()));
+        }
+        for (CompletableFuture<ChatResponse> call : calls) {
+            Assert.assertFalse(call.isDone());
+        }
+        release.countDown();
+        for (int i = 0; i < calls.size(); i++) {
+            Assert.assertEquals(i % 2 == 0 ? "openai.test" : "qwen.test", calls.get(i).get(10, TimeUnit.SECONDS).getId());
+        }
+    }
+
+    @Test
+    public void testQwenCallAsyncFailsOnErrorStatus() throws Exception {
+        CountDownLatch release = new CountDownLatch(0);
+        try {
+            new QwenChatModel(configuration(release, 500)).callAsync(prompt()).get(10, TimeUnit.SECONDS);
+            Assert.fail("expected the error status to fail the future");
+        } catch (ExecutionException expected) {
+            Assert.assertTrue(expected.getCause().getMessage().contains("500"));
+        }
+    }
+}
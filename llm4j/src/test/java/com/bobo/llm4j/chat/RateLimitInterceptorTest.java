@@ -0,0 +1,148 @@
+package com.bobo.llm4j.chat;
+
+import com.bobo.llm4j.exception.RateLimitException;
+import com.bobo.llm4j.http.AsyncCalls;
+import com.bobo.llm4j.interceptor.RateLimitInterceptor;
+import okhttp3.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RateLimitInterceptor 测试：本地估算 token，超出配额时排队或直接拒绝，响应中的 usage 回填配额
+ */
+public class RateLimitInterceptorTest {
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    /**
+     * Answers every request with the given status and body and counts what reached it.
+     */
+    private static final class FakeServer implements Interceptor {
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile int status = 200;
+        private volatile String body = "{\"id\":\"x\"}";
+
+        @Override
+        public Response intercept(Chain chain) {
+            requests.incrementAndGet();
+            Response.Builder response = new Response.Builder().request(chain.request()).protocol(Protocol.HTTP_1_1)
+                    .code(status).message("fake").body(ResponseBody.create(body, JSON));
+            if (status == 429) {
+                response.header("Retry-After", "30");
+            }
+            return response.build();
+        }
+    }
+
+    private static OkHttpClient client(RateLimitInterceptor limiter, FakeServer server) {
+        return new OkHttpClient.Builder().addInterceptor(limiter).addInterceptor(server).build();
+    }
+
+    private static Request request(String model, int maxTokens) {
+        String json = "{\"model\":\"" + model + "\",\"max_tokens\":" + maxTokens
+                + ",\"messages\":[{\"role\":\"user\",\"content\":\"hello\"}]}";
+        return new Request.Builder().url("http://openai.test/v1/chat/completions")
+                .post(RequestBody.create(json, JSON)).build();
+    }
+
+    private static CompletableFuture<Integer> callAsync(OkHttpClient client, String model, int maxTokens) {
+        return AsyncCalls.enqueue(client, request(model, maxTokens), new AsyncCalls.ResponseReader<Integer>() {
+            @Override
+            public Integer read(Response response) {
+                return response.code();
+            }
+        });
+    }
+
+    private static String call(OkHttpClient client, String model, int maxTokens) throws IOException {
+        try (Response response = client.newCall(request(model, maxTokens)).execute()) {
+            return response.code() + " " + response.body().string();
+        }
+    }
+
+    @Test
+    public void testShedsRequestsThatWouldWaitTooLong() throws Exception {
+        FakeServer server = new FakeServer();
+        OkHttpClient client = client(RateLimitInterceptor.builder()
+                .tokensPerMinute(600).maxWaitMillis(100L).build(), server);
+
+        call(client, "m", 500);
+        try {
+            call(client, "m", 500);
+            Assert.fail("expected the second request to be shed");
+        } catch (RateLimitException expected) {
+            Assert.assertEquals(1, server.requests.get());
+        }
+        // Quotas are kept per model.
+        call(client, "other", 500);
+        Assert.assertEquals(2, server.requests.get());
+    }
+
+    @Test
+    public void testQueuesUntilQuotaRefills() throws Exception {
+        FakeServer server = new FakeServer();
+        OkHttpClient client = client(RateLimitInterceptor.builder()
+                .tokensPerMinute(6000).maxWaitMillis(5000L).build(), server);
+
+        // Larger than a minute of quota: sent on a full bucket, leaving it overdrawn.
+        call(client, "m", 6000);
+        long start = System.nanoTime();
+        call(client, "m", 20);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+        Assert.assertTrue("waited " + elapsedMillis + " ms", elapsedMillis >= 200L);
+        Assert.assertEquals(2, server.requests.get());
+    }
+
+    @Test
+    public void testReportedUsageReplacesEstimate() throws Exception {
+        FakeServer server = new FakeServer();
+        server.body = "{\"id\":\"x\",\"usage\":{\"prompt_tokens\":8,\"completion_tokens\":2,\"total_tokens\":10}}";
+        OkHttpClient client = client(RateLimitInterceptor.builder()
+                .tokensPerMinute(600).maxWaitMillis(100L).build(), server);
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(call(client, "m", 500).startsWith("200"));
+        }
+        Assert.assertEquals(5, server.requests.get());
+    }
+
+    @Test
+    public void testTooManyRequestsPausesTheBucket() throws Exception {
+        FakeServer server = new FakeServer();
+        server.status = 429;
+        OkHttpClient client = client(RateLimitInterceptor.builder()
+                .requestsPerMinute(100).maxWaitMillis(100L).build(), server);
+
+        Assert.assertTrue(call(client, "m", 10).startsWith("429"));
+        server.status = 200;
+        try {
+            call(client, "m", 10);
+            Assert.fail("expected Retry-After to hold requests back");
+        } catch (RateLimitException expected) {
+            Assert.assertEquals(1, server.requests.get());
+        }
+    }
+
+    @Test
+    public void testAsyncCallsWaitForQuotaBeforeTakingADispatcherThread() throws Exception {
+        FakeServer server = new FakeServer();
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(1);
+        OkHttpClient client = client(RateLimitInterceptor.builder()
+                .tokensPerMinute(6000).maxWaitMillis(5000L).build(), server).newBuilder()
+                .dispatcher(dispatcher).build();
+
+        Assert.assertEquals(Integer.valueOf(200), callAsync(client, "m", 6000).get(5, TimeUnit.SECONDS));
+        CompletableFuture<Integer> waiting = callAsync(client, "m", 20);
+        // The only dispatcher thread is free for a model that has quota.
+        Assert.assertEquals(Integer.valueOf(200), callAsync(client, "other", 20).get(150, TimeUnit.MILLISECONDS));
+        Assert.assertFalse(waiting.isDone());
+        Assert.assertEquals(Integer.valueOf(200), waiting.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, server.requests.get());
+    }
+}
@@ -0,0 +1,114 @@
+package com.bobo.llm4j.rag;
+
+import com.bobo.llm4j.rag.embedding.BatchingEmbeddingModel;
+import com.bobo.llm4j.rag.embedding.EmbeddingModel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BatchingEmbeddingModelTest {
+
+    @Test
+    public void testConcurrentCallsShareBatches() throws Exception {
+        CachingEmbeddingModelTest.CountingEmbeddingModel delegate = new CachingEmbeddingModelTest.CountingEmbeddingModel();
+        final BatchingEmbeddingModel batching = BatchingEmbeddingModel.builder()
+                .delegate(delegate).windowMicros(200000L).maxBatchSize(8).build();
+        ExecutorService callers = Executors.newFixedThreadPool(16);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<List<Double>>> results = new ArrayList<Future<List<Double>>>();
+            for (int i = 0; i < 16; i++) {
+                final String text = i % 4 == 0 ? "shared" : "text-" + i;
+                results.add(callers.submit(new Callable<List<Double>>() {
+                    @Override
+                    public List<Double> call() throws Exception {
+                        start.await();
+                        return batching.embed(text);
+                    }
+                }));
+            }
+            start.countDown();
+            for (int i = 0; i < 16; i++) {
+                String text = i % 4 == 0 ? "shared" : "text-" + i;
+                Assert.assertEquals(Arrays.asList((double) text.length(), (double) text.charAt(0)),
+                        results.get(i).get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            callers.shutdown();
+            batching.close();
+        }
+
+        int sent = 0;
+        for (List<String> call : delegate.calls) {
+            Assert.assertTrue(call.size() <= 8);
+            Assert.assertEquals(new HashSet<String>(call).size(), call.size());
+            sent += call.size();
+        }
+        Assert.assertTrue(delegate.calls.size() < 16);
+        Assert.assertEquals(delegate.calls.size(), batching.getBatchCount());
+        Assert.assertTrue(sent < 16);
+        Assert.assertEquals(16d / batching.getBatchCount(), batching.getAverageBatchSize(), 1e-9);
+        Assert.assertEquals(8L, batching.getLargestBatchSize());
+        Assert.assertTrue(batching.getMaxQueueDelayMicros() >= batching.getAverageQueueDelayMicros());
+    }
+
+    @Test
+    public void testClosedModelRejectsCalls() {
+        BatchingEmbeddingModel batching = new BatchingEmbeddingModel(new CachingEmbeddingModelTest.CountingEmbeddingModel());
+        batching.close();
+        try {
+            batching.embed("late");
+            Assert.fail("expected a closed model to reject calls");
+        } catch (Exception expected) {
+            Assert.assertTrue(expected instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testBatchesAreSentAsynchronouslyAndRejectionsFailOnlyTheirBatch() throws Exception {
+        final BlockingQueue<CompletableFuture<List<float[]>>> requests =
+                new LinkedBlockingQueue<CompletableFuture<List<float[]>>>();
+        final Semaphore rejections = new Semaphore(1);
+        EmbeddingModel delegate = new EmbeddingModel() {
+            @Override
+            public List<List<Double>> embedAll(List<String> texts) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public CompletableFuture<List<float[]>> embedAllVectorsAsync(List<String> texts) {
+                if (rejections.tryAcquire()) {
+                    throw new RejectedExecutionException("saturated");
+                }
+                CompletableFuture<List<float[]>> request = new CompletableFuture<List<float[]>>();
+                requests.add(request);
+                return request;
+            }
+        };
+        BatchingEmbeddingModel batching = BatchingEmbeddingModel.builder()
+                .delegate(delegate).windowMicros(1000L).maxBatchSize(1).build();
+        try {
+            try {
+                batching.embedVector("rejected");
+                Assert.fail("expected the rejected batch to fail");
+            } catch (RejectedExecutionException expected) {
+                // The dispatcher survives and keeps sending.
+            }
+            CompletableFuture<float[]> first = batching.embedVectorAsync("first");
+            CompletableFuture<float[]> second = batching.embedVectorAsync("second");
+            CompletableFuture<List<float[]>> firstRequest = requests.poll(10, TimeUnit.SECONDS);
+            // The second batch goes out while the first is still in flight.
+            CompletableFuture<List<float[]>> secondRequest = requests.poll(10, TimeUnit.SECONDS);
+            Assert.assertNotNull(secondRequest);
+            Assert.assertFalse(first.isDone());
+            secondRequest.complete(Collections.singletonList(new float[]{2f}));
+            firstRequest.complete(Collections.singletonList(new float[]{1f}));
+            Assert.assertArrayEquals(new float[]{1f}, first.get(10, TimeUnit.SECONDS), 0f);
+            Assert.assertArrayEquals(new float[]{2f}, second.get(10, TimeUnit.SECONDS), 0f);
+        } finally {
+            batching.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.bobo.llm4j.rag;
+
+import com.bobo.llm4j.rag.embedding.CachingEmbeddingModel;
+import com.bobo.llm4j.rag.embedding.EmbeddingModel;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class CachingEmbeddingModelTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static class CountingEmbeddingModel implements EmbeddingModel {
+        final List<List<String>> calls = Collections.synchronizedList(new ArrayList<List<String>>());
+
+        @Override
+        public List<List<Double>> embedAll(List<String> texts) {
+            calls.add(new ArrayList<String>(texts));
+            List<List<Double>> result = new ArrayList<List<Double>>();
+            for (String text : texts) {
+                result.add(Arrays.asList((double) text.length(), (double) text.charAt(0)));
+            }
+            return result;
+        }
+    }
+
+    @Test
+    public void testOnlyMissesReachTheDelegate() throws Exception {
+        CountingEmbeddingModel delegate = new CountingEmbeddingModel();
+        CachingEmbeddingModel cache = CachingEmbeddingModel.builder().delegate(delegate).modelName("m0")
+                .maxEntries(2).build();
+
+        List<List<Double>> first = cache.embedAll(Arrays.asList("alpha", "beta", "alpha"));
+        Assert.assertEquals(Arrays.asList(Arrays.asList("alpha", "beta")), delegate.calls);
+        Assert.assertEquals(first.get(0), first.get(2));
+
+        List<List<Double>> second = cache.embedAll(Arrays.asList("gamma", " beta ", "alpha"));
+        Assert.assertEquals(Arrays.asList("gamma"), delegate.calls.get(1));
+        Assert.assertEquals(first.get(1), second.get(1));
+        Assert.assertEquals(first.get(0), second.get(2));
+        Assert.assertEquals(Arrays.asList(5.0d, (double) 'g'), second.get(0));
+
+        // Only two vectors fit on heap, so the least recently used one was evicted.
+        cache.embed("beta");
+        Assert.assertEquals(Arrays.asList("beta"), delegate.calls.get(2));
+        Assert.assertEquals(4L, cache.getMissCount());
+        Assert.assertEquals(2L, cache.getHitCount());
+    }
+
+    @Test
+    public void testDiskTierSurvivesRestart() throws Exception {
+        Path directory = folder.newFolder("cache").toPath();
+        CountingEmbeddingModel delegate = new CountingEmbeddingModel();
+        CachingEmbeddingModel cache = CachingEmbeddingModel.builder().delegate(delegate).modelName("m1")
+                .cacheDirectory(directory).build();
+        List<List<Double>> vectors = cache.embedAll(Arrays.asList("one", "two"));
+        cache.close();
+
+        CountingEmbeddingModel restarted = new CountingEmbeddingModel();
+        CachingEmbeddingModel reopened = CachingEmbeddingModel.builder().delegate(restarted).modelName("m1")
+                .cacheDirectory(directory).maxEntries(1).build();
+        Assert.assertEquals(vectors, reopened.embedAll(Arrays.asList("one", "two")));
+        Assert.assertTrue(restarted.calls.isEmpty());
+        reopened.close();
+
+        // Another model name never reuses these vectors.
+        CachingEmbeddingModel other = CachingEmbeddingModel.builder().delegate(restarted).modelName("m2")
+                .cacheDirectory(directory).build();
+        other.embed("one");
+        Assert.assertEquals(Arrays.asList(Arrays.asList("one")), restarted.calls);
+        other.close();
+    }
+
+    @Test
+    public void testModelNameComesFromTheDelegate() throws Exception {
+        try {
+            new CachingEmbeddingModel(new CountingEmbeddingModel());
+            Assert.fail("expected a model name to be required");
+        } catch (IllegalArgumentException expected) {
+            // Unnamed delegates would otherwise share keys.
+        }
+        CountingEmbeddingModel delegate = new CountingEmbeddingModel() {
+            @Override
+            public String getModelName() {
+                return "counting-v1";
+            }
+        };
+        Assert.assertEquals("counting-v1", new CachingEmbeddingModel(delegate).getModelName());
+    }
+
+    @Test
+    public void testLambdaIsAnEmbeddingModel() throws Exception {
+        EmbeddingModel model = texts -> Collections.nCopies(texts.size(), Arrays.asList(1d, 2d));
+        Assert.assertArrayEquals(new float[]{1f, 2f}, model.embedVector("x"), 0f);
+        Assert.assertEquals(2, model.embedAllVectorsAsync(Arrays.asList("a", "b")).get().size());
+    }
+}
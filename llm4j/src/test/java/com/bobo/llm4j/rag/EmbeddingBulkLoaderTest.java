@@ -0,0 +1,144 @@
+package com.bobo.llm4j.rag;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import com.bobo.llm4j.rag.embedding.EmbeddingModel;
+import com.bobo.llm4j.rag.vectorstore.EmbeddingBulkLoader;
+import com.bobo.llm4j.rag.vectorstore.HnswVectorStore;
+import com.bobo.llm4j.rag.vectorstore.HybridVectorStore;
+import com.bobo.llm4j.rag.vectorstore.InMemoryVectorStore;
+import com.bobo.llm4j.rag.vectorstore.SearchRequest;
+import com.bobo.llm4j.rag.vectorstore.VectorStore;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class EmbeddingBulkLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Embeds only the query; any attempt to embed a loaded document fails the test.
+     */
+    private static EmbeddingModel queryOnlyModel() {
+        return new EmbeddingModel() {
+            @Override
+            public List<List<Double>> embedAll(List<String> texts) {
+                List<List<Double>> result = new ArrayList<List<Double>>();
+                for (String text : texts) {
+                    Assert.assertEquals("query", text);
+                    result.add(Arrays.asList(1.0d, 0.0d));
+                }
+                return result;
+            }
+        };
+    }
+
+    private static SearchRequest query(int topK) {
+        return SearchRequest.builder().query("query").topK(topK).similarityThreshold(-1d).build();
+    }
+
+    @Test
+    public void testLoadJsonlInChunks() throws Exception {
+        Path file = folder.newFile("embeddings.jsonl").toPath();
+        String jsonl = "{\"id\":\"d1\",\"text\":\"Java intro\",\"metadata\":{\"topic\":\"java\"},\"embedding\":[1.0,0.0]}\n"
+                + "{\"id\":\"d2\",\"text\":\"Python intro\",\"metadata\":{\"topic\":\"python\"},\"vector\":[0.0,1.0],\"extra\":{\"a\":[1]}}\n"
+                + "\n"
+                + "{\"id\":\"d3\",\"text\":\"Java stream\",\"embedding\":[0.8,0.2]}";
+        Files.write(file, jsonl.getBytes(StandardCharsets.UTF_8));
+
+        InMemoryVectorStore store = new InMemoryVectorStore(queryOnlyModel());
+        EmbeddingBulkLoader loader = EmbeddingBulkLoader.builder()
+                .vectorStore(store)
+                .chunkBytes(64)
+                .parallelism(2)
+                .build();
+
+        Assert.assertEquals(3L, loader.loadJsonl(file));
+        List<RagDocument> hits = store.similaritySearch(query(10));
+        Assert.assertEquals(3, hits.size());
+        Assert.assertEquals("d1", hits.get(0).getId());
+        Assert.assertEquals("java", hits.get(0).getMetadata().get("topic"));
+        Assert.assertEquals("d3", hits.get(1).getId());
+        Assert.assertEquals("Java stream", hits.get(1).getText());
+        Assert.assertEquals("d2", hits.get(2).getId());
+        Assert.assertEquals(0.0d, hits.get(2).getScore(), 1e-6);
+    }
+
+    @Test
+    public void testBinaryRoundTripKeepsFileOrder() throws Exception {
+        Path file = folder.newFile("embeddings.bin").toPath();
+        Map<String, Object> meta = new LinkedHashMap<String, Object>();
+        meta.put("batch", 7);
+        try (OutputStream out = Files.newOutputStream(file);
+             EmbeddingBulkLoader.BinaryWriter writer = new EmbeddingBulkLoader.BinaryWriter(out, 2)) {
+            for (int i = 0; i < 100; i++) {
+                double angle = Math.PI / 2 * i / 100;
+                writer.write(RagDocument.builder().id("d" + i).text("doc " + i).metadata(meta).build(),
+                        new float[]{(float) Math.cos(angle), (float) Math.sin(angle)});
+            }
+            // Same id again: the later record replaces the earlier one.
+            writer.write(RagDocument.builder().id("d99").text("moved").metadata(null).build(),
+                    new float[]{0.999f, 0.01f});
+        }
+
+        InMemoryVectorStore store = new InMemoryVectorStore(queryOnlyModel());
+        EmbeddingBulkLoader loader = EmbeddingBulkLoader.builder()
+                .vectorStore(store)
+                .chunkBytes(256)
+                .parallelism(3)
+                .build();
+
+        Assert.assertEquals(101L, loader.loadBinary(file));
+        List<RagDocument> hits = store.similaritySearch(query(1000));
+        Assert.assertEquals(100, hits.size());
+        Assert.assertEquals("d0", hits.get(0).getId());
+        Assert.assertEquals("d99", hits.get(1).getId());
+        Assert.assertEquals("moved", hits.get(1).getText());
+        Assert.assertEquals(7, hits.get(2).getMetadata().get("batch"));
+        Assert.assertEquals("d98", hits.get(99).getId());
+    }
+
+    @Test
+    public void testStoreWithoutPrecomputedEmbeddingsIsRejected() {
+        final List<RagDocument> added = new ArrayList<RagDocument>();
+        VectorStore store = new VectorStore() {
+            @Override
+            public void add(List<RagDocument> documents) {
+                added.addAll(documents);
+            }
+
+            @Override
+            public List<RagDocument> similaritySearch(SearchRequest request) {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public void deleteByMetadata(String key, Object value) {
+            }
+        };
+        Assert.assertFalse(store.supportsPrecomputedEmbeddings());
+        try {
+            store.add(Collections.singletonList(RagDocument.builder().id("d1").text("text").build()),
+                    Collections.singletonList(new float[]{1f, 0f}));
+            Assert.fail("expected the default to refuse precomputed embeddings");
+        } catch (UnsupportedOperationException expected) {
+            Assert.assertTrue(added.isEmpty());
+        }
+        try {
+            new EmbeddingBulkLoader(store);
+            Assert.fail("expected the loader to reject the store up front");
+        } catch (IllegalArgumentException expected) {
+        }
+        Assert.assertTrue(new HybridVectorStore(new HnswVectorStore(new HnswVectorStoreTest.RandomEmbeddingModel(4)))
+                .supportsPrecomputedEmbeddings());
+        Assert.assertFalse(new HybridVectorStore(store).supportsPrecomputedEmbeddings());
+    }
+}
@@ -0,0 +1,106 @@
+package com.bobo.llm4j.rag;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import com.bobo.llm4j.rag.vectorstore.FilterExpression;
+import com.bobo.llm4j.rag.vectorstore.HnswVectorStore;
+import com.bobo.llm4j.rag.vectorstore.InMemoryVectorStore;
+import com.bobo.llm4j.rag.vectorstore.SearchRequest;
+import com.bobo.llm4j.rag.vectorstore.VectorStore;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class FilterExpressionTest {
+
+    private final HnswVectorStoreTest.RandomEmbeddingModel embeddingModel = new HnswVectorStoreTest.RandomEmbeddingModel(16);
+
+    private List<RagDocument> documents(int count) {
+        List<RagDocument> documents = new ArrayList<RagDocument>();
+        for (int i = 0; i < count; i++) {
+            String text = "doc-" + i;
+            embeddingModel.register(text);
+            Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+            metadata.put("tenant", "t" + (i % 5));
+            metadata.put("year", 2000 + (i % 25));
+            if (i % 7 == 0) {
+                metadata.put("source", "wiki");
+            }
+            documents.add(RagDocument.builder().id(text).text(text).metadata(metadata).build());
+        }
+        embeddingModel.register("q");
+        return documents;
+    }
+
+    private Set<String> expected(List<RagDocument> documents, FilterExpression filter) {
+        Set<String> ids = new HashSet<String>();
+        for (RagDocument doc : documents) {
+            if (filter.test(doc.getMetadata())) {
+                ids.add(doc.getId());
+            }
+        }
+        return ids;
+    }
+
+    private Set<String> search(VectorStore store, FilterExpression filter, int topK) {
+        Set<String> ids = new HashSet<String>();
+        for (RagDocument doc : store.similaritySearch(SearchRequest.builder()
+                .query("q")
+                .topK(topK)
+                .similarityThreshold(-1d)
+                .filterExpression(filter)
+                .build())) {
+            ids.add(doc.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testIndexedEvaluationMatchesPredicate() {
+        List<RagDocument> documents = documents(500);
+        InMemoryVectorStore store = new InMemoryVectorStore(embeddingModel);
+        store.add(documents);
+
+        List<FilterExpression> filters = Arrays.asList(
+                FilterExpression.eq("tenant", "t1"),
+                FilterExpression.ne("tenant", "t1"),
+                FilterExpression.in("tenant", "t2", "t3"),
+                FilterExpression.range("year", 2005, 2010),
+                FilterExpression.gt("year", 2020L),
+                FilterExpression.lt("year", 2003.5d),
+                FilterExpression.eq("source", null),
+                FilterExpression.and(FilterExpression.eq("source", "wiki"), FilterExpression.gte("year", 2012)),
+                FilterExpression.or(FilterExpression.eq("tenant", "t0"), FilterExpression.lte("year", 2001)),
+                FilterExpression.not(FilterExpression.or(
+                        FilterExpression.in("tenant", "t0", "t4"),
+                        FilterExpression.eq("source", "wiki"))),
+                FilterExpression.gt("tenant", 3));
+        for (FilterExpression filter : filters) {
+            Assert.assertEquals(filter.toString(), expected(documents, filter), search(store, filter, 1000));
+        }
+    }
+
+    @Test
+    public void testHnswPlansSelectiveAndBroadFilters() {
+        List<RagDocument> documents = documents(2000);
+        HnswVectorStore hnsw = HnswVectorStore.builder().embeddingModel(embeddingModel).efSearch(32).build();
+        hnsw.add(documents);
+        InMemoryVectorStore exact = new InMemoryVectorStore(embeddingModel);
+        exact.add(documents);
+
+        // Matches 16 documents: scored exactly instead of walking the graph.
+        FilterExpression selective = FilterExpression.and(
+                FilterExpression.eq("tenant", "t3"), FilterExpression.eq("year", 2008));
+        Assert.assertEquals(search(exact, selective, 10), search(hnsw, selective, 10));
+
+        // Matches 80% of the corpus: graph walk with the filter applied.
+        FilterExpression broad = FilterExpression.ne("tenant", "t0");
+        Set<String> hits = search(hnsw, broad, 10);
+        Assert.assertEquals(10, hits.size());
+        for (RagDocument doc : documents) {
+            if (hits.contains(doc.getId())) {
+                Assert.assertNotEquals("t0", doc.getMetadata().get("tenant"));
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.bobo.llm4j.rag;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import com.bobo.llm4j.rag.embedding.EmbeddingModel;
+import com.bobo.llm4j.rag.vectorstore.HnswVectorStore;
+import com.bobo.llm4j.rag.vectorstore.InMemoryVectorStore;
+import com.bobo.llm4j.rag.vectorstore.SearchRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class HnswVectorStoreTest {
+
+    /**
+     * Embedding model backed by a pre-generated table of random vectors.
+     */
+    static class RandomEmbeddingModel implements EmbeddingModel {
+        private final Map<String, List<Double>> vectors = new HashMap<String, List<Double>>();
+        private final Random random = new Random(42);
+        private final int dimension;
+
+        RandomEmbeddingModel(int dimension) {
+            this.dimension = dimension;
+        }
+
+        synchronized void register(String text) {
+            List<Double> vector = new ArrayList<Double>(dimension);
+            for (int i = 0; i < dimension; i++) {
+                vector.add(random.nextGaussian());
+            }
+            vectors.put(text, vector);
+        }
+
+        @Override
+        public synchronized List<List<Double>> embedAll(List<String> texts) {
+            List<List<Double>> result = new ArrayList<List<Double>>();
+            for (String text : texts) {
+                result.add(vectors.get(text));
+            }
+            return result;
+        }
+    }
+
+    @Test
+    public void testRecallAgainstExactSearch() {
+        RandomEmbeddingModel embeddingModel = new RandomEmbeddingModel(24);
+        List<RagDocument> documents = new ArrayList<RagDocument>();
+        for (int i = 0; i < 1500; i++) {
+            embeddingModel.register("doc-" + i);
+            documents.add(RagDocument.builder().id("doc-" + i).text("doc-" + i).build());
+        }
+        for (int i = 0; i < 20; i++) {
+            embeddingModel.register("query-" + i);
+        }
+
+        HnswVectorStore hnsw = HnswVectorStore.builder()
+                .embeddingModel(embeddingModel)
+                .m(12)
+                .efConstruction(100)
+                .efSearch(80)
+                .build();
+        hnsw.add(documents);
+        InMemoryVectorStore exact = new InMemoryVectorStore(embeddingModel);
+        exact.add(documents);
+
+        int matched = 0;
+        for (int i = 0; i < 20; i++) {
+            SearchRequest request = SearchRequest.builder()
+                    .query("query-" + i)
+                    .topK(10)
+                    .similarityThreshold(-1d)
+                    .build();
+            Set<String> expected = new HashSet<String>();
+            for (RagDocument doc : exact.similaritySearch(request)) {
+                expected.add(doc.getId());
+            }
+            List<RagDocument> hits = hnsw.similaritySearch(request);
+            Assert.assertEquals(10, hits.size());
+            for (RagDocument doc : hits) {
+                if (expected.contains(doc.getId())) {
+                    matched++;
+                }
+            }
+        }
+        Assert.assertTrue("recall too low: " + matched, matched >= 180);
+    }
+
+    @Test
+    public void testQueryOfAnotherDimensionIsRejected() {
+        RandomEmbeddingModel embeddingModel = new RandomEmbeddingModel(8);
+        embeddingModel.register("doc");
+        HnswVectorStore hnsw = HnswVectorStore.builder().embeddingModel(embeddingModel).build();
+        hnsw.add(Collections.singletonList(RagDocument.builder().id("doc").text("doc").build()));
+        try {
+            hnsw.similaritySearch(SearchRequest.builder().queryEmbedding(new float[4]).topK(1).build());
+            Assert.fail("expected a dimension mismatch");
+        } catch (IllegalArgumentException expected) {
+            Assert.assertTrue(expected.getMessage().contains("expected 8 but was 4"));
+        }
+    }
+
+    @Test
+    public void testConcurrentInsertFilterAndDelete() throws Exception {
+        final RandomEmbeddingModel embeddingModel = new RandomEmbeddingModel(16);
+        final HnswVectorStore store = new HnswVectorStore(embeddingModel);
+        embeddingModel.register("q");
+
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            final String tenant = "t" + t;
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100; i++) {
+                        String text = tenant + "-" + i;
+                        embeddingModel.register(text);
+                        Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+                        metadata.put("tenant", tenant);
+                        store.add(Collections.singletonList(
+                                RagDocument.builder().id(text).text(text).metadata(metadata).build()));
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        Map<String, Object> filters = new LinkedHashMap<String, Object>();
+        filters.put("tenant", "t2");
+        List<RagDocument> hits = store.similaritySearch(SearchRequest.builder()
+                .query("q")
+                .topK(5)
+                .similarityThreshold(-1d)
+                .metadataFilters(filters)
+                .build());
+        Assert.assertEquals(5, hits.size());
+        for (RagDocument hit : hits) {
+            Assert.assertEquals("t2", hit.getMetadata().get("tenant"));
+        }
+
+        store.deleteByMetadata("tenant", "t2");
+        hits = store.similaritySearch(SearchRequest.builder()
+                .query("q")
+                .topK(5)
+                .similarityThreshold(-1d)
+                .metadataFilters(filters)
+                .build());
+        Assert.assertTrue(hits.isEmpty());
+    }
+}
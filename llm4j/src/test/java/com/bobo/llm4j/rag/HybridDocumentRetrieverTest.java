@@ -0,0 +1,189 @@
+package com.bobo.llm4j.rag;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import com.bobo.llm4j.rag.embedding.EmbeddingModel;
+import com.bobo.llm4j.rag.retrieval.HybridDocumentRetriever;
+import com.bobo.llm4j.rag.vectorstore.Bm25Index;
+import com.bobo.llm4j.rag.vectorstore.HnswVectorStore;
+import com.bobo.llm4j.rag.vectorstore.HybridVectorStore;
+import com.bobo.llm4j.rag.vectorstore.InMemoryVectorStore;
+import com.bobo.llm4j.rag.vectorstore.SearchRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HybridDocumentRetrieverTest {
+
+    private static RagDocument doc(String id, String text, String topic) {
+        Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+        metadata.put("topic", topic);
+        return RagDocument.builder().id(id).text(text).metadata(metadata).build();
+    }
+
+    private final List<RagDocument> documents = Arrays.asList(
+            doc("d1", "The printer reports error ERR-4012 when the paper tray is empty.", "printer"),
+            doc("d2", "Refill the paper tray and restart the printer.", "printer"),
+            doc("d3", "Java streams process collections lazily.", "java"),
+            doc("d4", "Error handling in Java uses checked and unchecked exceptions.", "java"));
+
+    @Test
+    public void testBm25RanksByTermsAndTracksDeletes() {
+        Bm25Index index = new Bm25Index();
+        index.add(documents);
+
+        List<RagDocument> hits = index.search(SearchRequest.builder().query("java exceptions").topK(10).build());
+        Assert.assertEquals(2, hits.size());
+        Assert.assertEquals("d4", hits.get(0).getId());
+        Assert.assertEquals("d3", hits.get(1).getId());
+        Assert.assertTrue(hits.get(0).getScore() > hits.get(1).getScore());
+
+        Map<String, Object> filters = new LinkedHashMap<String, Object>();
+        filters.put("topic", "printer");
+        hits = index.search(SearchRequest.builder().query("error").topK(10).metadataFilters(filters).build());
+        Assert.assertEquals(1, hits.size());
+        Assert.assertEquals("d1", hits.get(0).getId());
+
+        index.deleteByMetadata("topic", "java");
+        Assert.assertEquals(2, index.size());
+        Assert.assertTrue(index.search(SearchRequest.builder().query("java").topK(10).build()).isEmpty());
+        index.add(Collections.singletonList(doc("d5", "Java records are immutable.", "java")));
+        index.add(Collections.singletonList(doc("d5", "Java records are immutable.", "java")));
+        hits = index.search(SearchRequest.builder().query("JAVA").topK(10).build());
+        Assert.assertEquals(1, hits.size());
+        Assert.assertEquals("d5", hits.get(0).getId());
+
+        // Re-adding an id replaces the indexed text.
+        index.add(Collections.singletonList(doc("d2", "Replace the toner cartridge.", "printer")));
+        Assert.assertTrue(index.search(SearchRequest.builder().query("refill").topK(10).build()).isEmpty());
+        Assert.assertEquals("d2", index.search(SearchRequest.builder().query("toner").topK(10).build()).get(0).getId());
+        Assert.assertEquals(3, index.size());
+
+        Assert.assertEquals(2, index.search(SearchRequest.builder().query("toner error").topK(10).build()).size());
+        Assert.assertTrue(index.searchAllTerms(SearchRequest.builder().query("toner error").topK(10).build()).isEmpty());
+        Assert.assertEquals("d2", index.searchAllTerms(SearchRequest.builder().query("toner cartridge").topK(10).build())
+                .get(0).getId());
+    }
+
+    @Test
+    public void testFusesRankingsAndShortCircuitsExactTerms() throws Exception {
+        final InMemoryVectorStoreTest.FixedEmbeddingModel vectors = new InMemoryVectorStoreTest.FixedEmbeddingModel()
+                .put(documents.get(0).getText(), 1.0d, 0.0d)
+                .put(documents.get(1).getText(), 0.9d, 0.1d)
+                .put(documents.get(2).getText(), 0.0d, 1.0d)
+                .put(documents.get(3).getText(), 0.3d, 0.7d)
+                .put("paper tray empty", 1.0d, 0.0d);
+        final AtomicInteger embedCalls = new AtomicInteger();
+        EmbeddingModel embeddingModel = new EmbeddingModel() {
+            @Override
+            public List<List<Double>> embedAll(List<String> texts) {
+                embedCalls.incrementAndGet();
+                return vectors.embedAll(texts);
+            }
+        };
+        HybridVectorStore store = new HybridVectorStore(new InMemoryVectorStore(embeddingModel));
+        store.add(documents);
+        HybridDocumentRetriever retriever = HybridDocumentRetriever.builder()
+                .vectorStore(store)
+                .embeddingModel(embeddingModel)
+                .topK(2)
+                .build();
+
+        embedCalls.set(0);
+        List<RagDocument> hits = retriever.retrieve("ERR-4012", null);
+        Assert.assertEquals(0, embedCalls.get());
+        Assert.assertEquals("d1", hits.get(0).getId());
+        Assert.assertEquals(1d / 61, hits.get(0).getScore(), 1e-9d);
+
+        // d1 shares only the "err" sub-token, so this is not an exact match and is fused.
+        hits = retriever.retrieve("ERR-9999", null);
+        Assert.assertEquals(1, embedCalls.get());
+        Assert.assertFalse(hits.isEmpty());
+        Assert.assertTrue(hits.get(0).getScore() < 1d);
+
+        // d1 and d2 rank top in both lists.
+        hits = retriever.retrieve("paper tray empty", null);
+        Assert.assertEquals(2, embedCalls.get());
+        Assert.assertEquals(2, hits.size());
+        Assert.assertEquals("d1", hits.get(0).getId());
+        Assert.assertEquals("d2", hits.get(1).getId());
+        Assert.assertEquals(2d / 61, hits.get(0).getScore(), 1e-9d);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            hits = HybridDocumentRetriever.builder().vectorStore(store).executor(executor).topK(2).build()
+                    .retrieve("paper tray empty", null);
+            Assert.assertEquals(3, embedCalls.get());
+            Assert.assertEquals("d1", hits.get(0).getId());
+            Assert.assertEquals("d2", hits.get(1).getId());
+        } finally {
+            executor.shutdown();
+        }
+        try {
+            HybridDocumentRetriever.builder().vectorStore(store).build();
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+
+        store.deleteByMetadata("topic", "printer");
+        hits = retriever.retrieve("paper tray empty", null);
+        for (RagDocument hit : hits) {
+            Assert.assertEquals("java", hit.getMetadata().get("topic"));
+        }
+    }
+
+    @Test
+    public void testReaddedDocumentsLeaveNoStaleVectorHits() {
+        final InMemoryVectorStoreTest.FixedEmbeddingModel vectors = new InMemoryVectorStoreTest.FixedEmbeddingModel()
+                .put(documents.get(0).getText(), 1.0d, 0.0d)
+                .put(documents.get(1).getText(), 0.9d, 0.1d)
+                .put(documents.get(2).getText(), 0.0d, 1.0d)
+                .put(documents.get(3).getText(), 0.3d, 0.7d)
+                .put("Printer error codes are listed in the manual.", 0.95d, 0.05d)
+                .put("printer", 1.0d, 0.0d);
+        final AtomicInteger embedded = new AtomicInteger();
+        EmbeddingModel embeddingModel = new EmbeddingModel() {
+            @Override
+            public List<List<Double>> embedAll(List<String> texts) {
+                embedded.addAndGet(texts.size());
+                return vectors.embedAll(texts);
+            }
+        };
+        // HNSW appends on re-add, so the wrapper has to keep the two sides in step.
+        HybridVectorStore store = new HybridVectorStore(new HnswVectorStore(embeddingModel));
+        store.add(documents);
+
+        embedded.set(0);
+        store.add(Arrays.asList(
+                doc("d1", "Printer error codes are listed in the manual.", "manual"),
+                documents.get(1)));
+        Assert.assertEquals(1, embedded.get());
+
+        List<RagDocument> hits = store.similaritySearch(SearchRequest.builder().query("printer").topK(10).build());
+        Assert.assertEquals(4, hits.size());
+        Set<String> ids = new HashSet<String>();
+        for (RagDocument hit : hits) {
+            Assert.assertTrue(ids.add(hit.getId()));
+        }
+        Assert.assertEquals("d1", hits.get(0).getId());
+        Assert.assertEquals("Printer error codes are listed in the manual.", hits.get(0).getText());
+        Assert.assertEquals("manual", hits.get(0).getMetadata().get("topic"));
+
+        // The old copy of d1 still matches the filter in the vector store, but is not current.
+        Map<String, Object> printer = new HashMap<String, Object>();
+        printer.put("topic", "printer");
+        hits = store.similaritySearch(SearchRequest.builder().query("printer").topK(2).metadataFilters(printer).build());
+        Assert.assertEquals(1, hits.size());
+        Assert.assertEquals("d2", hits.get(0).getId());
+
+        // Stale copies take places in the first page, so the top two are fetched again.
+        List<List<RagDocument>> batch = store.batchSimilaritySearch(Collections.singletonList(
+                SearchRequest.builder().query("printer").topK(2).build()));
+        Assert.assertEquals(2, batch.get(0).size());
+        Assert.assertEquals("d1", batch.get(0).get(0).getId());
+        Assert.assertEquals("d2", batch.get(0).get(1).getId());
+    }
+}
@@ -4,13 +4,24 @@ import com.bobo.llm4j.rag.document.RagDocument;
 import com.bobo.llm4j.rag.embedding.EmbeddingModel;
 import com.bobo.llm4j.rag.vectorstore.InMemoryVectorStore;
 import com.bobo.llm4j.rag.vectorstore.SearchRequest;
+import com.bobo.llm4j.rag.vectorstore.VectorQuantization;
+import com.bobo.llm4j.rag.vectorstore.VectorStorage;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class InMemoryVectorStoreTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     /**
      * Fixed embedding model that maps each text to a deterministic vector
      * so test assertions remain stable.
@@ -122,4 +133,562 @@ public class InMemoryVectorStoreTest {
         Assert.assertEquals(1, hits.size());
         Assert.assertEquals("w1", hits.get(0).getId());
     }
+
+    @Test
+    public void testOffHeapStorageMatchesHeapRanking() {
+        FixedEmbeddingModel embeddingModel = new FixedEmbeddingModel()
+                .put("A", 1.0d, 0.0d, 0.0d)
+                .put("B", 0.6d, 0.8d, 0.0d)
+                .put("C", 0.0d, 0.0d, 1.0d)
+                .put("q", 1.0d, 0.1d, 0.0d);
+
+        InMemoryVectorStore store = InMemoryVectorStore.builder()
+                .embeddingModel(embeddingModel)
+                .storage(VectorStorage.OFF_HEAP)
+                .build();
+        store.add(Arrays.asList(
+                RagDocument.builder().id("a").text("A").build(),
+                RagDocument.builder().id("b").text("B").build(),
+                RagDocument.builder().id("c").text("C").build()));
+
+        List<RagDocument> hits = store.similaritySearch(SearchRequest.builder()
+                .query("q")
+                .topK(3)
+                .similarityThreshold(0.1d)
+                .build());
+        Assert.assertEquals(2, hits.size());
+        Assert.assertEquals("a", hits.get(0).getId());
+        Assert.assertEquals("b", hits.get(1).getId());
+        Assert.assertEquals(0.995d, hits.get(0).getScore(), 0.001d);
+    }
+
+    @Test
+    public void testInt8QuantizationRescoresToExactRanking() {
+        HnswVectorStoreTest.RandomEmbeddingModel embeddingModel = new HnswVectorStoreTest.RandomEmbeddingModel(32);
+        List<RagDocument> documents = new ArrayList<RagDocument>();
+        for (int i = 0; i < 500; i++) {
+            embeddingModel.register("doc-" + i);
+            documents.add(RagDocument.builder().id("doc-" + i).text("doc-" + i).build());
+        }
+        embeddingModel.register("q");
+
+        InMemoryVectorStore exact = new InMemoryVectorStore(embeddingModel);
+        exact.add(documents);
+        InMemoryVectorStore quantized = InMemoryVectorStore.builder()
+                .embeddingModel(embeddingModel)
+                .storage(VectorStorage.OFF_HEAP)
+                .quantization(VectorQuantization.INT8)
+                .rescoreMultiplier(4)
+                .build();
+        quantized.add(documents);
+
+        SearchRequest request = SearchRequest.builder().query("q").topK(5).similarityThreshold(-1d).build();
+        List<RagDocument> expected = exact.similaritySearch(request);
+        List<RagDocument> hits = quantized.similaritySearch(request);
+        Assert.assertEquals(expected.size(), hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            Assert.assertEquals(expected.get(i).getId(), hits.get(i).getId());
+            Assert.assertEquals(expected.get(i).getScore(), hits.get(i).getScore(), 1e-6d);
+        }
+    }
+
+    @Test
+    public void testQuantizedRecallAfterIncrementalIngestion() {
+        HnswVectorStoreTest.RandomEmbeddingModel embeddingModel = new HnswVectorStoreTest.RandomEmbeddingModel(32);
+        List<RagDocument> documents = new ArrayList<RagDocument>();
+        for (int i = 0; i < 2001; i++) {
+            embeddingModel.register("doc-" + i);
+            documents.add(RagDocument.builder().id("doc-" + i).text("doc-" + i).build());
+        }
+        for (int i = 0; i < 20; i++) {
+            embeddingModel.register("query-" + i);
+        }
+        InMemoryVectorStore exact = new InMemoryVectorStore(embeddingModel);
+        InMemoryVectorStore int8 = InMemoryVectorStore.builder()
+                .embeddingModel(embeddingModel).quantization(VectorQuantization.INT8).build();
+        InMemoryVectorStore binary = InMemoryVectorStore.builder()
+                .embeddingModel(embeddingModel).quantization(VectorQuantization.BINARY).build();
+        List<InMemoryVectorStore> stores = Arrays.asList(exact, int8, binary);
+
+        // A first batch of one document must not fix the code ranges for everything after it.
+        for (InMemoryVectorStore store : stores) {
+            store.add(documents.subList(0, 1));
+            store.add(documents.subList(1, 1001));
+        }
+        assertRecall(exact, int8, 190);
+        assertRecall(exact, binary, 120);
+
+        for (RagDocument document : documents.subList(1001, 2001)) {
+            for (InMemoryVectorStore store : stores) {
+                store.add(Collections.singletonList(document));
+            }
+        }
+        assertRecall(exact, int8, 190);
+        assertRecall(exact, binary, 120);
+    }
+
+    /**
+     * Top-10 hits of 20 queries that the quantized store shares with the exact ranking.
+     */
+    private static void assertRecall(InMemoryVectorStore exact, InMemoryVectorStore quantized, int minimum) {
+        int matched = 0;
+        for (int i = 0; i < 20; i++) {
+            SearchRequest request = SearchRequest.builder().query("query-" + i).topK(10)
+                    .similarityThreshold(-1d).build();
+            Set<String> expected = new HashSet<String>();
+            for (RagDocument doc : exact.similaritySearch(request)) {
+                expected.add(doc.getId());
+            }
+            for (RagDocument doc : quantized.similaritySearch(request)) {
+                if (expected.contains(doc.getId())) {
+                    matched++;
+                }
+            }
+        }
+        Assert.assertTrue("recall too low: " + matched, matched >= minimum);
+    }
+
+    @Test
+    public void testBinaryQuantizationFindsNearestNeighbour() {
+        HnswVectorStoreTest.RandomEmbeddingModel embeddingModel = new HnswVectorStoreTest.RandomEmbeddingModel(128);
+        List<RagDocument> documents = new ArrayList<RagDocument>();
+        for (int i = 0; i < 300; i++) {
+            embeddingModel.register("doc-" + i);
+            documents.add(RagDocument.builder().id("doc-" + i).text("doc-" + i).build());
+        }
+
+        InMemoryVectorStore store = InMemoryVectorStore.builder()
+                .embeddingModel(embeddingModel)
+                .quantization(VectorQuantization.BINARY)
+                .build();
+        store.add(documents);
+
+        // Each stored vector must rank itself first: its signature has Hamming distance 0.
+        for (int i = 0; i < 300; i += 37) {
+            List<RagDocument> hits = store.similaritySearch(SearchRequest.builder()
+                    .query("doc-" + i)
+                    .topK(1)
+                    .similarityThreshold(-1d)
+                    .build());
+            Assert.assertEquals("doc-" + i, hits.get(0).getId());
+            Assert.assertEquals(1.0d, hits.get(0).getScore(), 1e-6d);
+        }
+    }
+
+    @Test
+    public void testParallelSegmentScanMatchesSequentialScan() {
+        HnswVectorStoreTest.RandomEmbeddingModel embeddingModel = new HnswVectorStoreTest.RandomEmbeddingModel(16);
+        List<RagDocument> documents = new ArrayList<RagDocument>();
+        for (int i = 0; i < 2000; i++) {
+            embeddingModel.register("doc-" + i);
+            Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+            metadata.put("parity", i % 2 == 0 ? "even" : "odd");
+            documents.add(RagDocument.builder().id("doc-" + i).text("doc-" + i).metadata(metadata).build());
+        }
+        embeddingModel.register("q");
+
+        InMemoryVectorStore sequential = new InMemoryVectorStore(embeddingModel);
+        sequential.add(documents);
+        InMemoryVectorStore parallel = InMemoryVectorStore.builder()
+                .embeddingModel(embeddingModel)
+                .segmentSize(100)
+                .build();
+        parallel.add(documents);
+
+        Map<String, Object> filters = new LinkedHashMap<String, Object>();
+        filters.put("parity", "odd");
+        SearchRequest request = SearchRequest.builder()
+                .query("q")
+                .topK(10)
+                .similarityThreshold(-1d)
+                .metadataFilters(filters)
+                .build();
+        List<RagDocument> expected = sequential.similaritySearch(request);
+        List<RagDocument> hits = parallel.similaritySearch(request);
+        Assert.assertEquals(10, hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            Assert.assertEquals(expected.get(i).getId(), hits.get(i).getId());
+            Assert.assertEquals("odd", hits.get(i).getMetadata().get("parity"));
+        }
+    }
+
+    @Test
+    public void testTombstonedDeletesAreCompactedWhileSearching() throws Exception {
+        final HnswVectorStoreTest.RandomEmbeddingModel embeddingModel = new HnswVectorStoreTest.RandomEmbeddingModel(8);
+        final AtomicInteger compactions = new AtomicInteger();
+        final InMemoryVectorStore store = InMemoryVectorStore.builder()
+                .embeddingModel(embeddingModel)
+                .quantization(VectorQuantization.INT8)
+                .compactionExecutor(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        compactions.incrementAndGet();
+                        command.run();
+                    }
+                })
+                .build();
+        embeddingModel.register("q");
+        final SearchRequest request = SearchRequest.builder().query("q").topK(20).similarityThreshold(-1d).build();
+        final AtomicReference<Throwable> readerFailure = new AtomicReference<Throwable>();
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 200; i++) {
+                        store.similaritySearch(request);
+                    }
+                } catch (Throwable e) {
+                    readerFailure.set(e);
+                }
+            }
+        });
+        reader.start();
+        for (int batch = 0; batch < 20; batch++) {
+            List<RagDocument> documents = new ArrayList<RagDocument>();
+            for (int i = 0; i < 50; i++) {
+                String text = "doc-" + batch + "-" + i;
+                embeddingModel.register(text);
+                Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+                metadata.put("batch", batch % 2 == 0 ? "keep" : "drop");
+                documents.add(RagDocument.builder().id(text).text(text).metadata(metadata).build());
+            }
+            store.add(documents);
+            store.deleteByMetadata("batch", "drop");
+        }
+        reader.join();
+
+        Assert.assertTrue(compactions.get() > 0);
+        Assert.assertNull(readerFailure.get());
+        List<RagDocument> hits = store.similaritySearch(request.toBuilder().topK(1000).build());
+        Assert.assertEquals(500, hits.size());
+        for (RagDocument hit : hits) {
+            Assert.assertEquals("keep", hit.getMetadata().get("batch"));
+        }
+    }
+
+    @Test
+    public void testIndexedFiltersMatchExactSemantics() {
+        HnswVectorStoreTest.RandomEmbeddingModel embeddingModel = new HnswVectorStoreTest.RandomEmbeddingModel(8);
+        List<RagDocument> documents = new ArrayList<RagDocument>();
+        for (int i = 0; i < 300; i++) {
+            String text = "doc-" + i;
+            embeddingModel.register(text);
+            Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+            metadata.put("tenant", "t" + (i % 3));
+            if (i % 10 == 0) {
+                metadata.put("source", "wiki");
+            }
+            documents.add(RagDocument.builder().id(text).text(text).metadata(metadata).build());
+        }
+        embeddingModel.register("q");
+        InMemoryVectorStore store = new InMemoryVectorStore(embeddingModel);
+        store.add(documents);
+        SearchRequest request = SearchRequest.builder().query("q").topK(1000).similarityThreshold(-1d).build();
+
+        Map<String, Object> filters = new LinkedHashMap<String, Object>();
+        filters.put("tenant", "t0");
+        filters.put("source", "wiki");
+        List<RagDocument> hits = store.similaritySearch(request.toBuilder().metadataFilters(filters).build());
+        Assert.assertEquals(10, hits.size());
+
+        // A null filter value matches documents without the key.
+        filters.put("source", null);
+        hits = store.similaritySearch(request.toBuilder().metadataFilters(filters).build());
+        Assert.assertEquals(90, hits.size());
+        for (RagDocument hit : hits) {
+            Assert.assertNull(hit.getMetadata().get("source"));
+        }
+
+        store.deleteByMetadata("source", "wiki");
+        filters.remove("source");
+        hits = store.similaritySearch(request.toBuilder().metadataFilters(filters).build());
+        Assert.assertEquals(90, hits.size());
+        filters.put("tenant", "t9");
+        Assert.assertTrue(store.similaritySearch(request.toBuilder().metadataFilters(filters).build()).isEmpty());
+    }
+
+    @Test
+    public void testBatchSearchMatchesSingleSearches() {
+        final HnswVectorStoreTest.RandomEmbeddingModel delegate = new HnswVectorStoreTest.RandomEmbeddingModel(12);
+        final AtomicInteger embedCalls = new AtomicInteger();
+        EmbeddingModel embeddingModel = new EmbeddingModel() {
+            @Override
+            public List<List<Double>> embedAll(List<String> texts) {
+                embedCalls.incrementAndGet();
+                return delegate.embedAll(texts);
+            }
+        };
+        List<RagDocument> documents = new ArrayList<RagDocument>();
+        for (int i = 0; i < 1000; i++) {
+            delegate.register("doc-" + i);
+            Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+            metadata.put("bucket", i % 4);
+            documents.add(RagDocument.builder().id("doc-" + i).text("doc-" + i).metadata(metadata).build());
+        }
+        InMemoryVectorStore store = InMemoryVectorStore.builder()
+                .embeddingModel(embeddingModel)
+                .segmentSize(128)
+                .build();
+        store.add(documents);
+        store.deleteByMetadata("bucket", 3);
+
+        List<SearchRequest> requests = new ArrayList<SearchRequest>();
+        for (int i = 0; i < 8; i++) {
+            delegate.register("q-" + i);
+            Map<String, Object> filters = new LinkedHashMap<String, Object>();
+            if (i % 2 == 0) {
+                filters.put("bucket", i % 3);
+            }
+            requests.add(SearchRequest.builder()
+                    .query("q-" + i)
+                    .topK(3 + i)
+                    .similarityThreshold(i == 5 ? 0.3d : -1d)
+                    .metadataFilters(filters)
+                    .build());
+        }
+        requests.add(SearchRequest.builder().query("").build());
+
+        embedCalls.set(0);
+        List<List<RagDocument>> batch = store.batchSimilaritySearch(requests);
+        Assert.assertEquals(1, embedCalls.get());
+        Assert.assertEquals(requests.size(), batch.size());
+        for (int i = 0; i < requests.size(); i++) {
+            List<RagDocument> single = store.similaritySearch(requests.get(i));
+            Assert.assertEquals(single.size(), batch.get(i).size());
+            for (int j = 0; j < single.size(); j++) {
+                Assert.assertEquals(single.get(j).getId(), batch.get(i).get(j).getId());
+                Assert.assertEquals(single.get(j).getScore(), batch.get(i).get(j).getScore(), 1e-9d);
+            }
+        }
+        Assert.assertTrue(batch.get(requests.size() - 1).isEmpty());
+    }
+
+    @Test
+    public void testUpsertSkipsUnchangedContent() {
+        final HnswVectorStoreTest.RandomEmbeddingModel delegate = new HnswVectorStoreTest.RandomEmbeddingModel(8);
+        final List<String> embedded = new ArrayList<String>();
+        EmbeddingModel embeddingModel = new EmbeddingModel() {
+            @Override
+            public List<List<Double>> embedAll(List<String> texts) {
+                embedded.addAll(texts);
+                return delegate.embedAll(texts);
+            }
+        };
+        for (String text : Arrays.asList("alpha", "beta", "gamma", "alpha v2")) {
+            delegate.register(text);
+        }
+        InMemoryVectorStore store = new InMemoryVectorStore(embeddingModel);
+        store.add(Arrays.asList(
+                RagDocument.builder().id("a").text("alpha").build(),
+                RagDocument.builder().id("b").text("beta").build()));
+        Assert.assertEquals(Arrays.asList("alpha", "beta"), embedded);
+
+        // Nightly re-ingest: "a" unchanged, "b" changed, "c" duplicates the text of "a".
+        embedded.clear();
+        Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+        metadata.put("rev", 2);
+        store.add(Arrays.asList(
+                RagDocument.builder().id("a").text("alpha").build(),
+                RagDocument.builder().id("b").text("gamma").build(),
+                RagDocument.builder().id("c").text("alpha").metadata(metadata).build()));
+        Assert.assertEquals(Collections.singletonList("gamma"), embedded);
+
+        embedded.clear();
+        store.add(Collections.singletonList(RagDocument.builder().id("a").text("alpha v2").build()));
+        Assert.assertEquals(Collections.singletonList("alpha v2"), embedded);
+
+        delegate.register("q");
+        List<RagDocument> hits = store.similaritySearch(
+                SearchRequest.builder().query("q").topK(10).similarityThreshold(-1d).build());
+        Map<String, String> textById = new HashMap<String, String>();
+        for (RagDocument hit : hits) {
+            Assert.assertNull(textById.put(hit.getId(), hit.getText()));
+        }
+        Assert.assertEquals(3, textById.size());
+        Assert.assertEquals("alpha v2", textById.get("a"));
+        Assert.assertEquals("gamma", textById.get("b"));
+        Assert.assertEquals("alpha", textById.get("c"));
+    }
+
+    @Test
+    public void testMappedDocumentsMatchHeapDocuments() throws Exception {
+        HnswVectorStoreTest.RandomEmbeddingModel embeddingModel = new HnswVectorStoreTest.RandomEmbeddingModel(8);
+        File directory = folder.newFolder("documents");
+        InMemoryVectorStore heap = new InMemoryVectorStore(embeddingModel);
+        InMemoryVectorStore mapped = InMemoryVectorStore.builder()
+                .embeddingModel(embeddingModel)
+                .documentDirectory(directory.toPath())
+                .compactionExecutor(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                })
+                .build();
+        List<RagDocument> documents = new ArrayList<RagDocument>();
+        for (int i = 0; i < 200; i++) {
+            String text = "document " + i + " \u00e9t\u00e9";
+            embeddingModel.register(text);
+            Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+            metadata.put("group", i % 4);
+            documents.add(RagDocument.builder().id("d" + i).text(text).metadata(metadata).build());
+        }
+        embeddingModel.register("");
+        documents.add(RagDocument.builder().id("no-text").text(null).metadata(null).build());
+        heap.add(documents);
+        mapped.add(documents);
+        embeddingModel.register("q");
+        SearchRequest request = SearchRequest.builder().query("q").topK(1000).similarityThreshold(-1d).build();
+        Assert.assertEquals(heap.similaritySearch(request), mapped.similaritySearch(request));
+
+        heap.deleteByMetadata("group", 1);
+        mapped.deleteByMetadata("group", 2);
+        mapped.deleteByMetadata("group", 1);
+        heap.deleteByMetadata("group", 2);
+        Assert.assertEquals(1, directory.list().length);
+        List<RagDocument> hits = mapped.similaritySearch(request);
+        Assert.assertEquals(101, hits.size());
+        Assert.assertEquals(heap.similaritySearch(request), hits);
+        Map<String, Object> filter = new LinkedHashMap<String, Object>();
+        filter.put("group", 3);
+        Assert.assertEquals(heap.similaritySearch(request.toBuilder().metadataFilters(filter).build()),
+                mapped.similaritySearch(request.toBuilder().metadataFilters(filter).build()));
+
+        // Unchanged documents are recognised from the log and not appended again.
+        mapped.add(documents.subList(0, 1));
+        Assert.assertEquals(101, mapped.similaritySearch(request).size());
+    }
+
+    @Test
+    public void testMappedStoresSharingDirectoryKeepTheirOwnLogs() throws Exception {
+        HnswVectorStoreTest.RandomEmbeddingModel embeddingModel = new HnswVectorStoreTest.RandomEmbeddingModel(8);
+        File directory = folder.newFolder("shared");
+        InMemoryVectorStore first = InMemoryVectorStore.builder()
+                .embeddingModel(embeddingModel).documentDirectory(directory.toPath()).build();
+        embeddingModel.register("first text");
+        embeddingModel.register("second text");
+        embeddingModel.register("q");
+        first.add(Collections.singletonList(RagDocument.builder().id("a").text("first text").build()));
+
+        InMemoryVectorStore second = InMemoryVectorStore.builder()
+                .embeddingModel(embeddingModel).documentDirectory(directory.toPath()).build();
+        second.add(Collections.singletonList(RagDocument.builder().id("b").text("second text").build()));
+        Assert.assertEquals(2, directory.list().length);
+
+        SearchRequest request = SearchRequest.builder().query("q").topK(10).similarityThreshold(-1d).build();
+        Assert.assertEquals("first text", first.similaritySearch(request).get(0).getText());
+        Assert.assertEquals("second text", second.similaritySearch(request).get(0).getText());
+    }
+
+    @Test
+    public void testMappedFiltersSurviveCompaction() throws Exception {
+        HnswVectorStoreTest.RandomEmbeddingModel embeddingModel = new HnswVectorStoreTest.RandomEmbeddingModel(8);
+        File directory = folder.newFolder("compacted");
+        InMemoryVectorStore store = InMemoryVectorStore.builder()
+                .embeddingModel(embeddingModel)
+                .documentDirectory(directory.toPath())
+                .compactionExecutor(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                })
+                .build();
+        Date created = new Date(1700000000000L);
+        List<RagDocument> documents = new ArrayList<RagDocument>();
+        for (int i = 0; i < 8; i++) {
+            String text = "document " + i;
+            embeddingModel.register(text);
+            Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+            metadata.put("version", (long) (i % 2));
+            metadata.put("created", created);
+            documents.add(RagDocument.builder().id("d" + i).text(text).metadata(metadata).build());
+        }
+        store.add(documents);
+        embeddingModel.register("q");
+        SearchRequest request = SearchRequest.builder().query("q").topK(10).similarityThreshold(-1d).build();
+        Map<String, Object> filter = new LinkedHashMap<String, Object>();
+        filter.put("version", 1L);
+        filter.put("created", created);
+        Assert.assertEquals(4, store.similaritySearch(request.toBuilder().metadataFilters(filter).build()).size());
+
+        // Re-adding unchanged documents neither replaces them nor triggers a compaction.
+        List<String> logs = Arrays.asList(directory.list());
+        store.add(documents);
+        Assert.assertEquals(logs, Arrays.asList(directory.list()));
+
+        store.deleteByMetadata("version", 0L);
+        Assert.assertNotEquals(logs, Arrays.asList(directory.list()));
+        Assert.assertEquals(4, store.similaritySearch(request.toBuilder().metadataFilters(filter).build()).size());
+        Assert.assertEquals(4, store.similaritySearch(request).size());
+    }
+
+    @Test
+    public void testRejectedMappedDocumentLeavesSlotsAligned() throws Exception {
+        FixedEmbeddingModel embeddingModel = new FixedEmbeddingModel()
+                .put("a text", 1.0d, 0.0d)
+                .put("b text", 0.0d, 1.0d)
+                .put("bad text", 0.6d, 0.8d)
+                .put("c text", -1.0d, 0.0d)
+                .put("qb", 0.0d, 1.0d)
+                .put("qc", -1.0d, 0.0d);
+        InMemoryVectorStore store = InMemoryVectorStore.builder()
+                .embeddingModel(embeddingModel)
+                .documentDirectory(folder.newFolder("rejected").toPath())
+                .build();
+        store.add(Collections.singletonList(RagDocument.builder().id("a").text("a text").build()));
+
+        // Jackson cannot serialize a plain Object, so the log rejects the second document.
+        Map<String, Object> unserializable = new LinkedHashMap<String, Object>();
+        unserializable.put("value", new Object());
+        try {
+            store.add(Arrays.asList(
+                    RagDocument.builder().id("b").text("b text").build(),
+                    RagDocument.builder().id("bad").text("bad text").metadata(unserializable).build(),
+                    RagDocument.builder().id("c").text("c text").build()));
+            Assert.fail("expected the metadata to be rejected");
+        } catch (RuntimeException expected) {
+        }
+        SearchRequest request = SearchRequest.builder().topK(1).similarityThreshold(-1d).build();
+        RagDocument top = store.similaritySearch(request.toBuilder().query("qb").build()).get(0);
+        Assert.assertEquals("b", top.getId());
+        Assert.assertEquals(1.0d, top.getScore(), 1e-6d);
+
+        store.add(Collections.singletonList(RagDocument.builder().id("c").text("c text").build()));
+        top = store.similaritySearch(request.toBuilder().query("qc").build()).get(0);
+        Assert.assertEquals("c", top.getId());
+        Assert.assertEquals("c text", top.getText());
+        Assert.assertEquals(1.0d, top.getScore(), 1e-6d);
+        Assert.assertEquals(3, store.similaritySearch(request.toBuilder().query("qc").topK(10).build()).size());
+    }
+
+    @Test
+    public void testDocumentLogsAreDeletedOnCloseAndWhenLeftBehind() throws Exception {
+        HnswVectorStoreTest.RandomEmbeddingModel embeddingModel = new HnswVectorStoreTest.RandomEmbeddingModel(8);
+        embeddingModel.register("kept text");
+        embeddingModel.register("q");
+        File directory = folder.newFolder("logs");
+        // What a store of a process that died without closing it leaves behind.
+        File stale = new File(directory, "documents-1234.log");
+        Assert.assertTrue(stale.createNewFile());
+
+        InMemoryVectorStore first = InMemoryVectorStore.builder()
+                .embeddingModel(embeddingModel).documentDirectory(directory.toPath()).build();
+        first.add(Collections.singletonList(RagDocument.builder().id("a").text("kept text").build()));
+        Assert.assertFalse(stale.exists());
+        Assert.assertEquals(1, directory.list().length);
+
+        // A log held by a live store is not swept.
+        InMemoryVectorStore second = InMemoryVectorStore.builder()
+                .embeddingModel(embeddingModel).documentDirectory(directory.toPath()).build();
+        Assert.assertEquals(2, directory.list().length);
+        SearchRequest request = SearchRequest.builder().query("q").topK(1).similarityThreshold(-1d).build();
+        Assert.assertEquals("kept text", first.similaritySearch(request).get(0).getText());
+
+        second.close();
+        Assert.assertEquals(1, directory.list().length);
+        first.close();
+        Assert.assertEquals(0, directory.list().length);
+    }
 }
@@ -0,0 +1,117 @@
+package com.bobo.llm4j.rag;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import com.bobo.llm4j.rag.vectorstore.InMemoryVectorStore;
+import com.bobo.llm4j.rag.vectorstore.IvfVectorStore;
+import com.bobo.llm4j.rag.vectorstore.SearchRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IvfVectorStoreTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void testProbingAllPartitionsMatchesExactSearch() {
+        HnswVectorStoreTest.RandomEmbeddingModel embeddingModel = new HnswVectorStoreTest.RandomEmbeddingModel(16);
+        List<RagDocument> documents = new ArrayList<RagDocument>();
+        for (int i = 0; i < 600; i++) {
+            embeddingModel.register("doc-" + i);
+            documents.add(RagDocument.builder().id("doc-" + i).text("doc-" + i).build());
+        }
+        embeddingModel.register("q");
+
+        IvfVectorStore ivf = IvfVectorStore.builder()
+                .embeddingModel(embeddingModel)
+                .nlist(8)
+                .nprobe(8)
+                .minTrainingSize(200)
+                .retrainExecutor(DIRECT)
+                .build();
+        ivf.add(documents);
+        InMemoryVectorStore exact = new InMemoryVectorStore(embeddingModel);
+        exact.add(documents);
+
+        SearchRequest request = SearchRequest.builder().query("q").topK(10).similarityThreshold(-1d).build();
+        List<RagDocument> expected = exact.similaritySearch(request);
+        List<RagDocument> hits = ivf.similaritySearch(request);
+        Assert.assertEquals(expected.size(), hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            Assert.assertEquals(expected.get(i).getId(), hits.get(i).getId());
+        }
+    }
+
+    @Test
+    public void testRetrainKeepsLiveDocumentsAndDropsDeleted() {
+        HnswVectorStoreTest.RandomEmbeddingModel embeddingModel = new HnswVectorStoreTest.RandomEmbeddingModel(8);
+        IvfVectorStore ivf = IvfVectorStore.builder()
+                .embeddingModel(embeddingModel)
+                .nlist(4)
+                .nprobe(4)
+                .minTrainingSize(50)
+                .retrainExecutor(DIRECT)
+                .build();
+        for (int batch = 0; batch < 4; batch++) {
+            List<RagDocument> documents = new ArrayList<RagDocument>();
+            for (int i = 0; i < 40; i++) {
+                String text = "b" + batch + "-" + i;
+                embeddingModel.register(text);
+                Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+                metadata.put("batch", batch);
+                documents.add(RagDocument.builder().id(text).text(text).metadata(metadata).build());
+            }
+            ivf.add(documents);
+        }
+        ivf.deleteByMetadata("batch", 1);
+        ivf.retrain();
+        embeddingModel.register("q");
+
+        List<RagDocument> hits = ivf.similaritySearch(SearchRequest.builder()
+                .query("q")
+                .topK(1000)
+                .similarityThreshold(-1d)
+                .build());
+        Assert.assertEquals(120, hits.size());
+        for (RagDocument hit : hits) {
+            Assert.assertNotEquals(1, hit.getMetadata().get("batch"));
+        }
+    }
+
+    @Test
+    public void testSmallTrainingDoesNotRetrainOnEveryWrite() {
+        HnswVectorStoreTest.RandomEmbeddingModel embeddingModel = new HnswVectorStoreTest.RandomEmbeddingModel(8);
+        final AtomicInteger retrains = new AtomicInteger();
+        IvfVectorStore ivf = IvfVectorStore.builder()
+                .embeddingModel(embeddingModel)
+                .minTrainingSize(50)
+                .retrainExecutor(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        retrains.incrementAndGet();
+                        command.run();
+                    }
+                })
+                .build();
+        embeddingModel.register("first");
+        ivf.add(Collections.singletonList(RagDocument.builder().id("first").text("first")
+                .metadata(Collections.<String, Object>singletonMap("tag", "first")).build()));
+        ivf.retrain();
+        ivf.deleteByMetadata("tag", "first");
+
+        for (int i = 0; i < 20; i++) {
+            String text = "doc-" + i;
+            embeddingModel.register(text);
+            ivf.add(Collections.singletonList(RagDocument.builder().id(text).text(text).build()));
+        }
+        Assert.assertEquals(0, retrains.get());
+    }
+}
@@ -0,0 +1,132 @@
+package com.bobo.llm4j.rag;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import com.bobo.llm4j.rag.vectorstore.MappedVectorStore;
+import com.bobo.llm4j.rag.vectorstore.SearchRequest;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class MappedVectorStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private InMemoryVectorStoreTest.FixedEmbeddingModel embeddingModel() {
+        return new InMemoryVectorStoreTest.FixedEmbeddingModel()
+                .put("Java intro", 1.0d, 0.0d)
+                .put("Java stream", 0.8d, 0.2d)
+                .put("Python intro", 0.0d, 1.0d)
+                .put("what is java", 1.0d, 0.0d);
+    }
+
+    private List<RagDocument> documents() {
+        Map<String, Object> javaMeta = new LinkedHashMap<String, Object>();
+        javaMeta.put("topic", "java");
+        Map<String, Object> pyMeta = new LinkedHashMap<String, Object>();
+        pyMeta.put("topic", "python");
+        return Arrays.asList(
+                RagDocument.builder().id("d1").text("Java intro").metadata(javaMeta).build(),
+                RagDocument.builder().id("d2").text("Java stream").metadata(javaMeta).build(),
+                RagDocument.builder().id("d3").text("Python intro").metadata(pyMeta).build());
+    }
+
+    private SearchRequest query() {
+        return SearchRequest.builder().query("what is java").topK(10).similarityThreshold(-1d).build();
+    }
+
+    @Test
+    public void testReopenRestoresDocumentsAndDeletes() throws Exception {
+        Path dir = folder.newFolder("store").toPath();
+        MappedVectorStore store = new MappedVectorStore(embeddingModel(), dir);
+        store.add(documents());
+        store.deleteByMetadata("topic", "python");
+
+        MappedVectorStore reopened = new MappedVectorStore(embeddingModel(), dir);
+        List<RagDocument> hits = reopened.similaritySearch(query());
+        Assert.assertEquals(2, hits.size());
+        Assert.assertEquals("d1", hits.get(0).getId());
+        Assert.assertEquals("Java intro", hits.get(0).getText());
+        Assert.assertEquals("java", hits.get(0).getMetadata().get("topic"));
+        Assert.assertEquals("d2", hits.get(1).getId());
+        Assert.assertEquals(2, reopened.size());
+    }
+
+    @Test
+    public void testMissingIdStaysNullAfterReopen() throws Exception {
+        Path dir = folder.newFolder("store").toPath();
+        MappedVectorStore store = new MappedVectorStore(embeddingModel(), dir);
+        store.add(Arrays.asList(RagDocument.builder().id(null).text("Java intro").build(),
+                RagDocument.builder().id("").text("Python intro").build()));
+
+        List<RagDocument> hits = new MappedVectorStore(embeddingModel(), dir).similaritySearch(query());
+        Assert.assertEquals(2, hits.size());
+        Assert.assertNull(hits.get(0).getId());
+        Assert.assertEquals("Java intro", hits.get(0).getText());
+        Assert.assertEquals("", hits.get(1).getId());
+    }
+
+    @Test
+    public void testUncommittedFilesAreIgnoredOnOpen() throws Exception {
+        Path dir = folder.newFolder("crash").toPath();
+        MappedVectorStore store = new MappedVectorStore(embeddingModel(), dir);
+        store.add(documents().subList(0, 1));
+
+        // Leftovers of a write that crashed before its manifest was renamed into place.
+        Path stray = dir.resolve("segment-99999999.vec");
+        Files.write(stray, new byte[]{1, 2, 3});
+        Files.write(dir.resolve("MANIFEST.tmp"), "garbage".getBytes(StandardCharsets.UTF_8));
+
+        MappedVectorStore reopened = new MappedVectorStore(embeddingModel(), dir);
+        Assert.assertEquals(1, reopened.size());
+        Assert.assertFalse(Files.exists(stray));
+        Assert.assertFalse(Files.exists(dir.resolve("MANIFEST.tmp")));
+    }
+
+    @Test
+    public void testSegmentsMergeAndFiltersApply() throws Exception {
+        Path dir = folder.newFolder("merge").toPath();
+        MappedVectorStore store = MappedVectorStore.builder()
+                .embeddingModel(embeddingModel())
+                .directory(dir)
+                .maxSegments(2)
+                .build();
+        for (RagDocument doc : documents()) {
+            store.add(Collections.singletonList(doc));
+        }
+        store.compact();
+
+        Map<String, Object> filters = new LinkedHashMap<String, Object>();
+        filters.put("topic", "java");
+        List<RagDocument> hits = store.similaritySearch(query().toBuilder().metadataFilters(filters).build());
+        Assert.assertEquals(2, hits.size());
+        Assert.assertEquals(3, new MappedVectorStore(embeddingModel(), dir).size());
+    }
+
+    @Test
+    public void testNumericMetadataMatchesByValue() throws Exception {
+        Path dir = folder.newFolder("numbers").toPath();
+        MappedVectorStore store = new MappedVectorStore(embeddingModel(), dir);
+        List<RagDocument> docs = new ArrayList<RagDocument>();
+        for (RagDocument doc : documents()) {
+            Map<String, Object> metadata = new LinkedHashMap<String, Object>(doc.getMetadata());
+            metadata.put("year", "d3".equals(doc.getId()) ? 2020 : 2024);
+            docs.add(doc.toBuilder().metadata(metadata).build());
+        }
+        store.add(docs);
+
+        Map<String, Object> filters = new LinkedHashMap<String, Object>();
+        filters.put("year", 2024L);
+        Assert.assertEquals(2, store.similaritySearch(query().toBuilder().metadataFilters(filters).build()).size());
+
+        store.deleteByMetadata("year", 2020L);
+        Assert.assertEquals(2, store.size());
+        Assert.assertEquals(2, new MappedVectorStore(embeddingModel(), dir).size());
+    }
+}
@@ -0,0 +1,78 @@
+package com.bobo.llm4j.rag;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import com.bobo.llm4j.rag.retrieval.VectorStoreDocumentRetriever;
+import com.bobo.llm4j.rag.vectorstore.*;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.*;
+
+public class MaximalMarginalRelevanceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final InMemoryVectorStoreTest.FixedEmbeddingModel embeddingModel = new InMemoryVectorStoreTest.FixedEmbeddingModel()
+            .put("chunk a1", 1.0d, 0.01d, 0.0d)
+            .put("chunk a2", 1.0d, 0.02d, 0.0d)
+            .put("chunk a3", 1.0d, 0.0d, 0.03d)
+            .put("chunk b", 0.8d, 0.0d, 0.6d)
+            .put("question", 1.0d, 0.0d, 0.0d);
+
+    private static List<RagDocument> documents() {
+        List<RagDocument> documents = new ArrayList<RagDocument>();
+        for (String text : Arrays.asList("chunk a1", "chunk a2", "chunk a3", "chunk b")) {
+            Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+            metadata.put("parent_document_id", text.startsWith("chunk a") ? "a" : "b");
+            documents.add(RagDocument.builder().id(text).text(text).metadata(metadata).build());
+        }
+        return documents;
+    }
+
+    private static List<String> texts(List<RagDocument> hits) {
+        List<String> texts = new ArrayList<String>();
+        for (RagDocument hit : hits) {
+            texts.add(hit.getText());
+        }
+        return texts;
+    }
+
+    @Test
+    public void testRetrieverPicksDiverseChunks() throws Exception {
+        InMemoryVectorStore store = new InMemoryVectorStore(embeddingModel);
+        store.add(documents());
+
+        VectorStoreDocumentRetriever plain = VectorStoreDocumentRetriever.builder()
+                .vectorStore(store).topK(2).build();
+        Assert.assertEquals(Arrays.asList("chunk a1", "chunk a2"), texts(plain.retrieve("question", null)));
+
+        VectorStoreDocumentRetriever diverse = VectorStoreDocumentRetriever.builder()
+                .vectorStore(store).topK(2).mmrLambda(0.3d).build();
+        List<RagDocument> hits = diverse.retrieve("question", null);
+        Assert.assertEquals(Arrays.asList("chunk a1", "chunk b"), texts(hits));
+        Assert.assertEquals(0.8d, hits.get(1).getScore(), 1e-6);
+    }
+
+    @Test
+    public void testEveryStoreReranksWithStoredVectors() throws Exception {
+        SearchRequest request = SearchRequest.builder().query("question").topK(2).similarityThreshold(-1d)
+                .mmrLambda(0.3d).build();
+        List<VectorStore> stores = Arrays.<VectorStore>asList(
+                InMemoryVectorStore.builder().embeddingModel(embeddingModel)
+                        .quantization(VectorQuantization.INT8).build(),
+                new HnswVectorStore(embeddingModel),
+                new IvfVectorStore(embeddingModel),
+                new MappedVectorStore(embeddingModel, folder.newFolder("mapped").toPath()));
+        for (VectorStore store : stores) {
+            store.add(documents());
+            Assert.assertEquals(store.getClass().getSimpleName(),
+                    Arrays.asList("chunk a1", "chunk b"), texts(store.similaritySearch(request)));
+            Assert.assertEquals(store.getClass().getSimpleName(),
+                    Arrays.asList("chunk a1", "chunk a2"),
+                    texts(store.similaritySearch(request.toBuilder().mmrLambda(1.0d).build())));
+        }
+    }
+}
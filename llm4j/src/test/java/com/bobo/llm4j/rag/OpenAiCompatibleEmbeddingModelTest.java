@@ -0,0 +1,201 @@
+package com.bobo.llm4j.rag;
+
+import com.bobo.llm4j.exception.RateLimitException;
+import com.bobo.llm4j.interceptor.RateLimitInterceptor;
+import com.bobo.llm4j.platform.openai.embedding.OpenAiCompatibleEmbeddingModel;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.*;
+import okio.Buffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OpenAiCompatibleEmbeddingModelTest {
+
+    /**
+     * Answers embedding requests locally; each text embeds to {@code [number in the text]}.
+     */
+    static class FakeEmbeddingServer implements Interceptor {
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final Set<String> failOnce = Collections.synchronizedSet(new HashSet<String>());
+        private final ObjectMapper objectMapper = new ObjectMapper();
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Buffer body = new Buffer();
+            chain.request().body().writeTo(body);
+            JsonNode input = objectMapper.readTree(body.readUtf8()).get("input");
+            int current = inFlight.incrementAndGet();
+            synchronized (maxInFlight) {
+                maxInFlight.set(Math.max(maxInFlight.get(), current));
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            if (failOnce.remove(input.get(0).asText())) {
+                return response(chain, 503, "{}");
+            }
+            batchSizes.add(input.size());
+            StringBuilder json = new StringBuilder("{\"data\":[");
+            for (int i = 0; i < input.size(); i++) {
+                json.append(i == 0 ? "" : ",").append("{\"index\":").append(i).append(",\"embedding\":[")
+                        .append(input.get(i).asText().replaceAll("\\D", "")).append("]}");
+            }
+            return response(chain, 200, json.append("]}").toString());
+        }
+
+        private static Response response(Chain chain, int code, String json) {
+            return new Response.Builder().request(chain.request()).protocol(Protocol.HTTP_1_1)
+                    .code(code).message("fake")
+                    .body(ResponseBody.create(json, MediaType.parse("application/json")))
+                    .build();
+        }
+    }
+
+    @Test
+    public void testSplitsDispatchesConcurrentlyAndRetriesOnlyFailedBatch() throws Exception {
+        FakeEmbeddingServer server = new FakeEmbeddingServer();
+        OpenAiCompatibleEmbeddingModel model = OpenAiCompatibleEmbeddingModel.builder()
+                .okHttpClient(new OkHttpClient.Builder().addInterceptor(server).build())
+                .apiHost("http://localhost/").embeddingUrl("v1/embeddings").model("m")
+                .maxBatchSize(3).maxConcurrentRequests(2).retryBackoffMillis(1L)
+                .build();
+        List<String> texts = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            texts.add("text " + i);
+        }
+        server.failOnce.add("text 3");
+
+        List<List<Double>> vectors = model.embedAll(texts);
+
+        Assert.assertEquals(10, vectors.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(Collections.singletonList((double) i), vectors.get(i));
+        }
+        List<Integer> sizes = new ArrayList<Integer>(server.batchSizes);
+        Collections.sort(sizes);
+        Assert.assertEquals(Arrays.asList(1, 3, 3, 3), sizes);
+        Assert.assertEquals(2, server.maxInFlight.get());
+    }
+
+    @Test
+    public void testZeroRetriesFailsOnFirstError() throws Exception {
+        FakeEmbeddingServer server = new FakeEmbeddingServer();
+        OpenAiCompatibleEmbeddingModel model = OpenAiCompatibleEmbeddingModel.builder()
+                .okHttpClient(new OkHttpClient.Builder().addInterceptor(server).build())
+                .apiHost("http://localhost/").embeddingUrl("v1/embeddings").model("m")
+                .maxRetries(0).retryBackoffMillis(1L)
+                .build();
+        server.failOnce.add("text 1");
+
+        try {
+            model.embedAll(Collections.singletonList("text 1"));
+            Assert.fail("expected the failed request not to be retried");
+        } catch (RuntimeException expected) {
+            Assert.assertTrue(server.batchSizes.isEmpty());
+        }
+        Assert.assertEquals(Collections.singletonList(Collections.singletonList(1.0d)),
+                model.embedAll(Collections.singletonList("text 1")));
+    }
+
+    @Test
+    public void testShedRequestsAreNotRetried() throws Exception {
+        FakeEmbeddingServer server = new FakeEmbeddingServer();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(RateLimitInterceptor.builder().requestsPerMinute(1).maxWaitMillis(50L).build())
+                .addInterceptor(server).build();
+        OpenAiCompatibleEmbeddingModel model = OpenAiCompatibleEmbeddingModel.builder()
+                .okHttpClient(client).apiHost("http://localhost/").embeddingUrl("v1/embeddings").model("m")
+                .retryBackoffMillis(2000L).build();
+
+        model.embedAll(Collections.singletonList("text 1"));
+        long start = System.nanoTime();
+        try {
+            model.embedAll(Collections.singletonList("text 2"));
+            Assert.fail("expected the second request to be shed");
+        } catch (RateLimitException expected) {
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000L));
+        }
+        Assert.assertEquals(1, server.batchSizes.size());
+    }
+
+    @Test
+    public void testAsyncEmbeddingDoesNotBlockCaller() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final FakeEmbeddingServer server = new FakeEmbeddingServer();
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return server.intercept(chain);
+            }
+        }).build();
+        OpenAiCompatibleEmbeddingModel model = OpenAiCompatibleEmbeddingModel.builder()
+                .okHttpClient(client).apiHost("http://localhost/").embeddingUrl("v1/embeddings").model("m")
+                .maxBatchSize(2).maxConcurrentRequests(1).build();
+
+        CompletableFuture<List<List<Double>>> pending = model.embedAllAsync(Arrays.asList("a 1", "b 2", "c 3"));
+        Assert.assertFalse(pending.isDone());
+        release.countDown();
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(1.0d), Arrays.asList(2.0d), Arrays.asList(3.0d)),
+                pending.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, server.maxInFlight.get());
+    }
+
+    @Test
+    public void testTokenLimitStartsNewBatch() throws Exception {
+        FakeEmbeddingServer server = new FakeEmbeddingServer();
+        OpenAiCompatibleEmbeddingModel model = OpenAiCompatibleEmbeddingModel.builder()
+                .okHttpClient(new OkHttpClient.Builder().addInterceptor(server).build())
+                .apiHost("http://localhost/").embeddingUrl("v1/embeddings").model("m")
+                .maxTokensPerRequest(5).build();
+
+        List<List<Double>> vectors = model.embedAll(Arrays.asList("a 1", "b 2", "c 3", "d 4"));
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(1.0d), Arrays.asList(2.0d), Arrays.asList(3.0d),
+                Arrays.asList(4.0d)), vectors);
+        Assert.assertTrue(server.batchSizes.size() > 1);
+        for (int size : server.batchSizes) {
+            Assert.assertTrue(size < 4);
+        }
+    }
+
+    @Test
+    public void testStreamsVectorsByIndex() throws Exception {
+        final String json = "{\"object\":\"list\",\"data\":["
+                + "{\"embedding\":[0.5,-1,2e-1],\"object\":\"embedding\",\"index\":1},"
+                + "{\"object\":\"embedding\",\"index\":0,\"embedding\":[1,2,3]}],"
+                + "\"model\":\"m\",\"usage\":{\"prompt_tokens\":4,\"total_tokens\":4}}";
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) {
+                return FakeEmbeddingServer.response(chain, 200, json);
+            }
+        }).build();
+        OpenAiCompatibleEmbeddingModel model = new OpenAiCompatibleEmbeddingModel(client, "http://localhost/", "k",
+                "v1/embeddings", "m");
+
+        List<float[]> vectors = model.embedAllVectors(Arrays.asList("first", "second"));
+
+        Assert.assertArrayEquals(new float[]{1f, 2f, 3f}, vectors.get(0), 0f);
+        Assert.assertArrayEquals(new float[]{0.5f, -1f, 0.2f}, vectors.get(1), 0f);
+        Assert.assertEquals(Arrays.asList(1.0d, 2.0d, 3.0d), model.embedAll(Arrays.asList("first", "second")).get(0));
+    }
+}
@@ -0,0 +1,165 @@
+package com.bobo.llm4j.rag;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import com.bobo.llm4j.rag.vectorstore.InMemoryVectorStore;
+import com.bobo.llm4j.rag.vectorstore.SearchRequest;
+import com.bobo.llm4j.rag.vectorstore.ShardedVectorStore;
+import com.bobo.llm4j.rag.vectorstore.VectorStore;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ShardedVectorStoreTest {
+
+    private static List<RagDocument> documents(HnswVectorStoreTest.RandomEmbeddingModel embeddingModel, int count) {
+        List<RagDocument> documents = new ArrayList<RagDocument>();
+        for (int i = 0; i < count; i++) {
+            String text = "doc-" + i;
+            embeddingModel.register(text);
+            Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+            metadata.put("tenant", "t" + (i % 5));
+            documents.add(RagDocument.builder().id(text).text(text).metadata(metadata).build());
+        }
+        return documents;
+    }
+
+    @Test
+    public void testScatterGatherMatchesSingleStore() {
+        HnswVectorStoreTest.RandomEmbeddingModel embeddingModel = new HnswVectorStoreTest.RandomEmbeddingModel(8);
+        List<RagDocument> documents = documents(embeddingModel, 300);
+        embeddingModel.register("q");
+        InMemoryVectorStore single = new InMemoryVectorStore(embeddingModel);
+        single.add(documents);
+        List<VectorStore> shards = new ArrayList<VectorStore>();
+        for (int s = 0; s < 4; s++) {
+            shards.add(new InMemoryVectorStore(embeddingModel));
+        }
+        ShardedVectorStore sharded = new ShardedVectorStore(shards);
+        sharded.add(documents);
+
+        for (VectorStore shard : shards) {
+            Assert.assertFalse(shard.similaritySearch(SearchRequest.builder().query("q").topK(1).build()).isEmpty());
+        }
+        SearchRequest request = SearchRequest.builder().query("q").topK(25).similarityThreshold(-1d).build();
+        Assert.assertEquals(single.similaritySearch(request), sharded.similaritySearch(request));
+        Map<String, Object> filter = new LinkedHashMap<String, Object>();
+        filter.put("tenant", "t2");
+        SearchRequest filtered = request.toBuilder().metadataFilters(filter).build();
+        Assert.assertEquals(Arrays.asList(single.similaritySearch(request), single.similaritySearch(filtered)),
+                sharded.batchSimilaritySearch(Arrays.asList(request, filtered)));
+
+        sharded.deleteByMetadata("tenant", "t2");
+        single.deleteByMetadata("tenant", "t2");
+        Assert.assertEquals(single.similaritySearch(request), sharded.similaritySearch(request));
+    }
+
+    @Test
+    public void testQueryIsEmbeddedOnceAndMmrRunsAcrossShards() {
+        final AtomicInteger embedCalls = new AtomicInteger();
+        HnswVectorStoreTest.RandomEmbeddingModel embeddingModel = new HnswVectorStoreTest.RandomEmbeddingModel(8) {
+            @Override
+            public synchronized List<List<Double>> embedAll(List<String> texts) {
+                embedCalls.incrementAndGet();
+                return super.embedAll(texts);
+            }
+        };
+        List<RagDocument> documents = documents(embeddingModel, 300);
+        embeddingModel.register("q");
+        embeddingModel.register("p");
+        InMemoryVectorStore single = new InMemoryVectorStore(embeddingModel);
+        single.add(documents);
+        List<VectorStore> shards = new ArrayList<VectorStore>();
+        for (int s = 0; s < 4; s++) {
+            shards.add(new InMemoryVectorStore(embeddingModel));
+        }
+        ShardedVectorStore sharded = ShardedVectorStore.builder().shards(shards).embeddingModel(embeddingModel).build();
+        sharded.add(documents);
+
+        SearchRequest request = SearchRequest.builder().query("q").topK(10).similarityThreshold(-1d).build();
+        List<RagDocument> expected = single.similaritySearch(request);
+        embedCalls.set(0);
+        Assert.assertEquals(expected, sharded.similaritySearch(request));
+        Assert.assertEquals(1, embedCalls.get());
+        embedCalls.set(0);
+        sharded.batchSimilaritySearch(Arrays.asList(request, request.toBuilder().query("p").build()));
+        Assert.assertEquals(1, embedCalls.get());
+
+        // Diversity is decided over the merged candidates, as a single store would decide it.
+        SearchRequest mmr = request.toBuilder().mmrLambda(0.3d).build();
+        List<RagDocument> diverse = sharded.similaritySearch(mmr);
+        Assert.assertEquals(single.similaritySearch(mmr), diverse);
+        Assert.assertNotEquals(single.similaritySearch(request), diverse);
+        Assert.assertNull(diverse.get(0).getEmbedding());
+    }
+
+    @Test
+    public void testSlowShardIsDroppedAtDeadlineAndKeyPinsShard() throws Exception {
+        HnswVectorStoreTest.RandomEmbeddingModel embeddingModel = new HnswVectorStoreTest.RandomEmbeddingModel(8);
+        embeddingModel.register("q");
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger slowSearches = new AtomicInteger();
+        final InMemoryVectorStore slowDelegate = new InMemoryVectorStore(embeddingModel);
+        VectorStore slow = new VectorStore() {
+            @Override
+            public void add(List<RagDocument> documents) {
+                slowDelegate.add(documents);
+            }
+
+            @Override
+            public List<RagDocument> similaritySearch(SearchRequest request) {
+                slowSearches.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return slowDelegate.similaritySearch(request);
+            }
+
+            @Override
+            public void deleteByMetadata(String key, Object value) {
+                slowDelegate.deleteByMetadata(key, value);
+            }
+        };
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            ShardedVectorStore sharded = ShardedVectorStore.builder()
+                    .shards(Arrays.<VectorStore>asList(new InMemoryVectorStore(embeddingModel), slow))
+                    .shardKey("tenant")
+                    .executor(executor)
+                    .shardTimeoutMillis(100L)
+                    .build();
+            sharded.add(documents(embeddingModel, 50));
+
+            SearchRequest request = SearchRequest.builder().query("q").topK(100).similarityThreshold(-1d).build();
+            long start = System.nanoTime();
+            List<RagDocument> hits = sharded.similaritySearch(request);
+            Assert.assertTrue(System.nanoTime() - start < 5000000000L);
+            Assert.assertTrue(hits.size() > 0 && hits.size() < 50);
+            Assert.assertEquals(1, slowSearches.get());
+            Assert.assertEquals(1L, sharded.getPartialSearchCount());
+
+            // A request pinned to a tenant only reaches the shard that owns it.
+            int asked = slowSearches.get();
+            for (int t = 0; t < 5; t++) {
+                Map<String, Object> filter = new LinkedHashMap<String, Object>();
+                filter.put("tenant", "t" + t);
+                List<RagDocument> tenantHits = sharded.similaritySearch(request.toBuilder().metadataFilters(filter).build());
+                if (!tenantHits.isEmpty()) {
+                    Assert.assertEquals(10, tenantHits.size());
+                } else {
+                    asked++;
+                }
+            }
+            Assert.assertEquals(asked, slowSearches.get());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+}
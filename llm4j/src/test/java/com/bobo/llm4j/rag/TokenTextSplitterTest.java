@@ -2,6 +2,9 @@ package com.bobo.llm4j.rag;
 
 import com.bobo.llm4j.rag.document.RagDocument;
 import com.bobo.llm4j.rag.transformer.TokenTextSplitter;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -40,5 +43,34 @@ public class TokenTextSplitterTest {
         Assert.assertTrue(chunks.get(0).getMetadata().containsKey("chunk_index"));
         Assert.assertTrue(chunks.get(0).getText().length() > 0);
     }
-}
 
+    @Test
+    public void testChunksFollowTokenBudgetAndSentenceEnds() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append("Sentence number ").append(i).append(" talks about 向量检索 and chunking. ");
+        }
+        TokenTextSplitter splitter = TokenTextSplitter.builder()
+                .chunkSize(64)
+                .minChunkSizeChars(20)
+                .minChunkLengthToEmbed(2)
+                .maxNumChunks(1000)
+                .keepSeparator(true)
+                .build();
+
+        List<RagDocument> chunks = splitter.transform(Arrays.asList(RagDocument.builder()
+                .id("doc-2").text(text.toString()).build()));
+        Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < chunks.size(); i++) {
+            String chunk = chunks.get(i).getText();
+            Assert.assertTrue(encoding.countTokens(chunk) <= 64);
+            Assert.assertFalse(chunk.contains("\uFFFD"));
+            if (i < chunks.size() - 1) {
+                Assert.assertTrue(chunk, chunk.endsWith("."));
+            }
+            joined.append(chunk).append(' ');
+        }
+        Assert.assertEquals(text.toString().trim(), joined.toString().trim());
+    }
+}
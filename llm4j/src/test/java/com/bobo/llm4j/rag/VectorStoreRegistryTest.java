@@ -0,0 +1,146 @@
+package com.bobo.llm4j.rag;
+
+import com.bobo.llm4j.rag.document.RagDocument;
+import com.bobo.llm4j.rag.vectorstore.InMemoryVectorStore;
+import com.bobo.llm4j.rag.vectorstore.MappedVectorStore;
+import com.bobo.llm4j.rag.vectorstore.SearchRequest;
+import com.bobo.llm4j.rag.vectorstore.VectorStore;
+import com.bobo.llm4j.rag.vectorstore.VectorStoreRegistry;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Function;
+
+public class VectorStoreRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static RagDocument doc(String id, String text, String tenant) {
+        Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+        metadata.put("tenant", tenant);
+        return RagDocument.builder().id(id).text(text).metadata(metadata).build();
+    }
+
+    private static SearchRequest query(String tenant) {
+        Map<String, Object> filters = new LinkedHashMap<String, Object>();
+        if (tenant != null) {
+            filters.put("tenant", tenant);
+        }
+        return SearchRequest.builder().query("what is java").topK(10).similarityThreshold(-1d)
+                .metadataFilters(filters).build();
+    }
+
+    @Test
+    public void testTenantQueriesOnlyTouchTheirCollection() {
+        final InMemoryVectorStoreTest.FixedEmbeddingModel embeddingModel = new InMemoryVectorStoreTest.FixedEmbeddingModel()
+                .put("Java intro", 1.0d, 0.0d)
+                .put("Java stream", 0.8d, 0.2d)
+                .put("Python intro", 0.0d, 1.0d)
+                .put("what is java", 1.0d, 0.0d);
+        final List<String> created = new ArrayList<String>();
+        VectorStoreRegistry registry = VectorStoreRegistry.builder()
+                .collectionKey("tenant")
+                .storeFactory(new Function<String, VectorStore>() {
+                    @Override
+                    public VectorStore apply(String name) {
+                        created.add(name);
+                        return new InMemoryVectorStore(embeddingModel);
+                    }
+                })
+                .build();
+
+        registry.add(Arrays.asList(
+                doc("a1", "Java intro", "acme"),
+                doc("b1", "Java stream", "globex"),
+                doc("a2", "Python intro", "acme")));
+
+        Assert.assertEquals(Arrays.asList("acme", "globex"), created);
+        List<RagDocument> acme = registry.similaritySearch(query("acme"));
+        Assert.assertEquals(2, acme.size());
+        Assert.assertEquals("a1", acme.get(0).getId());
+        Assert.assertEquals("a2", acme.get(1).getId());
+        Assert.assertEquals(1, registry.getCollection("globex").similaritySearch(query(null)).size());
+        Assert.assertTrue(registry.similaritySearch(query("initech")).isEmpty());
+
+        // Without the tenant filter every collection is searched and merged by score.
+        List<RagDocument> all = registry.similaritySearch(query(null));
+        Assert.assertEquals(Arrays.asList("a1", "b1", "a2"),
+                Arrays.asList(all.get(0).getId(), all.get(1).getId(), all.get(2).getId()));
+
+        List<List<RagDocument>> batch = registry.batchSimilaritySearch(Arrays.asList(
+                query("globex"), query("initech"), query("acme")));
+        Assert.assertEquals("b1", batch.get(0).get(0).getId());
+        Assert.assertTrue(batch.get(1).isEmpty());
+        Assert.assertEquals(acme, batch.get(2));
+
+        registry.deleteByMetadata("tenant", "acme");
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("acme", "globex")), registry.getCollectionNames());
+        Assert.assertTrue(registry.similaritySearch(query("acme")).isEmpty());
+        Assert.assertTrue(registry.getCollection("acme").similaritySearch(query(null)).isEmpty());
+        Assert.assertEquals(1, registry.similaritySearch(query(null)).size());
+    }
+
+    @Test
+    public void testRegisteredCollectionsWithoutFactory() {
+        VectorStoreRegistry registry = new VectorStoreRegistry(null, null);
+        InMemoryVectorStore store = new InMemoryVectorStore(new InMemoryVectorStoreTest.FixedEmbeddingModel());
+        registry.register("docs", store);
+        Assert.assertSame(store, registry.collection("docs"));
+        try {
+            registry.add(Collections.singletonList(RagDocument.of("no collection")));
+            Assert.fail("expected a missing collection to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // documents must name their collection
+        }
+        try {
+            registry.collection("other");
+            Assert.fail("expected an unknown collection to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // no factory to create it
+        }
+        Assert.assertSame(store, registry.unload("docs"));
+        Assert.assertTrue(registry.getCollectionNames().isEmpty());
+    }
+
+    @Test
+    public void testDeletingACollectionRemovesItsPersistentDocuments() throws Exception {
+        final InMemoryVectorStoreTest.FixedEmbeddingModel embeddingModel = new InMemoryVectorStoreTest.FixedEmbeddingModel()
+                .put("Java intro", 1.0d, 0.0d)
+                .put("what is java", 1.0d, 0.0d);
+        final Path root = folder.newFolder("collections").toPath();
+        Function<String, VectorStore> factory = new Function<String, VectorStore>() {
+            @Override
+            public VectorStore apply(String name) {
+                return new MappedVectorStore(embeddingModel, root.resolve(name));
+            }
+        };
+        VectorStoreRegistry registry = VectorStoreRegistry.builder().collectionKey("tenant").storeFactory(factory).build();
+        registry.add(Collections.singletonList(doc("a1", "Java intro", "acme")));
+        registry.deleteByMetadata("tenant", "acme");
+
+        VectorStoreRegistry reopened = VectorStoreRegistry.builder().collectionKey("tenant").storeFactory(factory).build();
+        Assert.assertTrue(reopened.collection("acme").similaritySearch(query(null)).isEmpty());
+    }
+
+    @Test
+    public void testUnloadClosesTheCollectionStore() throws Exception {
+        File directory = folder.newFolder("unloaded");
+        InMemoryVectorStore store = InMemoryVectorStore.builder()
+                .embeddingModel(new InMemoryVectorStoreTest.FixedEmbeddingModel().put("Java intro", 1.0d, 0.0d))
+                .documentDirectory(directory.toPath())
+                .build();
+        VectorStoreRegistry registry = VectorStoreRegistry.builder().collectionKey("tenant").build();
+        registry.register("acme", store);
+        registry.add(Collections.singletonList(doc("a1", "Java intro", "acme")));
+        Assert.assertEquals(1, directory.list().length);
+
+        Assert.assertSame(store, registry.unload("acme"));
+        Assert.assertEquals(0, directory.list().length);
+    }
+}